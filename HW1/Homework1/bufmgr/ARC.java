@@ -0,0 +1,314 @@
+package bufmgr;
+
+import global.AbstractBufMgr;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import exceptions.BufferPoolExceededException;
+import exceptions.InvalidFrameNumberException;
+import exceptions.PagePinnedException;
+import exceptions.PageUnpinnedException;
+
+
+/**
+ * This class implements the ARC (adaptive replacement cache) strategy.
+ *
+ * Resident pages are on one of two LRU lists of frames: T1 holds pages seen
+ * once recently, T2 pages seen at least twice. The ghost lists B1 and B2
+ * remember, by page number, the pages recently evicted from T1 and T2. A miss
+ * on a page in B1 means T1 was too small and moves the target size p of T1
+ * up; a miss on a page in B2 moves it down. The victim comes from T1 while T1
+ * is larger than p, and from T2 otherwise, so the pool keeps shifting between
+ * recency and frequency as the workload changes.
+ *
+ * The replacer only learns which page comes in when the frame is pinned, so
+ * unlike the original algorithm the choice between T1 and T2 does not look
+ * at the incoming page. Pinned frames are skipped when picking a victim.
+ */
+public class ARC extends BufMgrReplacer
+{
+	int totalFrames = 0;
+
+	// List a frame is on.
+	private static final int NONE = 0;
+	private static final int T1 = 1;
+	private static final int T2 = 2;
+
+	// Target size of T1.
+	private int p = 0;
+
+	// prev and next link the frames of T1 and T2; the sentinel of T1 is at
+	// index totalFrames and that of T2 at totalFrames + 1. Next of a sentinel
+	// is the least recently used frame.
+	private int[] prev;
+	private int[] next;
+	private int[] listOf;
+	private int t1Size = 0;
+	private int t2Size = 0;
+
+	// The page held by each frame, or -1.
+	private int[] pageOf;
+
+	// Frames holding no page.
+	private int[] emptyFrames;
+	private int numEmpty = 0;
+
+	// Number of frames that are not pinned.
+	private int count = 0;
+
+	// Ghost lists of page numbers, least recently evicted first.
+	private LinkedHashSet<Integer> b1 = new LinkedHashSet<>();
+	private LinkedHashSet<Integer> b2 = new LinkedHashSet<>();
+
+	public ARC(AbstractBufMgr b)  {
+		setBufferManager((BufMgr)b);
+		initialize();
+	}
+
+	private void initialize() {
+		totalFrames = mgr.getNumBuffers();
+		prev = new int[totalFrames + 2];
+		next = new int[totalFrames + 2];
+		listOf = new int[totalFrames];
+		pageOf = new int[totalFrames];
+		emptyFrames = new int[totalFrames];
+		for (int l = totalFrames; l < totalFrames + 2; l++) prev[l] = next[l] = l;
+		for (int i = totalFrames - 1; i >= 0; i--) {
+			pageOf[i] = -1;
+			emptyFrames[numEmpty++] = i;
+		}
+		count = totalFrames;
+	}
+
+	private int sentinel(int list) {
+		return list == T1 ? totalFrames : totalFrames + 1;
+	}
+
+	private void append(int frameNo, int list) {
+		int s = sentinel(list);
+		int newest = prev[s];
+		prev[frameNo] = newest;
+		next[frameNo] = s;
+		next[newest] = frameNo;
+		prev[s] = frameNo;
+		listOf[frameNo] = list;
+		if (list == T1) t1Size++;
+		else t2Size++;
+	}
+
+	private void unlink(int frameNo) {
+		if (listOf[frameNo] == NONE) return;
+		next[prev[frameNo]] = next[frameNo];
+		prev[next[frameNo]] = prev[frameNo];
+		if (listOf[frameNo] == T1) t1Size--;
+		else t2Size--;
+		listOf[frameNo] = NONE;
+	}
+
+	// The least recently used unpinned frame of a list, or -1. The frames
+	// looked at are added to the search length.
+	private int lruUnpinned(int list) {
+		int s = sentinel(list);
+		for (int f = next[s]; f != s; f = next[f]) {
+			searchLength++;
+			if (state_bit[f] != Pinned) return f;
+		}
+		return -1;
+	}
+
+	private static void removeOldest(LinkedHashSet<Integer> ghosts) {
+		Iterator<Integer> oldest = ghosts.iterator();
+		oldest.next();
+		oldest.remove();
+	}
+
+	// Keeps |T1| + |B1| <= c and |T1| + |T2| + |B1| + |B2| <= 2c.
+	private void trimGhosts() {
+		while (t1Size + b1.size() > totalFrames && !b1.isEmpty()) removeOldest(b1);
+		while (t1Size + t2Size + b1.size() + b2.size() > 2 * totalFrames) {
+			if (!b2.isEmpty()) removeOldest(b2);
+			else removeOldest(b1);
+		}
+	}
+
+	/**
+	 * Pins a candidate page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @return true if successful.
+	 */
+	public void pin(int frameNo) throws InvalidFrameNumberException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
+
+		int pageNo = frameTable[frameNo].getPageNo().pid;
+		if (pageOf[frameNo] != pageNo) {
+			// the old page is evicted into the ghost list of its list
+			if (listOf[frameNo] == T1) b1.add(pageOf[frameNo]);
+			else if (listOf[frameNo] == T2) b2.add(pageOf[frameNo]);
+			unlink(frameNo);
+			pageOf[frameNo] = pageNo;
+
+			if (b1.contains(pageNo)) {
+				// T1 was too small for this page
+				p = Math.min(totalFrames, p + Math.max(b2.size() / b1.size(), 1));
+				b1.remove(pageNo);
+				append(frameNo, T2);
+			} else if (b2.contains(pageNo)) {
+				// T2 was too small for this page
+				p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+				b2.remove(pageNo);
+				append(frameNo, T2);
+			} else {
+				append(frameNo, T1);
+			}
+			trimGhosts();
+		} else {
+			// a hit makes the page frequent
+			unlink(frameNo);
+			append(frameNo, T2);
+		}
+
+		if (state_bit[frameNo] != Pinned) count--;
+		state_bit[frameNo] = Pinned;
+	}
+
+	/**
+	 * Unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @throws PageUnpinnedException
+	 *             if the page is originally unpinned.
+	 * @return true if successful.
+	 */
+	public boolean unpin(int frameNo) throws InvalidFrameNumberException,
+			PageUnpinnedException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
+		if (state_bit[frameNo] == Pinned) {
+			state_bit[frameNo] = Referenced;
+			count++;
+		}
+		return true;
+	}
+
+	/**
+	 * Frees and unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws PagePinnedException
+	 *             if the page is pinned.
+	 */
+	public void free(int frameNo) throws PagePinnedException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new PagePinnedException(null, "ERROR: invalid frame no.");
+		if (state_bit[frameNo] == Available) return;
+		if (state_bit[frameNo] == Pinned) count++;
+		// a freed page is gone for good, so it does not become a ghost
+		unlink(frameNo);
+		pageOf[frameNo] = -1;
+		state_bit[frameNo] = Available;
+		emptyFrames[numEmpty++] = frameNo;
+	}
+
+	/** Takes the frame off the empty frames before pinning it. */
+	public void adopt(int frameNo) throws InvalidFrameNumberException {
+		for (int i = 0; i < numEmpty; i++) {
+			if (emptyFrames[i] == frameNo) {
+				emptyFrames[i] = emptyFrames[--numEmpty];
+				break;
+			}
+		}
+		pin(frameNo);
+	}
+
+	/** Must pin the returned frame. */
+	public int pick_victim() throws BufferPoolExceededException,
+			PagePinnedException {
+		int victimNo = -1;
+		searchLength = 0;
+		if (numEmpty > 0) {
+			victimNo = emptyFrames[--numEmpty];
+			searchLength = 1;
+		}
+		if (victimNo < 0 && t1Size > 0 && t1Size > p) victimNo = lruUnpinned(T1);
+		if (victimNo < 0) victimNo = lruUnpinned(T2);
+		if (victimNo < 0) victimNo = lruUnpinned(T1);
+		if (victimNo < 0) throw new BufferPoolExceededException(null, "ERROR: not enough unpinned buffers. Waiting for unpin");
+		// the frame stays on its list until a new page is pinned in it
+		state_bit[victimNo] = Pinned;
+		count--;
+		return victimNo;
+	}
+
+	/** Gives back a frame returned by pick_victim; it stays where it was on its list. */
+	public void reinstate(int frameNo) throws InvalidFrameNumberException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
+		if (state_bit[frameNo] != Pinned) return;
+		count++;
+		if (pageOf[frameNo] < 0) {
+			state_bit[frameNo] = Available;
+			emptyFrames[numEmpty++] = frameNo;
+		} else {
+			state_bit[frameNo] = Referenced;
+		}
+	}
+
+	/**
+	 * Lists the unpinned frames in the order pick_victim takes them if the
+	 * pages coming in are new, i.e. go to T1: the empty frames, then T1 from
+	 * its least recently used frame while T1 is larger than its target size
+	 * and T2 otherwise. p only moves on misses in the ghost lists, so it is
+	 * taken as fixed.
+	 */
+	public int nextVictims(int[] frames) {
+		int n = 0;
+		int t1 = t1Size;
+		for (int i = numEmpty - 1; i >= 0 && n < frames.length; i--, t1++) frames[n++] = emptyFrames[i];
+		int f1 = nextUnpinned(next[sentinel(T1)]);
+		int f2 = nextUnpinned(next[sentinel(T2)]);
+		while (n < frames.length) {
+			boolean fromT1;
+			if (f1 < totalFrames && t1 > 0 && t1 > p) fromT1 = true;
+			else if (f2 < totalFrames) fromT1 = false;
+			else if (f1 < totalFrames) fromT1 = true;
+			else break;
+			if (fromT1) {
+				// a page out of T1 and a new one in
+				frames[n++] = f1;
+				f1 = nextUnpinned(next[f1]);
+			} else {
+				frames[n++] = f2;
+				f2 = nextUnpinned(next[f2]);
+				t1++;
+			}
+		}
+		return n;
+	}
+
+	// The first unpinned frame from f on along its list, or the sentinel.
+	private int nextUnpinned(int f) {
+		while (f < totalFrames && state_bit[f] == Pinned) f = next[f];
+		return f;
+	}
+
+	/** Retruns the name of the replacer algorithm. */
+	public String name()
+	{ return "ARC"; }
+
+	/**
+	 * Counts the unpinned frames (free frames) in the buffer pool.
+	 *
+	 * @returns the total number of unpinned frames in the buffer pool.
+	 */
+	public int getNumUnpinnedBuffers() {
+		return count;
+	}
+}
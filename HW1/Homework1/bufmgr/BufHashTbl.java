@@ -0,0 +1,191 @@
+package bufmgr;
+
+import global.GlobalConst;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The page table of the buffer manager. It maps a page number to the number
+ * of the frame holding that page.
+ *
+ * The table is split into stripes, each guarded by its own lock, so threads
+ * working on unrelated pages do not serialize on one monitor. Callers must
+ * hold the lock returned by getLock() for a page around every lookup, insert
+ * and remove of that page.
+ *
+ * Each stripe is an open-addressing table of plain ints with linear probing,
+ * so a lookup is a single probe sequence over two arrays and allocates
+ * nothing. Removal shifts the following entries back instead of leaving
+ * tombstones, so probe sequences never grow with churn.
+ */
+public class BufHashTbl implements GlobalConst
+{
+	/** Number of stripes used when the buffer pool is thread-safe. */
+	private static final int NUM_STRIPES = 64;
+
+	/** Smallest number of slots of a stripe. */
+	private static final int MIN_CAPACITY = 8;
+
+	// Page numbers per stripe; INVALID_PAGE marks an empty slot.
+	private int[][] keys;
+
+	// Frame numbers, parallel to keys.
+	private int[][] frames;
+
+	// Number of entries per stripe.
+	private int[] sizes;
+
+	// One lock per stripe.
+	private Lock[] locks;
+
+	// Hash bits used to pick the stripe; the bits above pick the slot.
+	private int stripeBits;
+
+	/**
+	 * Creates a page table.
+	 *
+	 * @param numBuffers
+	 *            number of frames in the buffer pool.
+	 * @param threadSafe
+	 *            true to stripe the table with real locks; false to use a
+	 *            single stripe whose lock does nothing.
+	 */
+	public BufHashTbl(int numBuffers, boolean threadSafe) {
+		int numStripes = threadSafe ? NUM_STRIPES : 1;
+		stripeBits = Integer.numberOfTrailingZeros(numStripes);
+
+		// keep the load factor at most 1/2 when pages spread evenly
+		int capacity = MIN_CAPACITY;
+		while (capacity < 2 * ((numBuffers + numStripes - 1) / numStripes)) capacity <<= 1;
+
+		keys = new int[numStripes][];
+		frames = new int[numStripes][];
+		sizes = new int[numStripes];
+		locks = new Lock[numStripes];
+		for (int i = 0; i < numStripes; i++) {
+			keys[i] = newKeys(capacity);
+			frames[i] = new int[capacity];
+			locks[i] = threadSafe ? new ReentrantLock() : NoLock.INSTANCE;
+		}
+	}
+
+	private static int[] newKeys(int capacity) {
+		int[] k = new int[capacity];
+		Arrays.fill(k, INVALID_PAGE);
+		return k;
+	}
+
+	private static int hash(int pageNo) {
+		int h = pageNo * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private int stripe(int h) {
+		return h & (locks.length - 1);
+	}
+
+	/** Returns the lock of the stripe holding the given page. */
+	public Lock getLock(int pageNo) {
+		return locks[stripe(hash(pageNo))];
+	}
+
+	/**
+	 * Returns the number of the stripe holding the given page. A caller that
+	 * needs the locks of several pages takes them in increasing stripe order.
+	 */
+	public int stripeOf(int pageNo) {
+		return stripe(hash(pageNo));
+	}
+
+	/** Returns the number of stripes of the table. */
+	public int getNumStripes() {
+		return locks.length;
+	}
+
+	/** Returns the lock of a stripe. */
+	public Lock stripeLock(int stripe) {
+		return locks[stripe];
+	}
+
+	/**
+	 * Looks up the frame holding a page.
+	 *
+	 * @return the frame number, or -1 if the page is not in the buffer pool.
+	 */
+	public int lookup(int pageNo) {
+		int h = hash(pageNo);
+		int s = stripe(h);
+		int[] k = keys[s];
+		int mask = k.length - 1;
+		for (int i = (h >>> stripeBits) & mask; k[i] != INVALID_PAGE; i = (i + 1) & mask) {
+			if (k[i] == pageNo) return frames[s][i];
+		}
+		return -1;
+	}
+
+	/** Records that a page is held in the given frame. */
+	public void insert(int pageNo, int frameNo) {
+		int h = hash(pageNo);
+		int s = stripe(h);
+		if (2 * (sizes[s] + 1) > keys[s].length) grow(s);
+		int[] k = keys[s];
+		int mask = k.length - 1;
+		int i = (h >>> stripeBits) & mask;
+		while (k[i] != INVALID_PAGE && k[i] != pageNo) i = (i + 1) & mask;
+		if (k[i] == INVALID_PAGE) sizes[s]++;
+		k[i] = pageNo;
+		frames[s][i] = frameNo;
+	}
+
+	/**
+	 * Removes the mapping of a page.
+	 *
+	 * @return true if the page was in the table.
+	 */
+	public boolean remove(int pageNo) {
+		int h = hash(pageNo);
+		int s = stripe(h);
+		int[] k = keys[s];
+		int[] f = frames[s];
+		int mask = k.length - 1;
+		int i = (h >>> stripeBits) & mask;
+		while (k[i] != pageNo) {
+			if (k[i] == INVALID_PAGE) return false;
+			i = (i + 1) & mask;
+		}
+
+		// Shift back every following entry whose home slot lies at or before
+		// the hole, so no probe sequence runs into an empty slot too early.
+		for (int j = (i + 1) & mask; k[j] != INVALID_PAGE; j = (j + 1) & mask) {
+			int home = (hash(k[j]) >>> stripeBits) & mask;
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				k[i] = k[j];
+				f[i] = f[j];
+				i = j;
+			}
+		}
+		k[i] = INVALID_PAGE;
+		sizes[s]--;
+		return true;
+	}
+
+	// Doubles a stripe that has filled up, e.g. because of skewed page numbers.
+	private void grow(int s) {
+		int[] oldKeys = keys[s];
+		int[] oldFrames = frames[s];
+		int[] k = newKeys(oldKeys.length * 2);
+		int[] f = new int[k.length];
+		int mask = k.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == INVALID_PAGE) continue;
+			int i = (hash(oldKeys[j]) >>> stripeBits) & mask;
+			while (k[i] != INVALID_PAGE) i = (i + 1) & mask;
+			k[i] = oldKeys[j];
+			f[i] = oldFrames[j];
+		}
+		keys[s] = k;
+		frames[s] = f;
+	}
+}
@@ -10,11 +10,32 @@ import global.AbstractBufMgrFrameDesc;
 import global.PageId;
 import global.SystemDefs;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Hashtable;
-import java.util.Iterator;
-import java.util.Map;
+import java.io.PrintWriter;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 
 // *****************************************************
 
@@ -30,21 +51,108 @@ public class BufMgr extends AbstractBufMgr
 	public static final String Clock = "Clock";
 	public static final String LRU = "LRU";
 	public static final String MRU = "MRU";
+	public static final String LRUK = "LRUK";
+	public static final String TwoQ = "TwoQ";
+	public static final String ARC = "ARC";
 	
 	// Total number of buffer frames in the buffer pool. */
 	private int numBuffers;
 
-	// This buffer manager keeps all pages in memory! 
-	private Hashtable<PageId, byte[]> pageIdToPageData = new Hashtable();
+	// Size of a frame in bytes. The page layouts of diskmgr and heap are
+	// compiled against MINIBASE_PAGESIZE, so every frame has that size.
+	private int pageSize;
 
 	// An array of Descriptors one per frame. 
 	private BufMgrFrameDesc[] frameTable = new BufMgrFrameDesc[NUMBUF];
 	
-	// A map keeps the relation b/w page id and frame desc
-	private Map<PageId, BufMgrFrameDesc> pageIdToFrameDesc = new HashMap<>();
+	// Maps a page number to the frame holding it. Lock-striped when thread-safe.
+	private BufHashTbl pageTable;
 	
 	private byte[][] cache;
 
+	// Frames kept outside the heap, or null if cache holds them.
+	private OffHeapFrames offHeap;
+
+	// Page-sized array used to write an unpinned off-heap frame; guarded by ioLock.
+	private byte[] writeBuf;
+
+	// True if several threads may use this buffer pool at the same time.
+	private boolean threadSafe;
+
+	// Guards the replacer, which is shared by all stripes of the page table.
+	// Lock order: a page table stripe, then the replacer, then the disk.
+	private Lock replacerLock;
+
+	// The replacer, typed as the replacers of this package; the replacer
+	// field inherited from AbstractBufMgr refers to the same object.
+	private BufMgrReplacer policy;
+
+	// Serializes page reads and writes; the disk manager seeks on one file.
+	private Lock ioLock;
+
+	// Serializes space map updates done by allocate_page and deallocate_page.
+	// Never taken while holding a stripe, since the space map pages are
+	// themselves pinned through the buffer manager.
+	private Lock allocLock;
+
+	// Background writer of dirty frames, or null if not running.
+	private volatile PageCleaner cleaner;
+
+	// Number of consecutive pins in page order that starts read-ahead.
+	private static final int SEQ_TRIGGER = 3;
+
+	// Pages read ahead once a sequential pattern is seen; 0 turns it off.
+	private volatile int readAheadPages = 0;
+
+	// Sequential pattern detection. Races between threads only make the
+	// guess worse, so these are not locked.
+	private int lastPinned = INVALID_PAGE;
+	private int seqRun = 0;
+	private int prefetchedTo = INVALID_PAGE;
+
+	// Runs asynchronous reads for a thread-safe buffer manager.
+	private ExecutorService prefetcher;
+
+	// Most pages moved by one vectored read or write.
+	private static final int MAX_RUN = 64;
+
+	// Channel for vectored page I/O on the current database; guarded by ioLock.
+	private PageChannel channel;
+
+	// True to read and write single pages through a mapping of the database.
+	private volatile boolean mappedIO = false;
+
+	// Mapping of the current database; opened under ioLock.
+	private volatile MappedPages mapped;
+
+	// Live counters of this buffer manager.
+	private final BufMgrStats stats = new BufMgrStats(this);
+
+	// Version of the contents of every frame, for optimistic reads. It goes
+	// up before a frame is given to another page or changed under an
+	// exclusive latch, again when the exclusive latch is released, and when
+	// the page is unpinned dirty.
+	private AtomicLongArray versions;
+
+	// One bit per frame, set when the frame holds a page unpinned dirty. A
+	// bit may stay set after its page was written, never the other way.
+	private AtomicLongArray dirtyBits;
+
+	// Number of frames with a pin count above zero.
+	private final AtomicInteger numPinned = new AtomicInteger();
+
+	// Logs every call while a trace is being recorded, or null.
+	private volatile TraceRecorder recorder;
+
+	// Why the trace was dropped, reported by stopTrace, or null.
+	private IOException traceFailure;
+
+	// Saves warm-up snapshots periodically, or null if not running.
+	private ScheduledExecutorService snapshotter;
+
+	// Why the last background snapshot failed, or null if it was saved.
+	private volatile IOException snapshotFailure;
+
 
 	/**
 	 * Create a buffer manager object.
@@ -56,10 +164,45 @@ public class BufMgr extends AbstractBufMgr
 	 * @throws InvalidReplacerException 
 	 */
 	public BufMgr(int numbufs, String replacerArg) throws InvalidReplacerException {
-		numBuffers = numbufs;
-		frameTable = new BufMgrFrameDesc[numBuffers];
+		this(numbufs, replacerArg, false);
+	}
+
+	/**
+	 * Create a buffer manager object that may be shared by several threads.
+	 * Pins and unpins of pages in different stripes of the page table run in
+	 * parallel; only the replacer and the disk are serialized.
+	 * 
+	 * @param numbufs
+	 *            number of buffers in the buffer pool.
+	 * @param replacerArg
+	 *            name of the buffer replacement policy (e.g. BufMgr.Clock).
+	 * @param threadSafe
+	 *            true to allow concurrent use of the buffer pool.
+	 * @throws InvalidReplacerException 
+	 */
+	public BufMgr(int numbufs, String replacerArg, boolean threadSafe) throws InvalidReplacerException {
+		this(numbufs, replacerArg, threadSafe, false);
+	}
+
+	/**
+	 * Create a buffer manager object, optionally keeping the frames outside
+	 * the Java heap. An off-heap pool can be made very large without adding to
+	 * garbage collection work; in exchange a frame is copied into a heap array
+	 * when it gets pinned and back when its last pin is released dirty.
+	 * 
+	 * @param numbufs
+	 *            number of buffers in the buffer pool.
+	 * @param replacerArg
+	 *            name of the buffer replacement policy (e.g. BufMgr.Clock).
+	 * @param threadSafe
+	 *            true to allow concurrent use of the buffer pool.
+	 * @param offHeap
+	 *            true to keep the frames in direct memory.
+	 * @throws InvalidReplacerException 
+	 */
+	public BufMgr(int numbufs, String replacerArg, boolean threadSafe, boolean offHeap) throws InvalidReplacerException {
+		init(numbufs, threadSafe, offHeap);
 		setReplacer(replacerArg);
-		cache = new byte[numBuffers][1024];
 	}
 
 	/**
@@ -69,12 +212,39 @@ public class BufMgr extends AbstractBufMgr
 	 */
 	public BufMgr() throws InvalidReplacerException {
 		System.out.println("constructor for buffer manager. init replacer");
-		numBuffers = NUMBUF;
+		init(NUMBUF, false, false);
+		useReplacer(new Clock(this));
+		useReplacer(new MRU(this));
+	}
+
+	private void init(int numbufs, boolean threadSafe, boolean offHeap) {
+		numBuffers = numbufs;
+		pageSize = MINIBASE_PAGESIZE;
 		frameTable = new BufMgrFrameDesc[numBuffers];
-		replacer = new Clock(this);
-		replacer = new MRU(this);
-		cache = new byte[numBuffers][1024];
-		for (int i = 0; i < numBuffers; i++) cache[i] = new byte[1024];
+		if (offHeap) {
+			this.offHeap = new OffHeapFrames(numBuffers, pageSize);
+			writeBuf = new byte[pageSize];
+		} else {
+			cache = new byte[numBuffers][pageSize];
+		}
+		this.threadSafe = threadSafe;
+		pageTable = new BufHashTbl(numBuffers, threadSafe);
+		replacerLock = threadSafe ? new ReentrantLock() : NoLock.INSTANCE;
+		ioLock = threadSafe ? new ReentrantLock() : NoLock.INSTANCE;
+		allocLock = threadSafe ? new ReentrantLock() : NoLock.INSTANCE;
+		versions = new AtomicLongArray(numBuffers);
+		dirtyBits = new AtomicLongArray((numBuffers + 63) / 64);
+	}
+
+	// Sets or clears the dirty bit of a frame.
+	private void setDirtyBit(int frameNo, boolean dirty) {
+		int word = frameNo >>> 6;
+		long bit = 1L << frameNo;
+		for (;;) {
+			long old = dirtyBits.get(word);
+			long bits = dirty ? old | bit : old & ~bit;
+			if (bits == old || dirtyBits.compareAndSet(word, old, bits)) return;
+		}
 	}
 
 	/**
@@ -115,83 +285,61 @@ public class BufMgr extends AbstractBufMgr
 			PageUnpinnedException, InvalidFrameNumberException,
 			PageNotReadException, BufferPoolExceededException,
 			PagePinnedException, BufMgrException, IOException {
-		// This buffer manager just keeps allocating new pages and puts them
-		// the hash table. It regards each page it is passed as a parameter
-		// (<code>page</code> variable) as empty, and thus doesn't take into
-		// account any data stored in it.
-		//
-		// Extend this method to operate as it is supposed to (see the javadoc
-		// description above).
-		
-		// if frame is already in the buffer pool: just read it to the page
-		if (pageIdToPageData.get(pin_pgid) != null && pageIdToFrameDesc.get(pin_pgid) != null) {
-			// read it from pool
-			replacer.pin(pageIdToFrameDesc.get(pin_pgid).getFrameNo());
-			BufMgrFrameDesc frameDesc = pageIdToFrameDesc.get(pin_pgid);
-			frameDesc.pin();
-			page.setpage(frameDesc.getdata()); // get the actual data in the buffer
-		} else {
-			// Find a victim page to replace it with the current one.
-			int frameNo = replacer.pick_victim(); 
-			if (frameNo < 0) {
-				page = null;
-				throw new ReplacerException(null, "BUFMGR: REPLACER_ERROR.");
+		trace(emptyPage ? TraceRecorder.PIN_EMPTY : TraceRecorder.PIN, pin_pgid.pid);
+		// Fast path: the page is already in the buffer pool. A pin of an empty
+		// page reads nothing, so it counts as neither a hit nor a miss.
+		if (pinResident(pin_pgid, page)) {
+			if (!emptyPage) {
+				stats.hit();
+				detectSequential(pin_pgid.pid);
+			}
+			return;
+		}
+
+		// Find a victim frame, write out its old page and reserve it.
+		long start = System.nanoTime();
+		int frameNo = reserveFrame(pin_pgid);
+
+		Lock stripe = pageTable.getLock(pin_pgid.pid);
+		stripe.lock();
+		try {
+			if (pageTable.lookup(pin_pgid.pid) >= 0) {
+				// Another thread brought the page in meanwhile; use its frame.
+				releaseFrame(frameNo);
+				pinFrame(pageTable.lookup(pin_pgid.pid), page);
+				if (!emptyPage) stats.hit();
+				return;
 			}
-			// Find a victim page to replace it with the current one.
-			BufMgrFrameDesc victimFrame = frameTable[frameNo];
-			if (victimFrame != null && victimFrame.isDirty()) {
-				// flush to disk
+
+			page.setpage(frameTable[frameNo].getdata());
+			// If emptyPage==TRUE, then actually no read is done to bring the page in.
+			if (!emptyPage && mappedIO) {
+				// a copy from the mapping; no lock and no system call
+				try {
+					mapped().readPage(pin_pgid.pid, page.getpage());
+				} catch (Exception e) {
+					releaseFrame(frameNo);
+					throw new PageNotReadException(e,"BUFMGR: DB_READ_PAGE_ERROR");
+				}
+			} else if (!emptyPage) {
+				ioLock.lock();
 				try {
-					flushPage(victimFrame.getPageNo());
-				} catch (PageNotFoundException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+					SystemDefs.JavabaseDB.read_page(pin_pgid, page);
+				} catch (Exception e) {
+					releaseFrame(frameNo);
+					throw new PageNotReadException(e,"BUFMGR: DB_READ_PAGE_ERROR");
+				} finally {
+					ioLock.unlock();
 				}
 			}
-			if (victimFrame != null) {
-				pageIdToPageData.remove(victimFrame.getPageNo()); // remove the mapping from pgID to data from hashtable
-				pageIdToFrameDesc.remove(victimFrame.getPageNo());
-			}
-			byte[] frameDate = cache[frameNo];
-			BufMgrFrameDesc newFrame = new BufMgrFrameDesc(new PageId(pin_pgid.pid), frameNo, frameDate);
-			frameTable[frameNo] = newFrame;
-
-			newFrame.pin();
-			replacer.pin(newFrame.getFrameNo());
-			
-			// hashmap, look up actual data -> assign it to the page.
-            // the hashmap entry is null, then we dont want to assign to the page.
-
-			// there is nothign written here.
-            
-			// The following code excerpt reads the contents of the page with id pin_pgid
-			// into the object page. Use it to read the contents of a dirty page to be
-			// written back to disk.
-
-            // this performs file i/o.
-            // fetch data from the disk, then put into frameTable.
-            //
-
-			page.setpage(newFrame.getdata());
-//            If emptyPage==TRUE, then actually no read is done to bring the page in.
-            if (!emptyPage) {
-                try {
-                    SystemDefs.JavabaseDB.read_page(pin_pgid, page);
-                } catch (Exception e) {
-                    throw new PageNotReadException(e,"BUFMGR: DB_READ_PAGE_ERROR");
-                }
-            }
-            
-			pageIdToPageData.put(new PageId(pin_pgid.getPid()), newFrame.getdata()); // this stores the actual data
-			pageIdToFrameDesc.put(new PageId(pin_pgid.getPid()), newFrame); // this is the descriptor table
-		}
-
-		// Hint: Notice that this naive Buffer Manager allocates a page, but does not
-		// associate it with a page frame descriptor (an entry of the frameTable
-		// object). Your Buffer Manager shouldn't be that naive ;) . Have in mind that
-		// the hashtable is simply the "storage" area of your pages, while the frameTable
-		// contains the frame descriptors, each associated with one loaded page, which
-		// stores that page's metadata (pin count, status, etc.)
+			pageTable.insert(pin_pgid.pid, frameNo);
+		} finally {
+			stripe.unlock();
+		}
+		if (!emptyPage) {
+			stats.miss(System.nanoTime() - start);
+			detectSequential(pin_pgid.pid);
+		}
 	}
 
 	/**
@@ -216,15 +364,35 @@ public class BufMgr extends AbstractBufMgr
 	public void unpinPage(PageId PageId_in_a_DB, boolean dirty)
 			throws ReplacerException, PageUnpinnedException,
 			HashEntryNotFoundException, InvalidFrameNumberException {
-        BufMgrFrameDesc frame = pageIdToFrameDesc.get(PageId_in_a_DB);
-		if (frame == null) throw new HashEntryNotFoundException(null, "ERROR: NULL frame");
-		if (frame.getPinCount() > 0) {
-			frame.unpin();
-			if (frame.getPinCount() == 0) replacer.unpin(frame.getFrameNo());
-		} else {
-			throw new PageUnpinnedException(null, "ERROR: pinCount is zero at unpinPage");
+		trace(dirty ? TraceRecorder.UNPIN_DIRTY : TraceRecorder.UNPIN, PageId_in_a_DB.pid);
+		Lock stripe = pageTable.getLock(PageId_in_a_DB.pid);
+		stripe.lock();
+		try {
+			int frameNo = pageTable.lookup(PageId_in_a_DB.pid);
+			if (frameNo < 0) throw new HashEntryNotFoundException(null, "ERROR: NULL frame");
+			BufMgrFrameDesc frame = frameTable[frameNo];
+			if (frame.getPinCount() == 0)
+				throw new PageUnpinnedException(null, "ERROR: pinCount is zero at unpinPage");
+			// a clean unpin must not hide an earlier change by another pinner
+			if (dirty) {
+				frame.setDirty(true);
+				setDirtyBit(frameNo, true);
+				// the change may have been made without the exclusive latch
+				versions.incrementAndGet(frameNo);
+			}
+			if (frame.unpin() == 0) {
+				numPinned.decrementAndGet();
+				detachFrame(frame, frame.isDirty());
+				replacerLock.lock();
+				try {
+					policy.unpin(frameNo);
+				} finally {
+					replacerLock.unlock();
+				}
+			}
+		} finally {
+			stripe.unlock();
 		}
-		frame.setDirty(dirty);
 	}
 
 	/**
@@ -267,27 +435,149 @@ public class BufMgr extends AbstractBufMgr
 			InvalidFrameNumberException, PagePinnedException,
 			PageUnpinnedException, PageNotReadException, BufMgrException,
 			DiskMgrException, IOException {
+		PageId newPid = allocateRun(howmany);
+		return pinNewRun(newPid, firstpage, howmany) ? newPid : null;
+	}
+
+	/**
+	 * Allocates a run of new pages without pinning any of them, for a caller
+	 * that must make the run reachable before pinNewRun pins its first page.
+	 * 
+	 * @param howmany
+	 *            total number of allocated new pages.
+	 * @return the first page id of the new pages.
+	 * @exception DiskMgrException
+	 *                if the run cannot be allocated.
+	 * @exception IOException
+	 *                if the space map cannot be read or written.
+	 */
+	PageId allocateRun(int howmany) throws DiskMgrException, IOException {
 		PageId newPid = new PageId();
+		allocLock.lock();
 		try {
 			SystemDefs.JavabaseDB.allocate_page(newPid, howmany); // this will get the page id to the start
 		} catch (OutOfSpaceException | InvalidRunSizeException | InvalidPageNumberException | FileIOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			// nothing was allocated, so nothing is traced or pinned
+			throw new DiskMgrException(e, "BUFMGR: cannot allocate the run");
+		} finally {
+			allocLock.unlock();
 		}
-		
+		return newPid;
+	}
+
+	/**
+	 * Pins the first page of a run allocated by allocateRun, as newPage does.
+	 * If the page cannot be pinned, the run is deallocated.
+	 * 
+	 * @param newPid
+	 *            the first page of the run.
+	 * @param firstpage
+	 *            the address of the first page.
+	 * @param howmany
+	 *            total number of pages in the run.
+	 * @return true if the page was pinned, false if the run was deallocated.
+	 * @exception DiskMgrException
+	 *                if the run cannot be deallocated after a failed pin.
+	 * @exception IOException
+	 *                if the space map cannot be read or written.
+	 */
+	boolean pinNewRun(PageId newPid, Page firstpage, int howmany) throws DiskMgrException, IOException {
+		recordNew(newPid.pid, howmany);
 		try {
 			pinPage(newPid, firstpage, true);
 		} catch (Exception e) {
+			allocLock.lock();
 			try {
 				SystemDefs.JavabaseDB.deallocate_page(newPid, howmany);
 			} catch (InvalidRunSizeException | InvalidPageNumberException | FileIOException e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
+				// the run leaks; report it along with the reason it was undone
+				DiskMgrException failure = new DiskMgrException(e1, "BUFMGR: cannot deallocate the run");
+				failure.addSuppressed(e);
+				throw failure;
+			} finally {
+				allocLock.unlock();
 			}
-			return null;
+			return false;
 		}
-		
-		return newPid;
+		return true;
+	}
+
+	/**
+	 * Allocates a run of new pages and pins all of them, as newPage does for
+	 * the first one. Either every page gets pinned or, if the buffer pool
+	 * cannot hold the whole run, nothing stays pinned and the run is
+	 * deallocated again.
+	 * 
+	 * @param pages
+	 *            one page object per page of the run; each is set to the
+	 *            frame of its page.
+	 * @return the page id of the first page of the run.
+	 * 
+	 * @exception BufferPoolExceededException
+	 *                if the buffer pool cannot hold the whole run.
+	 * @exception ReplacerException
+	 *                if there is a replacer error.
+	 * @exception InvalidFrameNumberException
+	 *                if there is an invalid frame number.
+	 * @exception PagePinnedException
+	 *                if a page is left pinned.
+	 * @exception DiskMgrException
+	 *                if the run cannot be allocated.
+	 * @exception IOException
+	 *                if there is other kinds of I/O error.
+	 */
+	public PageId newPages(Page[] pages) throws BufferPoolExceededException,
+			ReplacerException, InvalidFrameNumberException, PagePinnedException,
+			DiskMgrException, IOException {
+		int howmany = pages.length;
+		if (howmany > getNumUnpinnedBuffers())
+			throw new BufferPoolExceededException(null, "BUFMGR: not enough unpinned buffers for the run");
+
+		PageId first = new PageId();
+		allocLock.lock();
+		try {
+			SystemDefs.JavabaseDB.allocate_page(first, howmany);
+		} catch (OutOfSpaceException | InvalidRunSizeException | InvalidPageNumberException | FileIOException e) {
+			throw new DiskMgrException(e, "BUFMGR: cannot allocate the run");
+		} finally {
+			allocLock.unlock();
+		}
+
+		int[] frameNos = new int[howmany];
+		int n = 0;
+		try {
+			for (; n < howmany; n++) frameNos[n] = reserveFrame(new PageId(first.pid + n));
+		} catch (BufferPoolExceededException | ReplacerException | InvalidFrameNumberException
+				| PagePinnedException | IOException e) {
+			// another thread took the frames meanwhile, or a victim could not
+			// be written; undo the whole run
+			for (int k = 0; k < n; k++) releaseFrame(frameNos[k]);
+			allocLock.lock();
+			try {
+				SystemDefs.JavabaseDB.deallocate_page(first, howmany);
+			} catch (InvalidRunSizeException | InvalidPageNumberException | FileIOException e1) {
+				// the run leaks; report it along with the reason it was undone
+				e.addSuppressed(e1);
+			} finally {
+				allocLock.unlock();
+			}
+			throw e;
+		}
+
+		recordNew(first.pid, howmany);
+		for (int k = 0; k < howmany; k++) trace(TraceRecorder.PIN_EMPTY, first.pid + k);
+
+		// the pages are new, so no other thread can have them in the pool
+		int[] stripes = lockStripes(first.pid, howmany);
+		try {
+			for (int k = 0; k < howmany; k++) {
+				pageTable.insert(first.pid + k, frameNos[k]);
+				pages[k].setpage(frameTable[frameNos[k]].getdata());
+			}
+		} finally {
+			unlockStripes(stripes);
+		}
+		return first;
 	}
 
 	/**
@@ -327,34 +617,46 @@ public class BufMgr extends AbstractBufMgr
 			BufferPoolExceededException, PagePinnedException,
 			PageUnpinnedException, HashEntryNotFoundException, BufMgrException,
 			DiskMgrException, IOException {
-		BufMgrFrameDesc frame = pageIdToFrameDesc.get(globalPageId);
-		if (frame == null) {
-			try {
-				SystemDefs.JavabaseDB.deallocate_page(globalPageId);
-			} catch (InvalidRunSizeException | InvalidPageNumberException | FileIOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		trace(TraceRecorder.FREE, globalPageId.pid);
+		Lock stripe = pageTable.getLock(globalPageId.pid);
+		stripe.lock();
+		try {
+			int frameNo = pageTable.lookup(globalPageId.pid);
+			if (frameNo >= 0) {
+				BufMgrFrameDesc frame = frameTable[frameNo];
+				if (frame.getPinCount() > 1)
+					throw new PagePinnedException(null, "ERROR: pin count > 1 when free");
+
+				// it's ok to free
+				replacerLock.lock();
+				try {
+					if (frame.getPinCount() == 1) {
+						frame.unpin();
+						numPinned.decrementAndGet();
+						detachFrame(frame, false);
+						policy.unpin(frameNo);
+					}
+					frameTable[frameNo] = null;
+					setDirtyBit(frameNo, false);
+					pageTable.remove(globalPageId.pid);
+					versions.incrementAndGet(frameNo);
+					policy.free(frameNo);
+				} finally {
+					replacerLock.unlock();
+				}
 			}
-			return;
-		}
-		
-		if (frame.getPinCount() == 1) {
-			frame.unpin();
-			replacer.unpin(frame.getFrameNo());
-		} else if (frame.getPinCount() != 0) {
-			throw new PagePinnedException(null, "ERROR: pin count > 1 when free");
+		} finally {
+			stripe.unlock();
 		}
-		
-		// it's ok to free
-		frameTable[frame.getFrameNo()] = null;
-		pageIdToPageData.remove(globalPageId);
-		pageIdToFrameDesc.remove(globalPageId);
-		replacer.free(frame.getFrameNo());
+
+		// the space map is updated through the buffer pool, so no stripe may be held here
+		allocLock.lock();
 		try {
 			SystemDefs.JavabaseDB.deallocate_page(globalPageId);
 		} catch (InvalidRunSizeException | InvalidPageNumberException | FileIOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			throw new DiskMgrException(e, "BUFMGR: cannot deallocate the page");
+		} finally {
+			allocLock.unlock();
 		}
 	}
 
@@ -380,18 +682,20 @@ public class BufMgr extends AbstractBufMgr
 	public void flushPage(PageId pageid) throws HashOperationException,
 			PageUnpinnedException, PagePinnedException, PageNotFoundException,
 			BufMgrException, IOException {
-		BufMgrFrameDesc frame = pageIdToFrameDesc.get(pageid);
-		if (frame == null) throw new PageUnpinnedException(null, "ERROR: NULL frame");
-		if (frame.getPinCount() > 0) throw new PageUnpinnedException(null, "ERROR: still pinned");
-		if (frame.isDirty()) {
-			Page aPage = new Page((byte[])this.pageIdToPageData.get(pageid));
-			try {
-				SystemDefs.JavabaseDB.write_page(pageid, aPage);
-			} catch (InvalidPageNumberException | FileIOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		Lock stripe = pageTable.getLock(pageid.pid);
+		stripe.lock();
+		try {
+			int frameNo = pageTable.lookup(pageid.pid);
+			if (frameNo < 0) throw new PageUnpinnedException(null, "ERROR: NULL frame");
+			BufMgrFrameDesc frame = frameTable[frameNo];
+			if (frame.getPinCount() > 0) throw new PageUnpinnedException(null, "ERROR: still pinned");
+			if (frame.isDirty()) {
+				writeFrame(frame);
+				frame.setDirty(false);
+				setDirtyBit(frameNo, false);
 			}
-			frame.setDirty(false);
+		} finally {
+			stripe.unlock();
 		}
 	}
 
@@ -414,12 +718,85 @@ public class BufMgr extends AbstractBufMgr
 	public void flushAllPages() throws HashOperationException,
 			PageUnpinnedException, PagePinnedException, PageNotFoundException,
 			BufMgrException, IOException {
-		Iterator i = this.pageIdToPageData.keySet().iterator();
+		// Only the frames of the dirty bitmap are looked at. They are sorted
+		// by page number so that runs of contiguous pages go out in one
+		// gather write each.
+		boolean pinned = numPinned.get() > 0;
+		int numDirty = 0;
+		for (int word = 0; word < dirtyBits.length(); word++) numDirty += Long.bitCount(dirtyBits.get(word));
+		BufMgrFrameDesc[] dirty = new BufMgrFrameDesc[numDirty];
+		int n = 0;
+		for (int word = 0; word < dirtyBits.length(); word++) {
+			for (long bits = dirtyBits.get(word); bits != 0 && n < numDirty; bits &= bits - 1) {
+				BufMgrFrameDesc frame = frameTable[word * 64 + Long.numberOfTrailingZeros(bits)];
+				if (frame != null && frame.getPinCount() == 0 && frame.isDirty()) dirty[n++] = frame;
+			}
+		}
+		Arrays.sort(dirty, 0, n, new Comparator<BufMgrFrameDesc>() {
+			public int compare(BufMgrFrameDesc a, BufMgrFrameDesc b) {
+				return Integer.compare(a.getPageNo().pid, b.getPageNo().pid);
+			}
+		});
 
-		while(i.hasNext()) {
-			PageId id = (PageId)i.next();
-			this.flushPage(id);
+		// a run that cannot be written stays dirty; the other runs are still
+		// written, and the first failure is thrown at the end
+		IOException failure = null;
+		for (int start = 0; start < n; ) {
+			int end = start + 1;
+			while (end < n && end - start < MAX_RUN
+					&& dirty[end].getPageNo().pid == dirty[end - 1].getPageNo().pid + 1)
+				end++;
+			try {
+				if (!flushRun(dirty, start, end)) pinned = true;
+			} catch (IOException e) {
+				if (failure == null) failure = e;
+				else failure.addSuppressed(e);
+			}
+			start = end;
 		}
+
+		if (failure != null) throw failure;
+		if (pinned) throw new PageUnpinnedException(null, "ERROR: still pinned");
+	}
+
+	/**
+	 * Writes a run of frames holding contiguous pages with one gather write.
+	 * Frames pinned or reused since they were chosen are left out, which may
+	 * split the run. The frames of a write that fails stay dirty.
+	 * 
+	 * @return false if some frame of the run was found pinned.
+	 * @exception IOException
+	 *                if a gather write fails.
+	 */
+	private boolean flushRun(BufMgrFrameDesc[] frames, int start, int end) throws IOException {
+		int[] stripes = lockStripes(frames[start].getPageNo().pid, end - start);
+		boolean nonePinned = true;
+		try {
+			ByteBuffer[] bufs = new ByteBuffer[end - start];
+			int runStart = start;
+			for (int i = start; i <= end; i++) {
+				boolean ok = false;
+				if (i < end) {
+					BufMgrFrameDesc frame = frames[i];
+					ok = frameTable[frame.getFrameNo()] == frame && frame.getPinCount() == 0
+							&& frame.isDirty();
+					if (frame.getPinCount() > 0) nonePinned = false;
+					if (ok) bufs[i - runStart] = frameBuffer(frame);
+				}
+				if (ok) continue;
+				if (i > runStart) {
+					writePages(frames[runStart].getPageNo().pid, bufs, i - runStart);
+					for (int k = runStart; k < i; k++) {
+						frames[k].setDirty(false);
+						setDirtyBit(frames[k].getFrameNo(), false);
+					}
+				}
+				runStart = i + 1;
+			}
+		} finally {
+			unlockStripes(stripes);
+		}
+		return nonePinned;
 	}
 
 	/**
@@ -431,22 +808,1011 @@ public class BufMgr extends AbstractBufMgr
 		return numBuffers;
 	}
 
+	/**
+	 * Gets the name of the replacement policy in use.
+	 * 
+	 * @return the name of the replacer, e.g. BufMgr.LRU.
+	 */
+	public String getReplacerName() {
+		return policy.name();
+	}
+
+	/**
+	 * Gets the live counters of this buffer manager: hits, misses,
+	 * evictions, write-backs, time spent bringing pages in and victim search
+	 * lengths.
+	 * 
+	 * @return the statistics object, updated as the buffer manager works.
+	 */
+	public BufMgrStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Makes the statistics of this buffer manager visible through JMX, in the
+	 * platform MBean server under the domain minibase and type BufMgr.
+	 * 
+	 * @param name
+	 *            name telling this buffer manager apart from others.
+	 * @exception BufMgrException
+	 *                if the name is taken or not a valid object name.
+	 */
+	public void registerMBean(String name) throws BufMgrException {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(stats, objectName(name));
+		} catch (Exception e) {
+			throw new BufMgrException(e, "BUFMGR: cannot register the statistics MBean");
+		}
+	}
+
+	/**
+	 * Removes the statistics of this buffer manager from JMX.
+	 * 
+	 * @param name
+	 *            the name given to registerMBean.
+	 * @exception BufMgrException
+	 *                if no such MBean is registered.
+	 */
+	public void unregisterMBean(String name) throws BufMgrException {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(name));
+		} catch (Exception e) {
+			throw new BufMgrException(e, "BUFMGR: cannot unregister the statistics MBean");
+		}
+	}
+
+	private static ObjectName objectName(String name) throws MalformedObjectNameException {
+		return new ObjectName("minibase:type=BufMgr,name=" + ObjectName.quote(name));
+	}
+
+	/**
+	 * Gets the size of a buffer frame, which is the page size of the
+	 * databases this buffer manager can read and write.
+	 * 
+	 * @return frame size in bytes.
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
 	/**
 	 * Gets the total number of unpinned buffer frames.
 	 * 
 	 * @return total number of unpinned buffer frames.
 	 */
 	public int getNumUnpinnedBuffers() {
-		int count = 0;
-		for (BufMgrFrameDesc frame : frameTable) {
-			if (frame != null && frame.getPinCount() == 0) count++;
-			else if (frame == null) count++;
-		}
-		return count;
+		return numBuffers - numPinned.get();
 	}
 
 	/** A few routines currently need direct access to the FrameTable. */
 	public AbstractBufMgrFrameDesc[] getFrameTable() {
 		return this.frameTable;
 	}
+
+	/**
+	 * Tells whether several threads may share this buffer pool.
+	 * 
+	 * @return true if the buffer manager was created thread-safe.
+	 */
+	public boolean isThreadSafe() {
+		return threadSafe;
+	}
+
+	/**
+	 * Latches a pinned page so that threads sharing it see a consistent image.
+	 * Pinning only keeps a page in the pool; a thread that reads the page takes
+	 * the shared latch and a thread that changes it takes the exclusive latch.
+	 * 
+	 * @param pageid
+	 *            the page number in the database.
+	 * @param exclusive
+	 *            true for the exclusive (write) latch, false for the shared one.
+	 * 
+	 * @exception HashEntryNotFoundException
+	 *                if the page is not in the buffer pool.
+	 * @exception PageUnpinnedException
+	 *                if the page is not pinned.
+	 */
+	public void latchPage(PageId pageid, boolean exclusive)
+			throws HashEntryNotFoundException, PageUnpinnedException {
+		BufMgrFrameDesc frame = pinnedFrame(pageid);
+		if (exclusive) {
+			frame.getLatch().writeLock().lock();
+			versions.incrementAndGet(frame.getFrameNo());
+		}
+		else frame.getLatch().readLock().lock();
+	}
+
+	/**
+	 * Releases a latch taken by latchPage.
+	 * 
+	 * @param pageid
+	 *            the page number in the database.
+	 * @param exclusive
+	 *            true for the exclusive (write) latch, false for the shared one.
+	 * 
+	 * @exception HashEntryNotFoundException
+	 *                if the page is not in the buffer pool.
+	 * @exception PageUnpinnedException
+	 *                if the page is not pinned.
+	 */
+	public void unlatchPage(PageId pageid, boolean exclusive)
+			throws HashEntryNotFoundException, PageUnpinnedException {
+		BufMgrFrameDesc frame = pinnedFrame(pageid);
+		if (exclusive) {
+			versions.incrementAndGet(frame.getFrameNo());
+			frame.getLatch().writeLock().unlock();
+		}
+		else frame.getLatch().readLock().unlock();
+	}
+
+	/**
+	 * Reads a page in the pool without pinning it. The page is only valid if
+	 * validate, called after the caller is done reading it, returns true;
+	 * otherwise the frame was given to another page, changed under an
+	 * exclusive latch or unpinned dirty meanwhile, and the caller must retry
+	 * or pin the page. A change made without the exclusive latch is only seen
+	 * once its writer unpins the page dirty, so a reader that validates
+	 * while such a writer is still at work may have read a torn page; pages
+	 * read this way must be changed under the exclusive latch.
+	 * 
+	 * @param pageid
+	 *            the page number in the database.
+	 * @param page
+	 *            set to the frame of the page.
+	 * @return a stamp to pass to validate, or 0 if the page cannot be read
+	 *         this way right now and must be pinned.
+	 */
+	public long tryOptimisticRead(PageId pageid, Page page) {
+		Lock stripe = pageTable.getLock(pageid.pid);
+		stripe.lock();
+		try {
+			int frameNo = pageTable.lookup(pageid.pid);
+			if (frameNo < 0) return 0;
+			BufMgrFrameDesc frame = frameTable[frameNo];
+			long version = versions.get(frameNo);
+			byte[] data = frame.getdata();
+			// an unpinned off-heap frame has no heap window to read
+			if (data == null || frame.getLatch().isWriteLocked()) return 0;
+			page.setpage(data);
+			return ((version & 0x7fffffffL) + 1) << 32 | frameNo;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	/**
+	 * Tells whether a page read with tryOptimisticRead is still the page
+	 * the stamp was taken for, unchanged.
+	 * 
+	 * @param stamp
+	 *            the stamp returned by tryOptimisticRead.
+	 * @return true if everything read from the page since is valid.
+	 */
+	public boolean validate(long stamp) {
+		if (stamp == 0) return false;
+		// the reads of the page must not move past the version check
+		VarHandle.acquireFence();
+		int frameNo = (int) stamp;
+		long version = (stamp >>> 32) - 1;
+		BufMgrFrameDesc frame = frameTable[frameNo];
+		return (versions.get(frameNo) & 0x7fffffffL) == version
+				&& frame != null && !frame.getLatch().isWriteLocked();
+	}
+
+	/**
+	 * Starts a background thread that writes dirty unpinned pages to disk,
+	 * starting with the pages the replacer will evict next, so that a victim
+	 * is usually clean by the time pinPage needs its frame. The buffer
+	 * manager must be thread-safe.
+	 * 
+	 * @param intervalMillis
+	 *            pause between two rounds of the cleaner, in milliseconds.
+	 * 
+	 * @exception BufMgrException
+	 *                if the buffer manager is not thread-safe or a cleaner
+	 *                is already running.
+	 */
+	public synchronized void startPageCleaner(long intervalMillis) throws BufMgrException {
+		if (!threadSafe) throw new BufMgrException(null, "BUFMGR: a page cleaner needs a thread-safe buffer manager");
+		if (cleaner != null) throw new BufMgrException(null, "BUFMGR: page cleaner already running");
+		cleaner = new PageCleaner(this, intervalMillis, Math.max(1, numBuffers / 8));
+		cleaner.start();
+	}
+
+	/**
+	 * Stops the background page cleaner, if any, and waits for it to finish.
+	 */
+	public synchronized void stopPageCleaner() {
+		if (cleaner == null) return;
+		cleaner.shutdown();
+		cleaner = null;
+	}
+
+	/**
+	 * Starts logging every pinPage, unpinPage, newPage and freePage call to a
+	 * binary trace, which tests.TraceReplay can run against other replacers
+	 * and pool sizes. A newPage is logged as NEW followed by the pin of its
+	 * first page.
+	 * 
+	 * @param fileName
+	 *            the trace file; an existing file is overwritten.
+	 * @exception IOException
+	 *                if the file cannot be created.
+	 * @exception BufMgrException
+	 *                if a trace is already being recorded.
+	 */
+	public synchronized void startTrace(String fileName) throws IOException, BufMgrException {
+		if (recorder != null) throw new BufMgrException(null, "BUFMGR: a trace is already being recorded");
+		recorder = new TraceRecorder(fileName);
+		traceFailure = null;
+	}
+
+	/**
+	 * Stops recording the trace and closes its file.
+	 * 
+	 * @return the number of calls recorded.
+	 * @exception IOException
+	 *                if the end of the trace cannot be written, or a call
+	 *                could not be logged and the trace was dropped then.
+	 */
+	public synchronized long stopTrace() throws IOException {
+		IOException failure = traceFailure;
+		traceFailure = null;
+		if (failure != null) throw failure;
+		TraceRecorder r = recorder;
+		if (r == null) return 0;
+		recorder = null;
+		r.close();
+		return r.getCount();
+	}
+
+	// Logs a call if a trace is being recorded. A trace that cannot be
+	// written is dropped rather than failing the call.
+	private void trace(int op, int pageNo) {
+		TraceRecorder r = recorder;
+		if (r == null) return;
+		try {
+			r.record(op, pageNo);
+		} catch (IOException e) {
+			dropTrace(r, e);
+		}
+	}
+
+	private void recordNew(int firstPage, int howmany) {
+		TraceRecorder r = recorder;
+		if (r == null) return;
+		try {
+			r.recordNew(firstPage, howmany);
+		} catch (IOException e) {
+			dropTrace(r, e);
+		}
+	}
+
+	// Closes a trace that cannot be written and keeps the failure for
+	// stopTrace.
+	private synchronized void dropTrace(TraceRecorder r, IOException e) {
+		if (recorder != r) return;
+		recorder = null;
+		try {
+			r.close();
+		} catch (IOException e1) {
+			e.addSuppressed(e1);
+		}
+		traceFailure = e;
+	}
+
+	/**
+	 * Saves the ids of the pages in the pool: pinned pages first, then
+	 * unpinned ones in the reverse of the order the replacer's nextVictims
+	 * lists them. That is the eviction order for every built-in policy as
+	 * long as no page is referenced again; 2Q and ARC also assume the pages
+	 * that come in are new, and a replacer without its own nextVictims lists
+	 * frames in frame order, which says nothing about their value. The file
+	 * holds one page number per line and is replaced as a whole, so a crash
+	 * never leaves half a snapshot.
+	 * 
+	 * @param fileName
+	 *            the snapshot file.
+	 * @exception IOException
+	 *                if the file cannot be written.
+	 */
+	public void saveSnapshot(String fileName) throws IOException {
+		int[] victims = new int[numBuffers];
+		int n;
+		replacerLock.lock();
+		try {
+			n = policy.nextVictims(victims);
+		} finally {
+			replacerLock.unlock();
+		}
+
+		boolean[] unpinned = new boolean[numBuffers];
+		for (int i = 0; i < n; i++) unpinned[victims[i]] = true;
+		File tmp = new File(fileName + ".tmp");
+		try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(tmp)))) {
+			for (int f = 0; f < numBuffers; f++) {
+				BufMgrFrameDesc frame = frameTable[f];
+				if (frame != null && !unpinned[f]) out.println(frame.getPageNo().pid);
+			}
+			for (int i = n - 1; i >= 0; i--) {
+				BufMgrFrameDesc frame = frameTable[victims[i]];
+				if (frame != null) out.println(frame.getPageNo().pid);
+			}
+		}
+		Files.move(tmp.toPath(), new File(fileName).toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads the pages of a snapshot saved by saveSnapshot into the pool,
+	 * leaving them unpinned. As many of the most valuable pages as there are
+	 * unpinned frames are read, in page number order, with one vectored read
+	 * per run of contiguous pages. Call it before the pool is put to work.
+	 * 
+	 * @param fileName
+	 *            the snapshot file; if it does not exist, nothing is read.
+	 * @return the number of pages read.
+	 * @exception IOException
+	 *                if the file cannot be read.
+	 */
+	public int loadSnapshot(String fileName) throws IOException {
+		File file = new File(fileName);
+		if (!file.exists()) return 0;
+
+		int budget = getNumUnpinnedBuffers();
+		int numPages = SystemDefs.JavabaseDB.db_num_pages();
+		int[] pages = new int[budget];
+		int n = 0;
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			String line;
+			while (n < budget && (line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0) continue;
+				int pageNo = Integer.parseInt(line);
+				if (pageNo >= 0 && pageNo < numPages) pages[n++] = pageNo;
+			}
+		}
+		Arrays.sort(pages, 0, n);
+
+		int loaded = 0;
+		for (int i = 0; i < n; ) {
+			if (isResident(pages[i]) || (i > 0 && pages[i] == pages[i - 1])) {
+				i++;
+				continue;
+			}
+			int run = 1;
+			while (i + run < n && run < MAX_RUN && pages[i + run] == pages[i] + run) run++;
+			int read = prefetchPages(pages[i], run);
+			if (read <= 0) break;
+			loaded += read;
+			i += read;
+		}
+		stats.prefetched(loaded);
+		return loaded;
+	}
+
+	/**
+	 * Starts saving a warm-up snapshot in the background at a fixed rate.
+	 * The buffer manager must be thread-safe. A snapshot that cannot be
+	 * written is reported by getSnapshotFailure; the next ones are still
+	 * tried.
+	 * 
+	 * @param fileName
+	 *            the snapshot file.
+	 * @param intervalMillis
+	 *            time between two snapshots, in milliseconds.
+	 * 
+	 * @exception BufMgrException
+	 *                if the buffer manager is not thread-safe or snapshots
+	 *                are already being saved.
+	 */
+	public synchronized void startSnapshots(final String fileName, long intervalMillis) throws BufMgrException {
+		if (!threadSafe) throw new BufMgrException(null, "BUFMGR: snapshots need a thread-safe buffer manager");
+		if (snapshotter != null) throw new BufMgrException(null, "BUFMGR: snapshots already running");
+		snapshotter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Snapshotter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		snapshotter.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					saveSnapshot(fileName);
+					snapshotFailure = null;
+				} catch (IOException e) {
+					snapshotFailure = e;
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets why the last background snapshot could not be saved.
+	 * 
+	 * @return the failure of the last snapshot saved by startSnapshots, or
+	 *         null if it was saved or none was tried yet.
+	 */
+	public IOException getSnapshotFailure() {
+		return snapshotFailure;
+	}
+
+	/**
+	 * Stops saving snapshots, waiting for a snapshot in progress to finish.
+	 */
+	public synchronized void stopSnapshots() {
+		if (snapshotter == null) return;
+		snapshotter.shutdown();
+		try {
+			snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		snapshotter = null;
+	}
+
+	/**
+	 * Writes out the dirty frames among the next victims of the replacer.
+	 * Called by the page cleaner.
+	 * 
+	 * @param frames
+	 *            scratch array; its length bounds the frames looked at.
+	 * @param maxWrites
+	 *            most pages to write.
+	 * @return the number of pages written.
+	 */
+	int cleanVictims(int[] frames, int maxWrites) throws IOException {
+		int n;
+		replacerLock.lock();
+		try {
+			n = policy.nextVictims(frames);
+		} finally {
+			replacerLock.unlock();
+		}
+
+		int written = 0;
+		for (int i = 0; i < n && written < maxWrites; i++) {
+			BufMgrFrameDesc frame = frameTable[frames[i]];
+			if (frame == null || !frame.isDirty()) continue;
+			Lock stripe = pageTable.getLock(frame.getPageNo().pid);
+			stripe.lock();
+			try {
+				// the frame may have been pinned or reused meanwhile
+				if (frameTable[frames[i]] != frame || frame.getPinCount() > 0 || !frame.isDirty()) continue;
+				writeFrame(frame);
+				frame.setDirty(false);
+				setDirtyBit(frames[i], false);
+				written++;
+				stats.cleanerWrites(1);
+			} finally {
+				stripe.unlock();
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Turns on sequential read-ahead. Once a few pages have been pinned in
+	 * page number order, the following pages are read into the pool ahead of
+	 * time, so a scan finds them there.
+	 * 
+	 * @param pages
+	 *            number of pages to read ahead; 0 turns read-ahead off.
+	 */
+	public void setReadAhead(int pages) {
+		readAheadPages = Math.max(0, pages);
+	}
+
+	/**
+	 * Chooses how single pages are read and written. With mapped I/O on, the
+	 * database file is memory-mapped in chunks as it is used; reading a page
+	 * the operating system already caches is then a copy from the mapping,
+	 * and concurrent reads no longer wait for each other.
+	 * 
+	 * @param on
+	 *            true to use the mapping; false for diskmgr.DB page calls.
+	 */
+	public void setMappedIO(boolean on) {
+		mappedIO = on;
+	}
+
+	/**
+	 * Asks for a run of pages to be read into the buffer pool without pinning
+	 * them. A thread-safe buffer manager reads them in the background; others
+	 * read them before returning. Pages already in the pool are skipped, and
+	 * reading stops early rather than take more than half of the unpinned
+	 * frames. Errors are not reported: the pages are simply read again when
+	 * they are pinned.
+	 * 
+	 * @param firstPage
+	 *            the first page of the run.
+	 * @param count
+	 *            number of pages in the run.
+	 */
+	public void prefetch(PageId firstPage, final int count) {
+		final int first = firstPage.pid;
+		if (count <= 0) return;
+		if (!threadSafe) {
+			prefetchRun(first, count);
+			return;
+		}
+		synchronized (this) {
+			if (prefetcher == null) {
+				prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Prefetcher");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			}
+		}
+		prefetcher.execute(new Runnable() {
+			public void run() {
+				prefetchRun(first, count);
+			}
+		});
+	}
+
+	// Starts read-ahead when pages are pinned in page number order.
+	private void detectSequential(int pageNo) {
+		int pages = readAheadPages;
+		if (pages == 0) return;
+		if (pageNo == lastPinned + 1) {
+			// read further once the scan is half way through the last batch
+			if (++seqRun >= SEQ_TRIGGER && pageNo + pages / 2 >= prefetchedTo) {
+				int from = Math.max(pageNo + 1, prefetchedTo);
+				prefetchedTo = from + pages;
+				prefetch(new PageId(from), pages);
+			}
+		} else if (pageNo != lastPinned) {
+			seqRun = 1;
+			prefetchedTo = INVALID_PAGE;
+		}
+		lastPinned = pageNo;
+	}
+
+	private void prefetchRun(int first, int count) {
+		int budget = getNumUnpinnedBuffers() / 2;
+		int numPages = SystemDefs.JavabaseDB.db_num_pages();
+		if (first + count > numPages) count = numPages - first;
+		for (int i = 0; i < count && budget > 0; ) {
+			if (isResident(first + i)) {
+				i++;
+				continue;
+			}
+			int n = 1;
+			while (i + n < count && n < MAX_RUN && n < budget && !isResident(first + i + n)) n++;
+			int read = prefetchPages(first + i, n);
+			if (read <= 0) return;
+			stats.prefetched(read);
+			budget -= read;
+			i += read;
+		}
+	}
+
+	// Tells whether a page is in the pool.
+	boolean isResident(int pageNo) {
+		Lock stripe = pageTable.getLock(pageNo);
+		stripe.lock();
+		try {
+			return pageTable.lookup(pageNo) >= 0;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	/**
+	 * Reads a run of contiguous pages into frames with one scatter read and
+	 * leaves them unpinned. Fewer pages are read if the pool runs out of
+	 * frames.
+	 * 
+	 * @return the number of pages covered, or -1 if nothing could be read.
+	 */
+	private int prefetchPages(int first, int count) {
+		int[] frameNos = new int[count];
+		int n = 0;
+		try {
+			for (; n < count; n++) frameNos[n] = reserveFrame(new PageId(first + n));
+		} catch (Exception e) {
+			// a full pool or a replacer error; read what we have frames for
+		}
+		if (n == 0) return -1;
+
+		int[] stripes = lockStripes(first, n);
+		try {
+			ByteBuffer[] bufs = new ByteBuffer[n];
+			for (int k = 0; k < n; k++) bufs[k] = ByteBuffer.wrap(frameTable[frameNos[k]].getdata());
+			try {
+				readPages(first, bufs, n);
+			} catch (Exception e) {
+				for (int k = 0; k < n; k++) releaseFrame(frameNos[k]);
+				return -1;
+			}
+
+			for (int k = 0; k < n; k++) {
+				if (pageTable.lookup(first + k) >= 0) {
+					// another thread brought the page in meanwhile
+					releaseFrame(frameNos[k]);
+					continue;
+				}
+				pageTable.insert(first + k, frameNos[k]);
+
+				// drop the pin taken by reserveFrame; the page stays clean
+				BufMgrFrameDesc frame = frameTable[frameNos[k]];
+				frame.unpin();
+				numPinned.decrementAndGet();
+				detachFrame(frame, true);
+				replacerLock.lock();
+				try {
+					policy.unpin(frameNos[k]);
+				} finally {
+					replacerLock.unlock();
+				}
+			}
+			return n;
+		} catch (Exception e) {
+			return -1;
+		} finally {
+			unlockStripes(stripes);
+		}
+	}
+
+	/**
+	 * Locks the stripes of a run of pages in increasing stripe order, which
+	 * keeps holders of several stripes from deadlocking each other.
+	 * 
+	 * @return the stripes locked, to be passed to unlockStripes.
+	 */
+	private int[] lockStripes(int first, int count) {
+		int[] stripes = new int[count];
+		for (int k = 0; k < count; k++) stripes[k] = pageTable.stripeOf(first + k);
+		Arrays.sort(stripes);
+		int n = 0;
+		for (int k = 0; k < count; k++) {
+			if (n == 0 || stripes[k] != stripes[n - 1]) stripes[n++] = stripes[k];
+		}
+		stripes = Arrays.copyOf(stripes, n);
+		for (int k = 0; k < n; k++) pageTable.stripeLock(stripes[k]).lock();
+		return stripes;
+	}
+
+	private void unlockStripes(int[] stripes) {
+		for (int k = stripes.length - 1; k >= 0; k--) pageTable.stripeLock(stripes[k]).unlock();
+	}
+
+	// A buffer over the page held by an unpinned frame.
+	private ByteBuffer frameBuffer(BufMgrFrameDesc frame) {
+		if (frame.getdata() != null) return ByteBuffer.wrap(frame.getdata());
+		return offHeap.frameBuffer(frame.getFrameNo());
+	}
+
+	// Returns the channel on the current database, opening it if needed.
+	// The caller holds ioLock.
+	private PageChannel channel() throws IOException {
+		if (channel == null || channel.getDB() != SystemDefs.JavabaseDB) {
+			checkPageSize(SystemDefs.JavabaseDB.db_page_size());
+			if (channel != null) channel.close();
+			channel = new PageChannel(SystemDefs.JavabaseDB);
+		}
+		return channel;
+	}
+
+	// A database whose pages do not fit the frames must not be read or written.
+	private void checkPageSize(int dbPageSize) throws IOException {
+		if (dbPageSize != pageSize)
+			throw new IOException("BUFMGR: database page size " + dbPageSize
+					+ " does not match the frame size " + pageSize);
+	}
+
+	// Returns the mapping of the current database, opening it if needed.
+	private MappedPages mapped() throws IOException {
+		MappedPages m = mapped;
+		if (m != null && m.getDB() == SystemDefs.JavabaseDB) return m;
+		ioLock.lock();
+		try {
+			m = mapped;
+			if (m == null || m.getDB() != SystemDefs.JavabaseDB) {
+				checkPageSize(SystemDefs.JavabaseDB.db_page_size());
+				if (m != null) m.close();
+				mapped = m = new MappedPages(SystemDefs.JavabaseDB);
+			}
+			return m;
+		} finally {
+			ioLock.unlock();
+		}
+	}
+
+	private void readPages(int first, ByteBuffer[] bufs, int count)
+			throws InvalidPageNumberException, IOException {
+		ioLock.lock();
+		try {
+			channel().readPages(first, bufs, count);
+		} finally {
+			ioLock.unlock();
+		}
+	}
+
+	private void writePages(int first, ByteBuffer[] bufs, int count) throws IOException {
+		ioLock.lock();
+		try {
+			channel().writePages(first, bufs, count);
+		} catch (InvalidPageNumberException e) {
+			throw new IOException("BUFMGR: cannot write pages " + first + " to " + (first + count - 1), e);
+		} finally {
+			ioLock.unlock();
+		}
+	}
+
+	/**
+	 * Creates the replacer named by replacerArg. The replacers of this package
+	 * need the buffer manager at construction time, so they cannot be built
+	 * reflectively by AbstractBufMgr, and the buffer manager needs their
+	 * victim order, so no other replacer is accepted.
+	 * 
+	 * @exception InvalidReplacerException
+	 *                if the policy is not one of the replacers of this package.
+	 */
+	protected void setReplacer(String replacerArg) throws InvalidReplacerException {
+		BufMgrReplacer r = newReplacer(replacerArg);
+		if (r == null) throw new InvalidReplacerException("BUFMGR: unknown replacer " + replacerArg);
+		useReplacer(r);
+	}
+
+	// Makes r the replacer, as seen by this class and by AbstractBufMgr.
+	private void useReplacer(BufMgrReplacer r) {
+		policy = r;
+		replacer = r;
+	}
+
+	// Creates one of the replacers of this package, or returns null.
+	private BufMgrReplacer newReplacer(String replacerArg) {
+		if (Clock.equals(replacerArg) || "bufmgr.Clock".equals(replacerArg))
+			return new Clock(this);
+		else if (MRU.equals(replacerArg) || "bufmgr.MRU".equals(replacerArg))
+			return new MRU(this);
+		else if (LRU.equals(replacerArg) || "bufmgr.LRU".equals(replacerArg))
+			return new LRU(this);
+		else if (LRUK.equals(replacerArg) || "bufmgr.LRUK".equals(replacerArg))
+			return new LRUK(this);
+		else if (TwoQ.equals(replacerArg) || "bufmgr.TwoQ".equals(replacerArg))
+			return new TwoQ(this);
+		else if (ARC.equals(replacerArg) || "bufmgr.ARC".equals(replacerArg))
+			return new ARC(this);
+		return null;
+	}
+
+	/**
+	 * Switches to another replacement policy while the pool is in use. No
+	 * page is flushed or evicted: the new replacer learns which frames are
+	 * free, pinned or unpinned, and gets the unpinned ones in the order the
+	 * old replacer's nextVictims lists them, so the next victims stay the
+	 * same as far as the new policy allows. Only the order is handed over;
+	 * the new replacer starts without the old one's history, such as LRU-K
+	 * reference times or the ghost lists of 2Q and ARC.
+	 * 
+	 * @param replacerArg
+	 *            name of the new replacement policy (e.g. BufMgr.Clock).
+	 * @exception InvalidReplacerException
+	 *                if the policy is not one of the replacers of this package.
+	 * @exception ReplacerException
+	 *                if the new replacer refuses a frame.
+	 */
+	public void switchReplacer(String replacerArg) throws InvalidReplacerException, ReplacerException {
+		BufMgrReplacer next = newReplacer(replacerArg);
+		if (next == null) throw new InvalidReplacerException("BUFMGR: unknown replacer " + replacerArg);
+
+		int[] victims = new int[numBuffers];
+		replacerLock.lock();
+		try {
+			int n = policy.nextVictims(victims);
+			// every frame in use is pinned first, then the unpinned ones are
+			// released, first victim first
+			for (int f = 0; f < numBuffers; f++) {
+				if (frameTable[f] != null) next.adopt(f);
+			}
+			for (int i = 0; i < n; i++) {
+				BufMgrFrameDesc frame = frameTable[victims[i]];
+				if (frame != null && frame.getPinCount() == 0) next.unpin(victims[i]);
+			}
+			useReplacer(next);
+		} catch (InvalidFrameNumberException | PageUnpinnedException e) {
+			throw new ReplacerException(e, "BUFMGR: cannot hand the frames to " + replacerArg);
+		} finally {
+			replacerLock.unlock();
+		}
+	}
+
+	// Looks up a page that must be pinned.
+	private BufMgrFrameDesc pinnedFrame(PageId pageid)
+			throws HashEntryNotFoundException, PageUnpinnedException {
+		Lock stripe = pageTable.getLock(pageid.pid);
+		stripe.lock();
+		try {
+			int frameNo = pageTable.lookup(pageid.pid);
+			if (frameNo < 0) throw new HashEntryNotFoundException(null, "ERROR: NULL frame");
+			BufMgrFrameDesc frame = frameTable[frameNo];
+			if (frame.getPinCount() == 0) throw new PageUnpinnedException(null, "ERROR: page is not pinned");
+			return frame;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	// Pins the page if it is in the buffer pool. Returns false if it is not.
+	private boolean pinResident(PageId pin_pgid, Page page) throws InvalidFrameNumberException {
+		Lock stripe = pageTable.getLock(pin_pgid.pid);
+		stripe.lock();
+		try {
+			int frameNo = pageTable.lookup(pin_pgid.pid);
+			if (frameNo < 0) return false;
+			pinFrame(frameNo, page);
+			return true;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	// Pins a resident frame. The caller holds the stripe of its page.
+	private void pinFrame(int frameNo, Page page) throws InvalidFrameNumberException {
+		BufMgrFrameDesc frame = frameTable[frameNo];
+		if (frame.pin() == 1) {
+			numPinned.incrementAndGet();
+			if (offHeap != null) frame.setdata(offHeap.attach(frameNo, true));
+		}
+		replacerLock.lock();
+		try {
+			policy.pin(frameNo);
+		} finally {
+			replacerLock.unlock();
+		}
+		page.setpage(frame.getdata()); // get the actual data in the buffer
+	}
+
+	/**
+	 * Picks a victim frame, writes out its old page if dirty, and hands the
+	 * frame over to pin_pgid, pinned. The page table still has no entry for
+	 * pin_pgid when this returns. The new descriptor is in the frame table
+	 * before the replacer pins the frame, so a replacer that tracks pages can
+	 * tell which page the frame now holds.
+	 * 
+	 * @exception IOException
+	 *                if the dirty page of the victim cannot be written. The
+	 *                page then stays in its frame, dirty, and the frame goes
+	 *                back to the replacer.
+	 */
+	private int reserveFrame(PageId pin_pgid) throws ReplacerException,
+			InvalidFrameNumberException, BufferPoolExceededException,
+			PagePinnedException, IOException {
+		for (;;) {
+			replacerLock.lock();
+			int frameNo;
+			Lock stripe = null;
+			BufMgrFrameDesc victimFrame;
+			try {
+				frameNo = policy.pick_victim();
+				if (frameNo < 0) throw new ReplacerException(null, "BUFMGR: REPLACER_ERROR.");
+				stats.victimSearch(policy.getSearchLength());
+				victimFrame = frameTable[frameNo];
+				if (victimFrame != null) {
+					// The stripe comes before the replacer in the lock order, so
+					// only try it here and start over if another thread has it.
+					stripe = pageTable.getLock(victimFrame.getPageNo().pid);
+					boolean locked = stripe.tryLock();
+					if (locked && victimFrame.getPinCount() > 0) {
+						stripe.unlock();
+						locked = false;
+					}
+					if (!locked) {
+						// put the frame back among the candidates
+						policy.reinstate(frameNo);
+						stripe = null;
+						frameNo = -1;
+					}
+				}
+				// a dirty victim keeps its frame until its page is written
+				if (frameNo >= 0 && (victimFrame == null || !victimFrame.isDirty()))
+					installFrame(frameNo, pin_pgid);
+			} finally {
+				replacerLock.unlock();
+			}
+			if (frameNo < 0) {
+				Thread.yield();
+				continue;
+			}
+
+			if (stripe != null) {
+				try {
+					boolean dirty = victimFrame.isDirty();
+					if (dirty) {
+						// The frame is out of the candidates and the stripe keeps
+						// the page from being pinned, so no lock is needed to write.
+						try {
+							writeFrame(victimFrame); // flush to disk
+						} catch (IOException e) {
+							replacerLock.lock();
+							try {
+								policy.reinstate(frameNo);
+							} finally {
+								replacerLock.unlock();
+							}
+							throw e;
+						}
+						// the cleaner did not keep up; let it run a round now
+						PageCleaner c = cleaner;
+						if (c != null) c.wakeUp();
+						replacerLock.lock();
+						try {
+							installFrame(frameNo, pin_pgid);
+						} finally {
+							replacerLock.unlock();
+						}
+					}
+					stats.eviction(dirty);
+					pageTable.remove(victimFrame.getPageNo().pid);
+					setDirtyBit(frameNo, false);
+				} finally {
+					stripe.unlock();
+				}
+			}
+			return frameNo;
+		}
+	}
+
+	// Gives a frame picked by the replacer to a new page, pinned. The caller
+	// holds the replacer lock.
+	private void installFrame(int frameNo, PageId pin_pgid) throws InvalidFrameNumberException {
+		// invalidate optimistic reads of the page leaving the frame
+		versions.incrementAndGet(frameNo);
+		// the frame is about to be read or overwritten, so nothing is copied in
+		byte[] data = offHeap == null ? cache[frameNo] : offHeap.attach(frameNo, false);
+		BufMgrFrameDesc newFrame = new BufMgrFrameDesc(new PageId(pin_pgid.pid), frameNo, data);
+		newFrame.pin();
+		numPinned.incrementAndGet();
+		frameTable[frameNo] = newFrame;
+		policy.pin(frameNo);
+	}
+
+	// Gives back a frame reserved by reserveFrame that was not used after all.
+	private void releaseFrame(int frameNo) throws PagePinnedException {
+		detachFrame(frameTable[frameNo], false);
+		frameTable[frameNo] = null;
+		numPinned.decrementAndGet();
+		replacerLock.lock();
+		try {
+			policy.free(frameNo);
+		} finally {
+			replacerLock.unlock();
+		}
+	}
+
+	// Returns the heap window of an off-heap frame whose last pin is gone.
+	private void detachFrame(BufMgrFrameDesc frame, boolean copyBack) {
+		if (offHeap == null) return;
+		// the window may go to another frame now
+		versions.incrementAndGet(frame.getFrameNo());
+		offHeap.detach(frame.getFrameNo(), frame.getdata(), copyBack);
+		frame.setdata(null);
+	}
+
+	// Writes the page held in a frame to disk.
+	private void writeFrame(BufMgrFrameDesc frame) throws IOException {
+		ioLock.lock();
+		try {
+			byte[] data = frame.getdata();
+			if (data == null) {
+				// an unpinned off-heap frame has no heap window
+				offHeap.copyOut(frame.getFrameNo(), writeBuf);
+				data = writeBuf;
+			}
+			if (mappedIO) mapped().writePage(frame.getPageNo().pid, data);
+			else SystemDefs.JavabaseDB.write_page(frame.getPageNo(), new Page(data));
+		} catch (InvalidPageNumberException | FileIOException e) {
+			throw new IOException("BUFMGR: cannot write page " + frame.getPageNo().pid, e);
+		} finally {
+			ioLock.unlock();
+		}
+	}
 }
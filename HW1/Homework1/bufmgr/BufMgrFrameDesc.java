@@ -4,13 +4,19 @@ import global.AbstractBufMgrFrameDesc;
 import global.GlobalConst;
 import global.PageId;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 public class BufMgrFrameDesc extends global.AbstractBufMgrFrameDesc implements GlobalConst
 {
-	private int pinCount = 0;
-	private boolean dirty = false;
+	private final AtomicInteger pinCount = new AtomicInteger();
+	private volatile boolean dirty = false;
 	private PageId pid = null;
 	private int frameNo = 0;
 	private byte[] page_data = null;
+
+	// Latch guarding the contents of the frame while it is pinned.
+	private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
 	
 	public BufMgrFrameDesc(PageId pid, int frameNo, byte[] page_data) {
 		this.pid = pid;
@@ -23,7 +29,7 @@ public class BufMgrFrameDesc extends global.AbstractBufMgrFrameDesc implements G
 	 * @return the pin count number.
 	 */
 	public int getPinCount()
-	{ return pinCount; };
+	{ return pinCount.get(); };
 
 	/**
 	 * Increments the pin count of a certain frame page when the page is pinned.
@@ -31,7 +37,7 @@ public class BufMgrFrameDesc extends global.AbstractBufMgrFrameDesc implements G
 	 * @return the incremented pin count.
 	 */
 	public int pin()
-	{ return ++pinCount; };
+	{ return pinCount.incrementAndGet(); };
 
 	/**
 	 * Decrements the pin count of a frame when the page is unpinned. If the pin
@@ -40,7 +46,13 @@ public class BufMgrFrameDesc extends global.AbstractBufMgrFrameDesc implements G
 	 * @return the decremented pin count.
 	 */
 	public int unpin()
-	{ return Math.max(--pinCount, 0); };
+	{
+		for (;;) {
+			int count = pinCount.get();
+			if (count <= 0) return 0;
+			if (pinCount.compareAndSet(count, count - 1)) return count - 1;
+		}
+	};
 
 	/**
 	 *
@@ -50,6 +62,12 @@ public class BufMgrFrameDesc extends global.AbstractBufMgrFrameDesc implements G
 	
 	public byte[] getdata() { return page_data; };
 
+	/**
+	 * Sets the array the frame is accessed through. An off-heap buffer pool
+	 * attaches a heap window here while the frame is pinned.
+	 */
+	public void setdata(byte[] page_data) { this.page_data = page_data; };
+
 	/**
 	 * the dirty bit, 1 (TRUE) stands for this frame is altered, 0 (FALSE) for
 	 * clean frames.
@@ -60,4 +78,10 @@ public class BufMgrFrameDesc extends global.AbstractBufMgrFrameDesc implements G
 	public void setDirty(boolean dirty) { this.dirty = dirty; };
 	
 	public int getFrameNo() { return frameNo; }
+
+	/**
+	 * Returns the latch of this frame. Threads sharing a pinned page take the
+	 * read latch to look at its contents and the write latch to change them.
+	 */
+	public ReentrantReadWriteLock getLatch() { return latch; }
 }
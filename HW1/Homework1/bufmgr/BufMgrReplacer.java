@@ -27,6 +27,9 @@ public abstract class BufMgrReplacer extends AbstractBufMgrReplacer
 	// A reference to the frameTable object, stored at the BufMgr class.
 	protected BufMgrFrameDesc[] frameTable = null;
 
+	/** Number of frames the last pick_victim looked at. */
+	protected int searchLength = 1;
+
 	/**
 	 * Pins a candidate page in the buffer pool.
 	 * 
@@ -64,10 +67,28 @@ public abstract class BufMgrReplacer extends AbstractBufMgrReplacer
 	 */
 	abstract public void free(int frameNo) throws PagePinnedException;
 
-	/** Must pin the returned frame. */
+	/**
+	 * Picks the frame to hold a new page and takes it out of the candidates,
+	 * so that no other search returns it. The caller must pin the frame, or
+	 * give it back with reinstate if it cannot use it.
+	 */
 	abstract public int pick_victim() throws BufferPoolExceededException,
 			PagePinnedException;
 
+	/**
+	 * Gives back a frame returned by pick_victim that the buffer manager
+	 * could not use, e.g. because another thread was pinning its page. The
+	 * frame becomes a candidate again in the place it had; unlike a pin and
+	 * an unpin, this does not count as a reference to its page.
+	 * 
+	 * @param frameNo
+	 *            frame number returned by pick_victim.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 */
+	abstract public void reinstate(int frameNo) throws InvalidFrameNumberException;
+
 	/** Retruns the name of the replacer algorithm. */
 	abstract public String name();
 
@@ -78,6 +99,52 @@ public abstract class BufMgrReplacer extends AbstractBufMgrReplacer
 	 */
 	abstract public int getNumUnpinnedBuffers();
 
+	/**
+	 * Lists unpinned frames, those the replacer is going to pick first coming
+	 * first, so a page cleaner can write them out before they are needed.
+	 * This default lists them in frame order; replacers override it to
+	 * follow their own eviction order.
+	 * 
+	 * @param frames
+	 *            array receiving the frame numbers.
+	 * @return the number of frames stored in frames.
+	 */
+	public int nextVictims(int[] frames) {
+		int n = 0;
+		for (int i = 0; i < state_bit.length && n < frames.length; i++) {
+			if (state_bit[i] != Pinned) frames[n++] = i;
+		}
+		return n;
+	}
+
+
+	/**
+	 * Takes over a frame that already holds a page, when the buffer manager
+	 * switches to this replacer in the middle of its work. The frame is left
+	 * pinned; the buffer manager unpins it afterwards if no one holds it.
+	 * This default pins it; a replacer that keeps a list of empty frames
+	 * must also take the frame off that list.
+	 * 
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 */
+	public void adopt(int frameNo) throws InvalidFrameNumberException {
+		pin(frameNo);
+	}
+
+	/**
+	 * Tells how many frames the last call to pick_victim looked at. A
+	 * replacer that picks its victim in constant time leaves it at 1.
+	 * 
+	 * @return the length of the last victim search.
+	 */
+	public int getSearchLength() {
+		return searchLength;
+	}
+
 
 	public BufMgrReplacer()	{}
 	/** Creates a replacer object. */
@@ -0,0 +1,157 @@
+package bufmgr;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters of a buffer manager. The buffer manager updates them as it
+ * works; reading them never blocks it. They can be read directly or, once
+ * BufMgr.registerMBean has been called, through JMX.
+ *
+ * Only pins that read their page count as misses: a pin of an empty page,
+ * as done by newPage, is neither a hit nor a miss.
+ */
+public class BufMgrStats implements BufMgrStatsMBean
+{
+	// Number of histogram buckets; bucket i counts values below 2^i.
+	private static final int BUCKETS = 32;
+
+	private final BufMgr mgr;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder dirtyWrites = new LongAdder();
+	private final LongAdder cleanerWrites = new LongAdder();
+	private final LongAdder prefetchedPages = new LongAdder();
+	private final LongAdder pinWaitNanos = new LongAdder();
+	private final LongAdder victimSearches = new LongAdder();
+	private final LongAdder victimSearchLength = new LongAdder();
+	private final LongAdder[] pinWaitHistogram = newHistogram();
+	private final LongAdder[] victimSearchHistogram = newHistogram();
+
+	BufMgrStats(BufMgr mgr) {
+		this.mgr = mgr;
+	}
+
+	private static LongAdder[] newHistogram() {
+		LongAdder[] h = new LongAdder[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) h[i] = new LongAdder();
+		return h;
+	}
+
+	// Adds a value to the bucket of the smallest power of two above it.
+	private static void record(LongAdder[] h, long value) {
+		int bucket = 64 - Long.numberOfLeadingZeros(Math.max(0, value));
+		h[Math.min(bucket, BUCKETS - 1)].increment();
+	}
+
+	private static long[] snapshot(LongAdder[] h) {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) counts[i] = h[i].sum();
+		return counts;
+	}
+
+	void hit() {
+		hits.increment();
+	}
+
+	void miss(long nanos) {
+		misses.increment();
+		pinWaitNanos.add(nanos);
+		record(pinWaitHistogram, nanos / 1000);
+	}
+
+	void eviction(boolean dirty) {
+		evictions.increment();
+		if (dirty) dirtyWrites.increment();
+	}
+
+	void victimSearch(int length) {
+		victimSearches.increment();
+		victimSearchLength.add(length);
+		record(victimSearchHistogram, length);
+	}
+
+	void cleanerWrites(int pages) {
+		cleanerWrites.add(pages);
+	}
+
+	void prefetched(int pages) {
+		prefetchedPages.add(pages);
+	}
+
+	public String getReplacer() {
+		return mgr.getReplacerName();
+	}
+
+	public int getNumBuffers() {
+		return mgr.getNumBuffers();
+	}
+
+	public int getNumUnpinnedBuffers() {
+		return mgr.getNumUnpinnedBuffers();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public double getHitRatio() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getDirtyWrites() {
+		return dirtyWrites.sum();
+	}
+
+	public long getCleanerWrites() {
+		return cleanerWrites.sum();
+	}
+
+	public long getPrefetchedPages() {
+		return prefetchedPages.sum();
+	}
+
+	public long getPinWaitNanos() {
+		return pinWaitNanos.sum();
+	}
+
+	public double getMeanVictimSearchLength() {
+		long n = victimSearches.sum();
+		return n == 0 ? 0 : (double) victimSearchLength.sum() / n;
+	}
+
+	public long[] getPinWaitHistogram() {
+		return snapshot(pinWaitHistogram);
+	}
+
+	public long[] getVictimSearchHistogram() {
+		return snapshot(victimSearchHistogram);
+	}
+
+	public void reset() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+		dirtyWrites.reset();
+		cleanerWrites.reset();
+		prefetchedPages.reset();
+		pinWaitNanos.reset();
+		victimSearches.reset();
+		victimSearchLength.reset();
+		for (int i = 0; i < BUCKETS; i++) {
+			pinWaitHistogram[i].reset();
+			victimSearchHistogram[i].reset();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package bufmgr;
+
+/**
+ * Management interface of the buffer pool statistics, as seen through JMX.
+ */
+public interface BufMgrStatsMBean
+{
+	/** Returns the name of the replacement policy in use. */
+	String getReplacer();
+
+	/** Returns the number of frames in the buffer pool. */
+	int getNumBuffers();
+
+	/** Returns the number of frames not pinned right now. */
+	int getNumUnpinnedBuffers();
+
+	/** Returns the number of pins that found the page in the pool. */
+	long getHits();
+
+	/** Returns the number of pins that had to read the page from disk. */
+	long getMisses();
+
+	/** Returns hits / (hits + misses), or 0 before the first pin. */
+	double getHitRatio();
+
+	/** Returns the number of pages evicted to make room for another. */
+	long getEvictions();
+
+	/** Returns the number of evicted pages that had to be written first. */
+	long getDirtyWrites();
+
+	/** Returns the number of pages written by the background page cleaner. */
+	long getCleanerWrites();
+
+	/** Returns the number of pages read ahead of a pin. */
+	long getPrefetchedPages();
+
+	/** Returns the total time pins spent bringing pages in, in nanoseconds. */
+	long getPinWaitNanos();
+
+	/** Returns the mean number of frames looked at to pick a victim. */
+	double getMeanVictimSearchLength();
+
+	/**
+	 * Returns the times pins spent bringing pages in: entry i counts the
+	 * misses that took less than 2^i microseconds.
+	 */
+	long[] getPinWaitHistogram();
+
+	/**
+	 * Returns the victim search lengths: entry i counts the searches that
+	 * looked at less than 2^i frames.
+	 */
+	long[] getVictimSearchHistogram();
+
+	/** Sets all counters back to zero. */
+	void reset();
+}
@@ -7,27 +7,31 @@ import exceptions.PageUnpinnedException;
 
 
 /**
- * This class should implement a Clock replacement strategy.
+ * This class implements the Clock replacement strategy.
+ *
+ * The number of unpinned frames is kept up to date on every pin, unpin and
+ * free, so picking a victim never walks the frame table to count them, and
+ * nothing on these paths logs or allocates.
  */
 public class Clock extends BufMgrReplacer
 {
 	private int poolSize;
 	private int clockHand;
 
+	// Number of frames that are not pinned.
+	private int numUnpinned;
+
 	public Clock()
 	{
-		System.out.println("default ctor");
-		
 	};
 	
 	public Clock(BufMgr b)
 	{
-		System.out.println("clock ctor");
-		System.out.println(b);
 		setBufferManager(b);
 
 		poolSize = mgr.getNumBuffers();
 		clockHand = 0;
+		numUnpinned = poolSize;
 	};
 
 	/**
@@ -42,7 +46,10 @@ public class Clock extends BufMgrReplacer
 	 */
 	public void pin(int frameNo) throws InvalidFrameNumberException
 	{
-		System.out.println("clock pin called");
+		if (frameNo < 0 || frameNo >= poolSize)
+			throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
+
+		if (state_bit[frameNo] != Pinned) numUnpinned--;
 		state_bit[frameNo] = Pinned;
 	};
 
@@ -61,9 +68,10 @@ public class Clock extends BufMgrReplacer
 	public boolean unpin(int frameNo) throws InvalidFrameNumberException,
 			PageUnpinnedException
 	{
-		if (frameNo < 0 || frameNo > poolSize)
+		if (frameNo < 0 || frameNo >= poolSize)
 			throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
 
+		if (state_bit[frameNo] == Pinned) numUnpinned++;
 		state_bit[frameNo] = Referenced;
 		return true;
 	};
@@ -78,50 +86,82 @@ public class Clock extends BufMgrReplacer
 	 */
 	public void free(int frameNo) throws PagePinnedException
 	{
+		if (frameNo < 0 || frameNo >= poolSize)
+			throw new PagePinnedException(null, "ERROR: invalid frame no.");
+
+		if (state_bit[frameNo] == Pinned) numUnpinned++;
 		state_bit[frameNo] = Available;
 	};
 
 	/** Must pin the returned frame. */
 	public int pick_victim() throws BufferPoolExceededException, PagePinnedException
 	{
-		System.out.println("Clock : Picking victim");
-
-		if (this.getNumUnpinnedBuffers() == 0) {
+		if (numUnpinned == 0) {
 			throw new BufferPoolExceededException(null, "ERROR: not enough unpinned buffers. Waiting for unpin");
 		}
 
-		while ( checkClock() == -1 )
-		{
-			System.out.println("checking clock");
+		// The first revolution clears the reference bits it passes, so an
+		// unpinned frame is always found by the end of the second one.
+		for (int steps = 0; steps < 2 * poolSize; steps++) {
+			int frameNo = clockHand;
+			clockHand = (clockHand + 1) % poolSize;
+
+			// if frame buffer is available to replace, return it.
+			if (state_bit[frameNo] == Available) {
+				state_bit[frameNo] = Pinned;
+				numUnpinned--;
+				searchLength = steps + 1;
+				return frameNo;
+			}
+
+			// if reference bit is set, clear the bit and give it one more turn.
+			if (state_bit[frameNo] == Referenced) state_bit[frameNo] = Available;
 		}
 
-		return clockHand;
+		throw new BufferPoolExceededException(null, "ERROR: not enough unpinned buffers. Waiting for unpin");
 	} ;
 
-	private	int checkClock()
+
+	/**
+	 * Gives back a frame returned by pick_victim. The hand has already
+	 * cleared its reference bit, so it goes back as available.
+	 */
+	public void reinstate(int frameNo) throws InvalidFrameNumberException
 	{
+		if (frameNo < 0 || frameNo >= poolSize)
+			throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
 
-		// if frame buffer is available to replace, return it.
-		if (state_bit[clockHand] == Available)
-		{
-			return clockHand;
+		if (state_bit[frameNo] == Pinned) {
+			numUnpinned++;
+			state_bit[frameNo] = Available;
 		}
+	}
 
-		// if reference bit is set, clear the bit, and advance the clock hand.
-		if (state_bit[clockHand] == Referenced)
-		{
-			state_bit[clockHand] = Available;
-			clockHand = (clockHand + 1) % poolSize;
-			return -1;
-		}
-		else // pinned. advanced clock hand
-		{
-			clockHand = (clockHand + 1) % poolSize;
-			return -1;
+	/**
+	 * Lists the unpinned frames in the order pick_victim takes them: the
+	 * hand is moved over a copy of the reference bits, so a referenced frame
+	 * comes after the available frames its second chance lets the hand pass.
+	 */
+	public int nextVictims(int[] frames)
+	{
+		boolean[] referenced = new boolean[poolSize];
+		boolean[] taken = new boolean[poolSize];
+		int hand = clockHand;
+		int n = 0;
+		// every frame is passed at most twice before it is taken
+		for (int steps = 0; steps < 3 * poolSize && n < frames.length && n < numUnpinned; steps++) {
+			int frameNo = hand;
+			hand = (hand + 1) % poolSize;
+			if (state_bit[frameNo] == Pinned || taken[frameNo]) continue;
+			if (state_bit[frameNo] == Referenced && !referenced[frameNo]) {
+				referenced[frameNo] = true;
+				continue;
+			}
+			taken[frameNo] = true;
+			frames[n++] = frameNo;
 		}
-
-	};
-
+		return n;
+	}
 
 	/** Retruns the name of the replacer algorithm. */
 	public String name()
@@ -134,7 +174,7 @@ public class Clock extends BufMgrReplacer
 	 */
 	public int getNumUnpinnedBuffers()
 	{
-		return mgr.getNumUnpinnedBuffers();
+		return numUnpinned;
 	}
 
 
@@ -0,0 +1,166 @@
+package bufmgr;
+
+import global.AbstractBufMgr;
+
+import exceptions.BufferPoolExceededException;
+import exceptions.InvalidFrameNumberException;
+import exceptions.PagePinnedException;
+import exceptions.PageUnpinnedException;
+
+
+/**
+ * This class implements the LRU replacement strategy.
+ *
+ * The unpinned frames are kept on a doubly-linked list threaded through two
+ * int arrays indexed by frame number, least recently used first. Pinning
+ * unlinks a frame, unpinning appends it, and the victim is the head of the
+ * list, so every operation takes constant time.
+ */
+public class LRU extends BufMgrReplacer
+{
+	int totalFrames = 0;
+
+	// prev and next link the candidate frames; index totalFrames is the
+	// sentinel, whose next is the least and prev the most recently used frame.
+	private int[] prev;
+	private int[] next;
+
+	// Number of frames on the list.
+	private int count = 0;
+
+	public LRU(AbstractBufMgr b)  {
+		setBufferManager((BufMgr)b);
+		initialize();
+	}
+
+	private void initialize() {
+		totalFrames = mgr.getNumBuffers();
+		prev = new int[totalFrames + 1];
+		next = new int[totalFrames + 1];
+		prev[totalFrames] = next[totalFrames] = totalFrames;
+		for (int i = 0; i < totalFrames; i++) linkLast(i);
+	}
+
+	private boolean isLinked(int frameNo) {
+		return next[frameNo] >= 0;
+	}
+
+	private void linkFirst(int frameNo) {
+		int first = next[totalFrames];
+		prev[frameNo] = totalFrames;
+		next[frameNo] = first;
+		prev[first] = frameNo;
+		next[totalFrames] = frameNo;
+		count++;
+	}
+
+	private void linkLast(int frameNo) {
+		int last = prev[totalFrames];
+		prev[frameNo] = last;
+		next[frameNo] = totalFrames;
+		next[last] = frameNo;
+		prev[totalFrames] = frameNo;
+		count++;
+	}
+
+	private void unlink(int frameNo) {
+		next[prev[frameNo]] = next[frameNo];
+		prev[next[frameNo]] = prev[frameNo];
+		prev[frameNo] = next[frameNo] = -1;
+		count--;
+	}
+
+	/**
+	 * Pins a candidate page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @return true if successful.
+	 */
+	public void pin(int frameNo) throws InvalidFrameNumberException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
+		if (isLinked(frameNo)) unlink(frameNo);
+		state_bit[frameNo] = Pinned;
+	}
+
+	/**
+	 * Unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @throws PageUnpinnedException
+	 *             if the page is originally unpinned.
+	 * @return true if successful.
+	 */
+	public boolean unpin(int frameNo) throws InvalidFrameNumberException,
+			PageUnpinnedException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
+		if (state_bit[frameNo] == Pinned) {
+			// the most recently used frame goes to the tail
+			linkLast(frameNo);
+			state_bit[frameNo] = Referenced;
+		}
+		return true;
+	}
+
+	/**
+	 * Frees and unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws PagePinnedException
+	 *             if the page is pinned.
+	 */
+	public void free(int frameNo) throws PagePinnedException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new PagePinnedException(null, "ERROR: invalid frame no.");
+		if (isLinked(frameNo)) unlink(frameNo);
+		// an empty frame is the first one to reuse
+		linkFirst(frameNo);
+		state_bit[frameNo] = Available;
+	}
+
+	/** Must pin the returned frame. */
+	public int pick_victim() throws BufferPoolExceededException,
+			PagePinnedException {
+		if (count == 0) throw new BufferPoolExceededException(null, "ERROR: not enough unpinned buffers. Waiting for unpin");
+		int victimNo = next[totalFrames];
+		unlink(victimNo);
+		state_bit[victimNo] = Pinned;
+		return victimNo;
+	}
+
+	/** Puts a frame returned by pick_victim back at the head of the list. */
+	public void reinstate(int frameNo) throws InvalidFrameNumberException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
+		if (state_bit[frameNo] != Pinned) return;
+		linkFirst(frameNo);
+		state_bit[frameNo] = frameTable[frameNo] == null ? Available : Referenced;
+	}
+
+	/** Lists the unpinned frames, least recently used first. */
+	public int nextVictims(int[] frames) {
+		int n = 0;
+		for (int f = next[totalFrames]; f != totalFrames && n < frames.length; f = next[f])
+			frames[n++] = f;
+		return n;
+	}
+
+	/** Retruns the name of the replacer algorithm. */
+	public String name()
+	{ return "LRU"; }
+
+	/**
+	 * Counts the unpinned frames (free frames) in the buffer pool.
+	 *
+	 * @returns the total number of unpinned frames in the buffer pool.
+	 */
+	public int getNumUnpinnedBuffers() {
+		return count;
+	}
+}
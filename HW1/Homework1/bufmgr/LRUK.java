@@ -0,0 +1,260 @@
+package bufmgr;
+
+import global.AbstractBufMgr;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import exceptions.BufferPoolExceededException;
+import exceptions.InvalidFrameNumberException;
+import exceptions.PagePinnedException;
+import exceptions.PageUnpinnedException;
+
+
+/**
+ * This class implements the LRU-K replacement strategy with K = 2.
+ *
+ * Every page remembers the times of its last two references. The victim is
+ * the unpinned page whose second to last reference is the oldest, so a page
+ * touched once by a sequential scan goes before a page that is used over and
+ * over, however recently the scan touched it. Pages with a single reference
+ * are ordered by that reference, like in LRU.
+ *
+ * Pins of a page that is already pinned are correlated references and only
+ * move its last reference time. The history of evicted pages is retained for
+ * as many pages as there are frames, so a page that comes back soon keeps
+ * its place.
+ *
+ * The unpinned frames are kept in a binary heap in victim order, so picking
+ * a victim, pinning and unpinning take logarithmic time. The history of
+ * evicted pages is only looked up when a new page moves into a frame.
+ */
+public class LRUK extends BufMgrReplacer
+{
+	int totalFrames = 0;
+
+	// Logical clock, advanced on every reference.
+	private long time = 0;
+
+	// The page held by each frame, or -1.
+	private int[] pageOf;
+
+	// The last and the second to last reference times of each frame's page.
+	private long[] last;
+	private long[] secondLast;
+
+	// The unpinned frames, as a binary heap whose root is the next victim,
+	// and the index of every frame in it, or -1 if the frame is pinned.
+	private int[] heap;
+	private int[] heapPos;
+	private int heapSize = 0;
+
+	// Reference history of recently evicted pages: {last, secondLast}.
+	private Map<Integer, long[]> retained;
+
+	public LRUK(AbstractBufMgr b)  {
+		setBufferManager((BufMgr)b);
+		initialize();
+	}
+
+	private void initialize() {
+		totalFrames = mgr.getNumBuffers();
+		pageOf = new int[totalFrames];
+		last = new long[totalFrames];
+		secondLast = new long[totalFrames];
+		heap = new int[totalFrames];
+		heapPos = new int[totalFrames];
+		// every frame has the same empty history, so frame order is a heap
+		for (int i = 0; i < totalFrames; i++) {
+			pageOf[i] = -1;
+			heap[i] = heapPos[i] = i;
+		}
+		heapSize = totalFrames;
+		final int maxRetained = totalFrames;
+		retained = new LinkedHashMap<Integer, long[]>() {
+			protected boolean removeEldestEntry(Map.Entry<Integer, long[]> eldest) {
+				return size() > maxRetained;
+			}
+		};
+	}
+
+	// Tells whether frame a is evicted before frame b: the oldest second to
+	// last reference first, then the oldest last reference, then the lowest
+	// frame number, which puts empty frames first.
+	private boolean before(int a, int b) {
+		if (secondLast[a] != secondLast[b]) return secondLast[a] < secondLast[b];
+		if (last[a] != last[b]) return last[a] < last[b];
+		return a < b;
+	}
+
+	private void heapAdd(int frameNo) {
+		heap[heapSize] = frameNo;
+		heapPos[frameNo] = heapSize++;
+		siftUp(heapPos[frameNo]);
+	}
+
+	// Removes a frame from the heap. Returns the number of levels the frame
+	// put in its place moved down.
+	private int heapRemove(int frameNo) {
+		int i = heapPos[frameNo];
+		heapPos[frameNo] = -1;
+		int moved = heap[--heapSize];
+		if (i == heapSize) return 0;
+		heap[i] = moved;
+		heapPos[moved] = i;
+		siftUp(i);
+		return siftDown(heapPos[moved]);
+	}
+
+	private void siftUp(int i) {
+		int frameNo = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!before(frameNo, heap[parent])) break;
+			heap[i] = heap[parent];
+			heapPos[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = frameNo;
+		heapPos[frameNo] = i;
+	}
+
+	private int siftDown(int i) {
+		int frameNo = heap[i];
+		int levels = 0;
+		for (;;) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && before(heap[child + 1], heap[child])) child++;
+			if (!before(heap[child], frameNo)) break;
+			heap[i] = heap[child];
+			heapPos[heap[i]] = i;
+			i = child;
+			levels++;
+		}
+		heap[i] = frameNo;
+		heapPos[frameNo] = i;
+		return levels;
+	}
+
+	/**
+	 * Pins a candidate page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @return true if successful.
+	 */
+	public void pin(int frameNo) throws InvalidFrameNumberException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
+
+		int pageNo = frameTable[frameNo].getPageNo().pid;
+		// a frame picked as victim is already out of the heap
+		boolean reference = state_bit[frameNo] != Pinned;
+		if (heapPos[frameNo] >= 0) heapRemove(frameNo);
+		if (pageOf[frameNo] != pageNo) {
+			// a new page moves into the frame: keep the history of the old one
+			if (pageOf[frameNo] >= 0)
+				retained.put(pageOf[frameNo], new long[] { last[frameNo], secondLast[frameNo] });
+			long[] hist = retained.remove(pageNo);
+			last[frameNo] = hist == null ? 0 : hist[0];
+			secondLast[frameNo] = hist == null ? 0 : hist[1];
+			pageOf[frameNo] = pageNo;
+			reference = true;
+		}
+
+		++time;
+		if (reference) secondLast[frameNo] = last[frameNo];
+		last[frameNo] = time;
+		state_bit[frameNo] = Pinned;
+	}
+
+	/**
+	 * Unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @throws PageUnpinnedException
+	 *             if the page is originally unpinned.
+	 * @return true if successful.
+	 */
+	public boolean unpin(int frameNo) throws InvalidFrameNumberException,
+			PageUnpinnedException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
+		if (state_bit[frameNo] == Pinned) {
+			state_bit[frameNo] = Referenced;
+			heapAdd(frameNo);
+		}
+		return true;
+	}
+
+	/**
+	 * Frees and unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws PagePinnedException
+	 *             if the page is pinned.
+	 */
+	public void free(int frameNo) throws PagePinnedException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new PagePinnedException(null, "ERROR: invalid frame no.");
+		if (heapPos[frameNo] >= 0) heapRemove(frameNo);
+		// a freed page is gone for good, so its history is dropped
+		state_bit[frameNo] = Available;
+		pageOf[frameNo] = -1;
+		last[frameNo] = secondLast[frameNo] = 0;
+		heapAdd(frameNo);
+	}
+
+	/** Must pin the returned frame. */
+	public int pick_victim() throws BufferPoolExceededException,
+			PagePinnedException {
+		if (heapSize == 0) throw new BufferPoolExceededException(null, "ERROR: not enough unpinned buffers. Waiting for unpin");
+		int victimNo = heap[0];
+		// the search is the walk down the heap that fills the root again
+		searchLength = 1 + heapRemove(victimNo);
+		state_bit[victimNo] = Pinned;
+		return victimNo;
+	}
+
+	/** Puts a frame returned by pick_victim back into the heap, unchanged. */
+	public void reinstate(int frameNo) throws InvalidFrameNumberException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
+		if (state_bit[frameNo] != Pinned) return;
+		state_bit[frameNo] = frameTable[frameNo] == null ? Available : Referenced;
+		heapAdd(frameNo);
+	}
+
+	/**
+	 * Lists the unpinned frames in victim order. The frames are popped off
+	 * the heap and pushed back; the order is total, so the heap gives the
+	 * same victims afterwards.
+	 */
+	public int nextVictims(int[] frames) {
+		int n = 0;
+		while (heapSize > 0 && n < frames.length) {
+			frames[n] = heap[0];
+			heapRemove(frames[n++]);
+		}
+		for (int i = 0; i < n; i++) heapAdd(frames[i]);
+		return n;
+	}
+
+	/** Retruns the name of the replacer algorithm. */
+	public String name()
+	{ return "LRUK"; }
+
+	/**
+	 * Counts the unpinned frames (free frames) in the buffer pool.
+	 *
+	 * @returns the total number of unpinned frames in the buffer pool.
+	 */
+	public int getNumUnpinnedBuffers() {
+		return heapSize;
+	}
+}
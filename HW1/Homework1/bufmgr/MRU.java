@@ -97,6 +97,13 @@ public class MRU extends BufMgrReplacer
 			}
 		}
 		emptyList.add(0, frameNo);
+		state_bit[frameNo] = Available;
+	}
+
+	/** Takes the frame off the empty frames before pinning it. */
+	public void adopt(int frameNo) throws InvalidFrameNumberException {
+		emptyList.remove(Integer.valueOf(frameNo));
+		pin(frameNo);
 	}
 
 	/** Must pin the returned frame. */
@@ -106,9 +113,33 @@ public class MRU extends BufMgrReplacer
 		if (emptyList.size() > 0) { victimNo = emptyList.get(0); emptyList.remove(0); } 
 		else if (victimList.size() > 0) { victimNo = victimList.get(0); victimList.remove(0); }
 		else throw new BufferPoolExceededException(null, "ERROR: not enough unpinned buffers. Waiting for unpin");
+		// the lists hold only unpinned frames, so the head is taken unseen
+		searchLength = 1;
+		state_bit[victimNo] = Pinned;
 		return victimNo;
 	}
 
+	/** Puts a frame returned by pick_victim back at the head of its list. */
+	public void reinstate(int frameNo) throws InvalidFrameNumberException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
+		if (state_bit[frameNo] != Pinned) return;
+		if (frameTable[frameNo] == null) {
+			emptyList.add(0, frameNo);
+			state_bit[frameNo] = Available;
+		} else {
+			victimList.add(0, frameNo);
+			state_bit[frameNo] = Referenced;
+		}
+	}
+
+	/** Lists the empty frames, then the others, most recently unpinned first. */
+	public int nextVictims(int[] frames) {
+		int n = 0;
+		for (int i = 0; i < emptyList.size() && n < frames.length; i++) frames[n++] = emptyList.get(i);
+		for (int i = 0; i < victimList.size() && n < frames.length; i++) frames[n++] = victimList.get(i);
+		return n;
+	}
+
 	/** Retruns the name of the replacer algorithm. */
 	public String name()
 	{ return "MRU"; }
@@ -0,0 +1,133 @@
+package bufmgr;
+
+import diskmgr.DB;
+import exceptions.InvalidPageNumberException;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads and writes pages through a memory mapping of the database file, so
+ * that reading a page the operating system already caches is a copy from
+ * the mapping instead of a seek and a read call.
+ *
+ * The file is mapped in chunks of CHUNK_PAGES pages, each one the first time
+ * one of its pages is used, so the mapping grows with the part of the
+ * database in use. Reads and writes need no lock: every access works on its
+ * own view of a chunk, and new chunks are published copy-on-write.
+ */
+public class MappedPages
+{
+	/** Number of pages mapped at a time. */
+	private static final int CHUNK_PAGES = 1024;
+
+	private final DB db;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+
+	// Page size of the database, in bytes.
+	private final int pageSize;
+
+	// The mapped chunks, indexed by page number / CHUNK_PAGES; null where
+	// nothing was mapped yet.
+	private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+	/**
+	 * Opens the file of a database for mapping.
+	 *
+	 * @param db
+	 *            the open database.
+	 * @exception IOException
+	 *                if the file cannot be opened.
+	 */
+	public MappedPages(DB db) throws IOException {
+		this.db = db;
+		pageSize = db.db_page_size();
+		file = new RandomAccessFile(db.db_name(), "rw");
+		channel = file.getChannel();
+	}
+
+	/** Returns the database this mapping reads and writes. */
+	public DB getDB() {
+		return db;
+	}
+
+	/** Returns the page size of the database, in bytes. */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	// A view of the mapping positioned at the start of a page.
+	private ByteBuffer page(int pageNo) throws InvalidPageNumberException, IOException {
+		if (pageNo < 0 || pageNo >= db.db_num_pages())
+			throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
+		int chunk = pageNo / CHUNK_PAGES;
+		int offset = (pageNo % CHUNK_PAGES) * pageSize;
+		MappedByteBuffer[] m = chunks;
+		if (chunk >= m.length || m[chunk] == null || m[chunk].capacity() < offset + pageSize)
+			m = map(chunk, offset + pageSize);
+		ByteBuffer b = m[chunk].duplicate();
+		b.position(offset);
+		return b;
+	}
+
+	// Maps a chunk, or maps it again if the file has grown past its end.
+	private synchronized MappedByteBuffer[] map(int chunk, int minSize) throws IOException {
+		MappedByteBuffer[] m = chunks;
+		if (chunk < m.length && m[chunk] != null && m[chunk].capacity() >= minSize) return m;
+
+		long start = (long) chunk * CHUNK_PAGES * pageSize;
+		long size = Math.min((long) CHUNK_PAGES * pageSize, channel.size() - start);
+		if (size < minSize) throw new IOException("BUFMGR: page beyond the end of the database file");
+
+		m = Arrays.copyOf(m, Math.max(m.length, chunk + 1));
+		m[chunk] = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+		chunks = m;
+		return m;
+	}
+
+	/**
+	 * Copies a page from the mapping.
+	 *
+	 * @param pageNo
+	 *            the page number.
+	 * @param dst
+	 *            a page-sized array receiving the page.
+	 * @exception InvalidPageNumberException
+	 *                if the page is not inside the database.
+	 * @exception IOException
+	 *                if the file cannot be mapped.
+	 */
+	public void readPage(int pageNo, byte[] dst) throws InvalidPageNumberException, IOException {
+		page(pageNo).get(dst, 0, pageSize);
+	}
+
+	/**
+	 * Copies a page into the mapping. The operating system writes it to the
+	 * file later, as it does for diskmgr.DB.write_page.
+	 *
+	 * @param pageNo
+	 *            the page number.
+	 * @param src
+	 *            a page-sized array holding the page.
+	 * @exception InvalidPageNumberException
+	 *                if the page is not inside the database.
+	 * @exception IOException
+	 *                if the file cannot be mapped.
+	 */
+	public void writePage(int pageNo, byte[] src) throws InvalidPageNumberException, IOException {
+		page(pageNo).put(src, 0, pageSize);
+	}
+
+	/**
+	 * Closes the file. Chunks already mapped stay valid until they are
+	 * garbage collected.
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+}
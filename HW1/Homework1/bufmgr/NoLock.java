@@ -0,0 +1,31 @@
+package bufmgr;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A lock that never blocks. It stands in for the real locks of the buffer
+ * manager when the buffer pool is used by a single thread only, so the same
+ * code path serves both modes without paying for synchronization.
+ */
+class NoLock implements Lock
+{
+	static final NoLock INSTANCE = new NoLock();
+
+	private NoLock() {}
+
+	public void lock() {}
+
+	public void lockInterruptibly() {}
+
+	public boolean tryLock() { return true; }
+
+	public boolean tryLock(long time, TimeUnit unit) { return true; }
+
+	public void unlock() {}
+
+	public Condition newCondition() {
+		throw new UnsupportedOperationException("NoLock has no conditions");
+	}
+}
@@ -0,0 +1,119 @@
+package bufmgr;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Frame storage outside the Java heap. The frames live in direct buffers of
+ * at most 1 GB each, so a pool of many gigabytes adds nothing to the heap the
+ * garbage collector has to scan.
+ *
+ * A diskmgr.Page can only hold a byte array, so a frame is handed out through
+ * a heap window while it is pinned: attach() copies the frame into a window
+ * when its pin count goes from 0 to 1, and detach() copies it back when the
+ * pin count drops to 0 again. Only pinned frames use heap memory, and the
+ * windows are recycled.
+ */
+public class OffHeapFrames
+{
+	// Size of a frame in bytes.
+	private final int pageSize;
+
+	// Number of frames in one direct buffer.
+	private final int framesPerSlab;
+
+	// The direct buffers holding the frames.
+	private ByteBuffer[] slabs;
+
+	// Windows of frames that are no longer pinned, ready for reuse.
+	private ArrayDeque<byte[]> windows = new ArrayDeque<>();
+
+	/**
+	 * Allocates the direct buffers for a buffer pool.
+	 *
+	 * @param numBuffers
+	 *            number of frames in the buffer pool.
+	 * @param pageSize
+	 *            size of a frame in bytes.
+	 */
+	public OffHeapFrames(int numBuffers, int pageSize) {
+		this.pageSize = pageSize;
+		framesPerSlab = (1 << 30) / pageSize;
+		int numSlabs = (numBuffers + framesPerSlab - 1) / framesPerSlab;
+		slabs = new ByteBuffer[numSlabs];
+		for (int i = 0; i < numSlabs; i++) {
+			int frames = Math.min(framesPerSlab, numBuffers - i * framesPerSlab);
+			slabs[i] = ByteBuffer.allocateDirect(frames * pageSize);
+		}
+	}
+
+	// A view of the frame; a fresh duplicate keeps concurrent copies apart.
+	private ByteBuffer frame(int frameNo) {
+		ByteBuffer b = slabs[frameNo / framesPerSlab].duplicate();
+		b.position((frameNo % framesPerSlab) * pageSize);
+		return b;
+	}
+
+	/**
+	 * Hands out a heap window for a frame that is being pinned.
+	 *
+	 * @param frameNo
+	 *            the frame number.
+	 * @param copyIn
+	 *            true to fill the window with the contents of the frame;
+	 *            false if the caller is about to overwrite it anyway.
+	 * @return the window.
+	 */
+	public byte[] attach(int frameNo, boolean copyIn) {
+		byte[] window;
+		synchronized (windows) {
+			window = windows.poll();
+		}
+		if (window == null) window = new byte[pageSize];
+		if (copyIn) frame(frameNo).get(window, 0, pageSize);
+		return window;
+	}
+
+	/**
+	 * Takes back the window of a frame that is no longer pinned.
+	 *
+	 * @param frameNo
+	 *            the frame number.
+	 * @param window
+	 *            the window returned by attach.
+	 * @param copyBack
+	 *            true to store the window into the frame first.
+	 */
+	public void detach(int frameNo, byte[] window, boolean copyBack) {
+		if (copyBack) frame(frameNo).put(window, 0, pageSize);
+		synchronized (windows) {
+			windows.push(window);
+		}
+	}
+
+	/**
+	 * Returns a buffer over the page-sized window of an unpinned frame, for
+	 * reading or writing it with a channel without a copy.
+	 *
+	 * @param frameNo
+	 *            the frame number.
+	 * @return a buffer positioned at the start of the frame.
+	 */
+	public ByteBuffer frameBuffer(int frameNo) {
+		ByteBuffer b = frame(frameNo);
+		b.limit(b.position() + pageSize);
+		return b;
+	}
+
+	/**
+	 * Copies an unpinned frame, e.g. to write it to disk.
+	 *
+	 * @param frameNo
+	 *            the frame number.
+	 * @param dst
+	 *            a page-sized array receiving the frame.
+	 */
+	public void copyOut(int frameNo, byte[] dst) {
+		frame(frameNo).get(dst, 0, pageSize);
+	}
+}
@@ -0,0 +1,113 @@
+package bufmgr;
+
+import diskmgr.DB;
+import exceptions.InvalidPageNumberException;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Moves runs of contiguous pages between the database file and the buffer
+ * pool with a single scatter read or gather write, instead of one seek and
+ * one 1 KB call per page.
+ *
+ * diskmgr.DB only offers read_page and write_page, so this class opens its
+ * own channel on the database file. Callers must serialize it with the page
+ * I/O of the disk manager, as the buffer manager does with its I/O lock.
+ */
+public class PageChannel
+{
+	private final DB db;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+
+	// Page size of the database, in bytes.
+	private final int pageSize;
+
+	/**
+	 * Opens a channel on the file of a database.
+	 *
+	 * @param db
+	 *            the open database.
+	 * @exception IOException
+	 *                if the file cannot be opened.
+	 */
+	public PageChannel(DB db) throws IOException {
+		this.db = db;
+		pageSize = db.db_page_size();
+		file = new RandomAccessFile(db.db_name(), "rw");
+		channel = file.getChannel();
+	}
+
+	/** Returns the database this channel reads and writes. */
+	public DB getDB() {
+		return db;
+	}
+
+	/** Returns the page size of the database, in bytes. */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	private void checkRun(int firstPage, int count) throws InvalidPageNumberException {
+		if (firstPage < 0 || count < 0 || firstPage + count > db.db_num_pages())
+			throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
+	}
+
+	/**
+	 * Reads count contiguous pages into page-sized buffers, one per page.
+	 *
+	 * @param firstPage
+	 *            number of the first page of the run.
+	 * @param pages
+	 *            buffers receiving the pages, each positioned at the start of
+	 *            a page-sized window.
+	 * @param count
+	 *            number of pages to read.
+	 * @exception InvalidPageNumberException
+	 *                if the run is not inside the database.
+	 * @exception IOException
+	 *                if the file cannot be read.
+	 */
+	public void readPages(int firstPage, ByteBuffer[] pages, int count)
+			throws InvalidPageNumberException, IOException {
+		checkRun(firstPage, count);
+		channel.position((long) firstPage * pageSize);
+		long remaining = (long) count * pageSize;
+		while (remaining > 0) {
+			long n = channel.read(pages, 0, count);
+			if (n < 0) throw new IOException("BUFMGR: end of file while reading pages");
+			remaining -= n;
+		}
+	}
+
+	/**
+	 * Writes count contiguous pages from page-sized buffers, one per page.
+	 *
+	 * @param firstPage
+	 *            number of the first page of the run.
+	 * @param pages
+	 *            buffers holding the pages, each positioned at the start of
+	 *            a page-sized window.
+	 * @param count
+	 *            number of pages to write.
+	 * @exception InvalidPageNumberException
+	 *                if the run is not inside the database.
+	 * @exception IOException
+	 *                if the file cannot be written.
+	 */
+	public void writePages(int firstPage, ByteBuffer[] pages, int count)
+			throws InvalidPageNumberException, IOException {
+		checkRun(firstPage, count);
+		channel.position((long) firstPage * pageSize);
+		long remaining = (long) count * pageSize;
+		while (remaining > 0) remaining -= channel.write(pages, 0, count);
+	}
+
+	/** Closes the channel. */
+	public void close() throws IOException {
+		file.close();
+	}
+}
@@ -0,0 +1,73 @@
+package bufmgr;
+
+/**
+ * A background thread that writes dirty unpinned frames to disk before the
+ * replacer picks them, so that pinPage usually finds a clean victim and pays
+ * for a single read instead of a write and a read.
+ *
+ * Every round writes a batch of the dirty frames the replacer is going to
+ * evict next, nearest victims first. The thread sleeps between rounds and is
+ * woken early whenever pinPage had to write a dirty victim itself.
+ */
+class PageCleaner extends Thread
+{
+	private final BufMgr mgr;
+
+	// Pause between two rounds, in milliseconds.
+	private final long interval;
+
+	// Most pages written per round.
+	private final int batch;
+
+	private boolean stopped = false;
+	private boolean wakeUp = false;
+
+	PageCleaner(BufMgr mgr, long interval, int batch) {
+		super("PageCleaner");
+		this.mgr = mgr;
+		this.interval = interval;
+		this.batch = batch;
+		setDaemon(true);
+	}
+
+	/** Starts a round now instead of at the end of the pause. */
+	synchronized void wakeUp() {
+		wakeUp = true;
+		notify();
+	}
+
+	/** Stops the thread and waits for the round in progress to end. */
+	void shutdown() {
+		synchronized (this) {
+			stopped = true;
+			notify();
+		}
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public void run() {
+		int[] frames = new int[mgr.getNumBuffers()];
+		for (;;) {
+			synchronized (this) {
+				if (!wakeUp && !stopped) {
+					try {
+						wait(interval);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (stopped) return;
+				wakeUp = false;
+			}
+			try {
+				mgr.cleanVictims(frames, batch);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,370 @@
+package bufmgr;
+
+import diskmgr.Page;
+import exceptions.*;
+import global.AbstractBufMgr;
+import global.AbstractBufMgrFrameDesc;
+import global.PageId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A buffer manager split into named sub-pools, each with its own frames and
+ * its own replacer. A page always goes to the same sub-pool, so pages of one
+ * workload can never evict those of another: a small pool reserved for
+ * index pages keeps them resident however much a scan or a temporary file
+ * pulls through the other pools.
+ *
+ * Pages are routed by the pool they were allocated in with newPage(page,
+ * howmany, pool), or by assignPages for pages that already exist. All other
+ * pages go to the default pool. The manager can be installed wherever a
+ * BufMgr can, e.g. with SystemDefs.initBufMgr.
+ */
+public class PartitionedBufMgr extends AbstractBufMgr
+{
+	/** Name of the pool of pages not routed anywhere else. */
+	public static final String DEFAULT_POOL = "default";
+
+	// The sub-pools by name.
+	private final ConcurrentHashMap<String, BufMgr> pools = new ConcurrentHashMap<>();
+
+	// The sub-pools by the index the routes refer to them with; the default
+	// pool has index 0. Replaced as a whole when a pool is added.
+	private volatile BufMgr[] poolList;
+
+	// The pool index of every page routed outside the default pool.
+	private final BufHashTbl routes;
+
+	// A read-write lock per stripe of the routes. Pins, unpins and flushes
+	// hold the read side while they use the pool of the page, and changes of
+	// the routes take the write side, so a page cannot move to another pool
+	// while it is being read into its current one.
+	private final Lock[] readLocks;
+	private final Lock[] writeLocks;
+
+	private final BufMgr defaultPool;
+
+	// True if the sub-pools are shared by several threads.
+	private final boolean threadSafe;
+
+	/**
+	 * Creates a partitioned buffer manager holding only the default pool.
+	 *
+	 * @param numbufs
+	 *            number of buffers in the default pool.
+	 * @param replacerArg
+	 *            replacement policy of the default pool (e.g. BufMgr.Clock).
+	 * @param threadSafe
+	 *            true to allow concurrent use of the pools.
+	 * @throws InvalidReplacerException
+	 */
+	public PartitionedBufMgr(int numbufs, String replacerArg, boolean threadSafe)
+			throws InvalidReplacerException {
+		this.threadSafe = threadSafe;
+		defaultPool = new BufMgr(numbufs, replacerArg, threadSafe);
+		pools.put(DEFAULT_POOL, defaultPool);
+		poolList = new BufMgr[] { defaultPool };
+
+		routes = new BufHashTbl(numbufs, threadSafe);
+		readLocks = new Lock[routes.getNumStripes()];
+		writeLocks = new Lock[readLocks.length];
+		for (int i = 0; i < readLocks.length; i++) {
+			if (threadSafe) {
+				ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+				readLocks[i] = lock.readLock();
+				writeLocks[i] = lock.writeLock();
+			} else {
+				readLocks[i] = writeLocks[i] = NoLock.INSTANCE;
+			}
+		}
+	}
+
+	/**
+	 * Adds a sub-pool with its own frames and replacer.
+	 *
+	 * @param name
+	 *            name of the new pool.
+	 * @param numbufs
+	 *            number of buffers reserved for the pool.
+	 * @param replacerArg
+	 *            replacement policy of the pool (e.g. BufMgr.LRU).
+	 * @exception InvalidReplacerException
+	 *                if the replacer is unknown.
+	 * @exception BufMgrException
+	 *                if a pool of that name exists.
+	 */
+	public synchronized void addPool(String name, int numbufs, String replacerArg)
+			throws InvalidReplacerException, BufMgrException {
+		if (pools.containsKey(name))
+			throw new BufMgrException(null, "BUFMGR: pool " + name + " already exists");
+		BufMgr pool = new BufMgr(numbufs, replacerArg, threadSafe);
+		BufMgr[] grown = Arrays.copyOf(poolList, poolList.length + 1);
+		grown[poolList.length] = pool;
+		poolList = grown;
+		pools.put(name, pool);
+	}
+
+	/**
+	 * Gets a sub-pool, e.g. to read its statistics.
+	 *
+	 * @param name
+	 *            name of the pool.
+	 * @return the buffer manager of the pool.
+	 * @exception BufMgrException
+	 *                if there is no pool of that name.
+	 */
+	public BufMgr getPool(String name) throws BufMgrException {
+		BufMgr pool = pools.get(name);
+		if (pool == null) throw new BufMgrException(null, "BUFMGR: no pool named " + name);
+		return pool;
+	}
+
+	// The index of a pool in poolList.
+	private int indexOf(BufMgr pool) {
+		BufMgr[] all = poolList;
+		for (int i = 0; i < all.length; i++) {
+			if (all[i] == pool) return i;
+		}
+		return -1;
+	}
+
+	// The sub-pool a page goes to. The caller holds a lock of its stripe.
+	private BufMgr poolOf(int pageNo) {
+		int index = routes.lookup(pageNo);
+		return index < 0 ? defaultPool : poolList[index];
+	}
+
+	// Routes a page to a pool. The caller holds the write lock of its stripe.
+	private void route(int pageNo, int index) {
+		if (index == 0) routes.remove(pageNo);
+		else routes.insert(pageNo, index);
+	}
+
+	/**
+	 * Takes the write locks of the routes of a run of pages in increasing
+	 * stripe order, which keeps holders of several stripes from deadlocking
+	 * each other.
+	 * 
+	 * @return the stripes locked, to be passed to unlockRoutes.
+	 */
+	private int[] lockRoutes(int first, int count) {
+		int[] stripes = new int[count];
+		for (int k = 0; k < count; k++) stripes[k] = routes.stripeOf(first + k);
+		Arrays.sort(stripes);
+		int n = 0;
+		for (int k = 0; k < count; k++) {
+			if (n == 0 || stripes[k] != stripes[n - 1]) stripes[n++] = stripes[k];
+		}
+		stripes = Arrays.copyOf(stripes, n);
+		for (int k = 0; k < n; k++) writeLocks[stripes[k]].lock();
+		return stripes;
+	}
+
+	private void unlockRoutes(int[] stripes) {
+		for (int k = stripes.length - 1; k >= 0; k--) writeLocks[stripes[k]].unlock();
+	}
+
+	/**
+	 * Routes existing pages to a pool, e.g. the pages of an index file that
+	 * was created before the pool. The pages must not be in their current
+	 * pool.
+	 *
+	 * @param first
+	 *            the first page of the run.
+	 * @param count
+	 *            number of pages in the run.
+	 * @param name
+	 *            name of the pool.
+	 * @exception BufMgrException
+	 *                if there is no such pool or a page is in another pool.
+	 */
+	public void assignPages(PageId first, int count, String name) throws BufMgrException {
+		BufMgr pool = getPool(name);
+		int index = indexOf(pool);
+		// no page of the run can be pinned into its current pool between
+		// the check and the new route
+		int[] stripes = lockRoutes(first.pid, count);
+		try {
+			for (int pageNo = first.pid; pageNo < first.pid + count; pageNo++) {
+				BufMgr current = poolOf(pageNo);
+				if (current != pool && current.isResident(pageNo))
+					throw new BufMgrException(null, "BUFMGR: page " + pageNo + " is in another pool");
+			}
+			for (int pageNo = first.pid; pageNo < first.pid + count; pageNo++) route(pageNo, index);
+		} finally {
+			unlockRoutes(stripes);
+		}
+	}
+
+	public void pinPage(PageId pin_pgid, Page page, boolean emptyPage)
+			throws ReplacerException, HashOperationException,
+			PageUnpinnedException, InvalidFrameNumberException,
+			PageNotReadException, BufferPoolExceededException,
+			PagePinnedException, BufMgrException, IOException {
+		Lock lock = readLocks[routes.stripeOf(pin_pgid.pid)];
+		lock.lock();
+		try {
+			poolOf(pin_pgid.pid).pinPage(pin_pgid, page, emptyPage);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void unpinPage(PageId PageId_in_a_DB, boolean dirty)
+			throws ReplacerException, PageUnpinnedException,
+			HashEntryNotFoundException, InvalidFrameNumberException {
+		Lock lock = readLocks[routes.stripeOf(PageId_in_a_DB.pid)];
+		lock.lock();
+		try {
+			poolOf(PageId_in_a_DB.pid).unpinPage(PageId_in_a_DB, dirty);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Allocates new pages in the default pool; see BufMgr.newPage. */
+	public PageId newPage(Page firstpage, int howmany)
+			throws BufferPoolExceededException, HashOperationException,
+			ReplacerException, HashEntryNotFoundException,
+			InvalidFrameNumberException, PagePinnedException,
+			PageUnpinnedException, PageNotReadException, BufMgrException,
+			DiskMgrException, IOException {
+		return defaultPool.newPage(firstpage, howmany);
+	}
+
+	/**
+	 * Allocates a run of new pages that go to a given pool, and pins the
+	 * first one in it.
+	 *
+	 * @param firstpage
+	 *            the address of the first page.
+	 * @param howmany
+	 *            total number of allocated new pages.
+	 * @param name
+	 *            name of the pool.
+	 * @return the first page id of the new pages, or null if it could not be
+	 *         pinned.
+	 * @exception BufMgrException
+	 *                if there is no such pool.
+	 */
+	public PageId newPage(Page firstpage, int howmany, String name)
+			throws BufferPoolExceededException, HashOperationException,
+			ReplacerException, HashEntryNotFoundException,
+			InvalidFrameNumberException, PagePinnedException,
+			PageUnpinnedException, PageNotReadException, BufMgrException,
+			DiskMgrException, IOException {
+		BufMgr pool = getPool(name);
+		PageId first = pool.allocateRun(howmany);
+		// route the run before its first page is pinned, so that a pin or
+		// unpin of one of its pages never goes to the default pool
+		routeRun(first.pid, howmany, indexOf(pool));
+		boolean pinned = false;
+		try {
+			pinned = pool.pinNewRun(first, firstpage, howmany);
+		} finally {
+			if (!pinned) routeRun(first.pid, howmany, 0);
+		}
+		return pinned ? first : null;
+	}
+
+	// Routes a run of pages to a pool.
+	private void routeRun(int first, int count, int index) {
+		int[] stripes = lockRoutes(first, count);
+		try {
+			for (int pageNo = first; pageNo < first + count; pageNo++) route(pageNo, index);
+		} finally {
+			unlockRoutes(stripes);
+		}
+	}
+
+	public void freePage(PageId globalPageId) throws InvalidBufferException,
+			ReplacerException, HashOperationException,
+			InvalidFrameNumberException, PageNotReadException,
+			BufferPoolExceededException, PagePinnedException,
+			PageUnpinnedException, HashEntryNotFoundException, BufMgrException,
+			DiskMgrException, IOException {
+		Lock lock = writeLocks[routes.stripeOf(globalPageId.pid)];
+		lock.lock();
+		try {
+			poolOf(globalPageId.pid).freePage(globalPageId);
+			routes.remove(globalPageId.pid);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void flushPage(PageId pageid) throws HashOperationException,
+			PageUnpinnedException, PagePinnedException, PageNotFoundException,
+			BufMgrException, IOException {
+		Lock lock = readLocks[routes.stripeOf(pageid.pid)];
+		lock.lock();
+		try {
+			poolOf(pageid.pid).flushPage(pageid);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Flushes every pool. A pool that fails does not keep the others from
+	 * being flushed; the first failure is thrown at the end, with the later
+	 * ones suppressed into it.
+	 */
+	public void flushAllPages() throws HashOperationException,
+			PageUnpinnedException, PagePinnedException, PageNotFoundException,
+			BufMgrException, IOException {
+		flushPools(poolList, 0);
+	}
+
+	// Flushes the pools from the given index on.
+	private static void flushPools(BufMgr[] all, int from) throws HashOperationException,
+			PageUnpinnedException, PagePinnedException, PageNotFoundException,
+			BufMgrException, IOException {
+		for (int i = from; i < all.length; i++) {
+			try {
+				all[i].flushAllPages();
+			} catch (HashOperationException | PageUnpinnedException | PagePinnedException
+					| PageNotFoundException | BufMgrException | IOException e) {
+				try {
+					flushPools(all, i + 1);
+				} catch (HashOperationException | PageUnpinnedException | PagePinnedException
+						| PageNotFoundException | BufMgrException | IOException later) {
+					e.addSuppressed(later);
+				}
+				throw e;
+			}
+		}
+	}
+
+	/** Gets the total number of buffers of all pools. */
+	public int getNumBuffers() {
+		int n = 0;
+		for (BufMgr pool : poolList) n += pool.getNumBuffers();
+		return n;
+	}
+
+	/** Gets the number of unpinned buffers of all pools. */
+	public int getNumUnpinnedBuffers() {
+		int n = 0;
+		for (BufMgr pool : poolList) n += pool.getNumUnpinnedBuffers();
+		return n;
+	}
+
+	/**
+	 * Gets the frames of all pools, one pool after the other. Frame numbers
+	 * count within their own pool.
+	 */
+	public AbstractBufMgrFrameDesc[] getFrameTable() {
+		List<AbstractBufMgrFrameDesc> frames = new ArrayList<>();
+		for (BufMgr pool : poolList) {
+			for (AbstractBufMgrFrameDesc frame : pool.getFrameTable()) frames.add(frame);
+		}
+		return frames.toArray(new AbstractBufMgrFrameDesc[frames.size()]);
+	}
+}
@@ -0,0 +1,76 @@
+package bufmgr;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads a trace written by TraceRecorder, one call at a time.
+ */
+public class TraceReader
+{
+	private final DataInputStream in;
+	private int pageNo = 0;
+	private int count = 0;
+
+	/**
+	 * Opens a trace file.
+	 *
+	 * @param fileName
+	 *            the trace file.
+	 * @exception IOException
+	 *                if the file cannot be read or is not a trace.
+	 */
+	public TraceReader(String fileName) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 1 << 16));
+		if (in.readInt() != TraceRecorder.MAGIC || in.readInt() != TraceRecorder.VERSION) {
+			in.close();
+			throw new IOException("BUFMGR: " + fileName + " is not a buffer manager trace");
+		}
+	}
+
+	/**
+	 * Reads the next call.
+	 *
+	 * @return the operation, e.g. TraceRecorder.PIN, or -1 at the end of the
+	 *         trace.
+	 * @exception IOException
+	 *                if the trace cannot be read.
+	 */
+	public int next() throws IOException {
+		int op = in.read();
+		if (op < 0) return -1;
+		int delta = readVarint();
+		pageNo += (delta >>> 1) ^ -(delta & 1);
+		count = op == TraceRecorder.NEW ? readVarint() : 1;
+		return op;
+	}
+
+	/** Returns the page of the last call read. */
+	public int getPageNo() {
+		return pageNo;
+	}
+
+	/** Returns the number of pages of the last call read: howmany for NEW, else 1. */
+	public int getCount() {
+		return count;
+	}
+
+	/** Closes the trace. */
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private int readVarint() throws IOException {
+		int n = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.read();
+			if (b < 0) throw new EOFException("BUFMGR: trace ends in the middle of a call");
+			n |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) return n;
+		}
+		throw new IOException("BUFMGR: corrupt trace");
+	}
+}
@@ -0,0 +1,107 @@
+package bufmgr;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Logs the calls made to a buffer manager to a compact binary trace, which
+ * TraceReader reads back, e.g. to replay it against other replacers and
+ * pool sizes.
+ *
+ * A trace starts with MAGIC and VERSION. Every call is then one operation
+ * byte followed by the page number as a variable-length, zigzag-encoded
+ * difference to the page number of the previous call, so scans and other
+ * runs of nearby pages take about two bytes per call. NEW is followed by
+ * the number of pages allocated.
+ */
+public class TraceRecorder
+{
+	/** First bytes of a trace file. */
+	public static final int MAGIC = 0x4d425452;
+
+	/** Version of the trace format. */
+	public static final int VERSION = 1;
+
+	/** pinPage of a page that is read in if missing. */
+	public static final int PIN = 0;
+	/** pinPage of an empty page, which is never read. */
+	public static final int PIN_EMPTY = 1;
+	/** unpinPage of a clean page. */
+	public static final int UNPIN = 2;
+	/** unpinPage of a page that was changed. */
+	public static final int UNPIN_DIRTY = 3;
+	/** newPage; the page number is the first page of the run. */
+	public static final int NEW = 4;
+	/** freePage. */
+	public static final int FREE = 5;
+
+	private final DataOutputStream out;
+	private int lastPage = 0;
+	private long count = 0;
+
+	/**
+	 * Creates a trace file.
+	 *
+	 * @param fileName
+	 *            the trace file; an existing file is overwritten.
+	 * @exception IOException
+	 *                if the file cannot be created.
+	 */
+	public TraceRecorder(String fileName) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+	}
+
+	/**
+	 * Appends a call to the trace.
+	 *
+	 * @param op
+	 *            the operation, e.g. PIN.
+	 * @param pageNo
+	 *            the page the call is about.
+	 */
+	public synchronized void record(int op, int pageNo) throws IOException {
+		out.writeByte(op);
+		writeVarint(zigzag(pageNo - lastPage));
+		lastPage = pageNo;
+		count++;
+	}
+
+	/**
+	 * Appends a newPage call to the trace.
+	 *
+	 * @param firstPage
+	 *            the first page of the run allocated.
+	 * @param howmany
+	 *            number of pages in the run.
+	 */
+	public synchronized void recordNew(int firstPage, int howmany) throws IOException {
+		record(NEW, firstPage);
+		writeVarint(howmany);
+	}
+
+	/** Returns the number of calls recorded so far. */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/** Writes out what is buffered and closes the trace. */
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+	static int zigzag(int n) {
+		return (n << 1) ^ (n >> 31);
+	}
+
+	private void writeVarint(int n) throws IOException {
+		while ((n & ~0x7f) != 0) {
+			out.writeByte((n & 0x7f) | 0x80);
+			n >>>= 7;
+		}
+		out.writeByte(n);
+	}
+}
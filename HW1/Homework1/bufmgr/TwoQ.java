@@ -0,0 +1,282 @@
+package bufmgr;
+
+import global.AbstractBufMgr;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import exceptions.BufferPoolExceededException;
+import exceptions.InvalidFrameNumberException;
+import exceptions.PagePinnedException;
+import exceptions.PageUnpinnedException;
+
+
+/**
+ * This class implements the 2Q replacement strategy.
+ *
+ * A page seen for the first time enters A1in, a FIFO queue holding about a
+ * quarter of the frames. Pages evicted from A1in are remembered by page
+ * number in A1out, and only a page referenced again while in A1out is
+ * admitted to Am, the main LRU queue. A sequential scan therefore cycles
+ * through A1in and never pushes the frequently used pages out of Am.
+ */
+public class TwoQ extends BufMgrReplacer
+{
+	int totalFrames = 0;
+
+	// Queue a frame is on.
+	private static final int NONE = 0;
+	private static final int A1IN = 1;
+	private static final int AM = 2;
+
+	// Target size of A1in and number of pages remembered in A1out.
+	private int kin;
+	private int kout;
+
+	// prev and next link the frames of A1in and Am; the sentinel of A1in is
+	// at index totalFrames and that of Am at totalFrames + 1. Next of a
+	// sentinel is the oldest frame, prev the newest.
+	private int[] prev;
+	private int[] next;
+	private int[] queueOf;
+	private int a1inSize = 0;
+
+	// The page held by each frame, or -1.
+	private int[] pageOf;
+
+	// Frames holding no page.
+	private int[] emptyFrames;
+	private int numEmpty = 0;
+
+	// Number of frames that are not pinned.
+	private int count = 0;
+
+	// Page numbers recently evicted from A1in, oldest first.
+	private LinkedHashSet<Integer> a1out = new LinkedHashSet<>();
+
+	public TwoQ(AbstractBufMgr b)  {
+		setBufferManager((BufMgr)b);
+		initialize();
+	}
+
+	private void initialize() {
+		totalFrames = mgr.getNumBuffers();
+		kin = Math.max(1, totalFrames / 4);
+		kout = Math.max(1, totalFrames / 2);
+		prev = new int[totalFrames + 2];
+		next = new int[totalFrames + 2];
+		queueOf = new int[totalFrames];
+		pageOf = new int[totalFrames];
+		emptyFrames = new int[totalFrames];
+		for (int q = totalFrames; q < totalFrames + 2; q++) prev[q] = next[q] = q;
+		for (int i = totalFrames - 1; i >= 0; i--) {
+			pageOf[i] = -1;
+			emptyFrames[numEmpty++] = i;
+		}
+		count = totalFrames;
+	}
+
+	private int sentinel(int queue) {
+		return queue == A1IN ? totalFrames : totalFrames + 1;
+	}
+
+	private void append(int frameNo, int queue) {
+		int s = sentinel(queue);
+		int newest = prev[s];
+		prev[frameNo] = newest;
+		next[frameNo] = s;
+		next[newest] = frameNo;
+		prev[s] = frameNo;
+		queueOf[frameNo] = queue;
+		if (queue == A1IN) a1inSize++;
+	}
+
+	private void unlink(int frameNo) {
+		if (queueOf[frameNo] == NONE) return;
+		next[prev[frameNo]] = next[frameNo];
+		prev[next[frameNo]] = prev[frameNo];
+		if (queueOf[frameNo] == A1IN) a1inSize--;
+		queueOf[frameNo] = NONE;
+	}
+
+	// The oldest unpinned frame of a queue, or -1. The frames looked at are
+	// added to the search length.
+	private int oldestUnpinned(int queue) {
+		int s = sentinel(queue);
+		for (int f = next[s]; f != s; f = next[f]) {
+			searchLength++;
+			if (state_bit[f] != Pinned) return f;
+		}
+		return -1;
+	}
+
+	/**
+	 * Pins a candidate page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @return true if successful.
+	 */
+	public void pin(int frameNo) throws InvalidFrameNumberException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
+
+		int pageNo = frameTable[frameNo].getPageNo().pid;
+		if (pageOf[frameNo] != pageNo) {
+			// the old page is evicted; remember it if it never made it to Am
+			if (queueOf[frameNo] == A1IN) {
+				a1out.add(pageOf[frameNo]);
+				if (a1out.size() > kout) {
+					Iterator<Integer> oldest = a1out.iterator();
+					oldest.next();
+					oldest.remove();
+				}
+			}
+			unlink(frameNo);
+			pageOf[frameNo] = pageNo;
+			append(frameNo, a1out.remove(pageNo) ? AM : A1IN);
+		} else if (queueOf[frameNo] == AM) {
+			unlink(frameNo);
+			append(frameNo, AM);
+		}
+		// a page hit while on A1in stays where it is
+
+		if (state_bit[frameNo] != Pinned) count--;
+		state_bit[frameNo] = Pinned;
+	}
+
+	/**
+	 * Unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @throws PageUnpinnedException
+	 *             if the page is originally unpinned.
+	 * @return true if successful.
+	 */
+	public boolean unpin(int frameNo) throws InvalidFrameNumberException,
+			PageUnpinnedException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
+		if (state_bit[frameNo] == Pinned) {
+			state_bit[frameNo] = Referenced;
+			count++;
+		}
+		return true;
+	}
+
+	/**
+	 * Frees and unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws PagePinnedException
+	 *             if the page is pinned.
+	 */
+	public void free(int frameNo) throws PagePinnedException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new PagePinnedException(null, "ERROR: invalid frame no.");
+		if (state_bit[frameNo] == Available) return;
+		if (state_bit[frameNo] == Pinned) count++;
+		unlink(frameNo);
+		pageOf[frameNo] = -1;
+		state_bit[frameNo] = Available;
+		emptyFrames[numEmpty++] = frameNo;
+	}
+
+	/** Takes the frame off the empty frames before pinning it. */
+	public void adopt(int frameNo) throws InvalidFrameNumberException {
+		for (int i = 0; i < numEmpty; i++) {
+			if (emptyFrames[i] == frameNo) {
+				emptyFrames[i] = emptyFrames[--numEmpty];
+				break;
+			}
+		}
+		pin(frameNo);
+	}
+
+	/** Must pin the returned frame. */
+	public int pick_victim() throws BufferPoolExceededException,
+			PagePinnedException {
+		int victimNo = -1;
+		searchLength = 0;
+		if (numEmpty > 0) {
+			victimNo = emptyFrames[--numEmpty];
+			searchLength = 1;
+		}
+		if (victimNo < 0 && a1inSize > kin) victimNo = oldestUnpinned(A1IN);
+		if (victimNo < 0) victimNo = oldestUnpinned(AM);
+		if (victimNo < 0) victimNo = oldestUnpinned(A1IN);
+		if (victimNo < 0) throw new BufferPoolExceededException(null, "ERROR: not enough unpinned buffers. Waiting for unpin");
+		// the frame stays on its queue until a new page is pinned in it
+		state_bit[victimNo] = Pinned;
+		count--;
+		return victimNo;
+	}
+
+	/** Gives back a frame returned by pick_victim; it stays where it was on its queue. */
+	public void reinstate(int frameNo) throws InvalidFrameNumberException {
+		if (frameNo < 0 || frameNo >= totalFrames) throw new InvalidFrameNumberException(null, "ERROR: invalid frame no.");
+		if (state_bit[frameNo] != Pinned) return;
+		count++;
+		if (pageOf[frameNo] < 0) {
+			state_bit[frameNo] = Available;
+			emptyFrames[numEmpty++] = frameNo;
+		} else {
+			state_bit[frameNo] = Referenced;
+		}
+	}
+
+	/**
+	 * Lists the unpinned frames in the order pick_victim takes them if the
+	 * pages coming in are new, i.e. go to A1in: the empty frames, then Am
+	 * from its oldest frame until A1in grows past its target size, then
+	 * A1in from its oldest frame.
+	 */
+	public int nextVictims(int[] frames) {
+		int n = 0;
+		int a1in = a1inSize;
+		for (int i = numEmpty - 1; i >= 0 && n < frames.length; i--, a1in++) frames[n++] = emptyFrames[i];
+		int f1 = nextUnpinned(next[sentinel(A1IN)]);
+		int fm = nextUnpinned(next[sentinel(AM)]);
+		while (n < frames.length) {
+			boolean fromA1in;
+			if (f1 < totalFrames && a1in > kin) fromA1in = true;
+			else if (fm < totalFrames) fromA1in = false;
+			else if (f1 < totalFrames) fromA1in = true;
+			else break;
+			if (fromA1in) {
+				// a page out of A1in and a new one in
+				frames[n++] = f1;
+				f1 = nextUnpinned(next[f1]);
+			} else {
+				frames[n++] = fm;
+				fm = nextUnpinned(next[fm]);
+				a1in++;
+			}
+		}
+		return n;
+	}
+
+	// The first unpinned frame from f on along its queue, or the sentinel.
+	private int nextUnpinned(int f) {
+		while (f < totalFrames && state_bit[f] == Pinned) f = next[f];
+		return f;
+	}
+
+	/** Retruns the name of the replacer algorithm. */
+	public String name()
+	{ return "TwoQ"; }
+
+	/**
+	 * Counts the unpinned frames (free frames) in the buffer pool.
+	 *
+	 * @returns the total number of unpinned frames in the buffer pool.
+	 */
+	public int getNumUnpinnedBuffers() {
+		return count;
+	}
+}
@@ -1,11 +1,23 @@
 package tests;
 
 import bufmgr.BufMgr;
+import bufmgr.BufMgrFrameDesc;
+import bufmgr.BufMgrStats;
+import bufmgr.PartitionedBufMgr;
+import bufmgr.TraceReader;
+import bufmgr.TraceRecorder;
 import diskmgr.Page;
 import exceptions.*;
 import global.*;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 // #TODO TEST CASES
 /*
@@ -46,7 +58,7 @@ public class BMDriver extends TestDriver implements GlobalConst
 			System.exit(1);
 		}
 		
-		SystemDefs.initDiskMgr("BMDriver", NUMBUF+20);
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF+100);
 	}
 
     /**
@@ -585,6 +597,1697 @@ public class BMDriver extends TestDriver implements GlobalConst
         return status;
     }
 
+    /**
+     * Exercises a thread-safe buffer manager from several threads at once.
+     * Each thread pins random pages, bumps a counter on the page under the
+     * exclusive latch and unpins it dirty, so the pool keeps evicting pages
+     * that other threads are pinning.
+     *
+     * @return whether test4 has passed
+     */
+    public boolean test4 () {
+
+        System.out.print("\n  Test 4 shares a thread-safe buffer manager " +
+                "between several threads\n");
+
+        final int numFrames = 20;
+        final int numPages = 60;
+        final int numThreads = 4;
+        final int pinsPerThread = 2000;
+        final PageId [] pids = new PageId[numPages];
+        final int [][] bumps = new int[numThreads][numPages];
+        final boolean [] threadStatus = new boolean[numThreads];
+        boolean status = OK;
+        final BufMgr bm;
+
+        try {
+            bm = new BufMgr(numFrames, BufMgr.MRU, true);
+        }
+        catch (Exception e) {
+            System.err.print("*** Could not create a thread-safe buffer manager\n");
+            e.printStackTrace();
+            return FAIL;
+        }
+
+        System.out.print("  - Allocate " + numPages + " pages for "
+                + numFrames + " frames\n");
+
+        Page pg = new Page();
+        for (int index = 0; status == OK && index < numPages; ++index) {
+            try {
+                PageId pid = new PageId();
+                SystemDefs.JavabaseDB.allocate_page(pid);
+                pids[index] = pid;
+                bm.pinPage(pid, pg, true);
+                Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+                Convert.setIntValue(0, 4, pg.getpage());
+                bm.unpinPage(pid, true);
+            }
+            catch (Exception e) {
+                status = FAIL;
+                System.err.print("*** Could not set up page " + index + "\n");
+                e.printStackTrace();
+            }
+        }
+
+        if ( status == OK ) {
+            System.out.print("  - Pin and update the pages from "
+                    + numThreads + " threads\n");
+
+            Thread [] threads = new Thread[numThreads];
+            for (int t = 0; t < numThreads; ++t) {
+                final int id = t;
+                threads[t] = new Thread() {
+                    public void run() {
+                        java.util.Random rnd = new java.util.Random(id);
+                        Page tpg = new Page();
+                        threadStatus[id] = OK;
+                        for (int i = 0; threadStatus[id] == OK && i < pinsPerThread; ++i) {
+                            int index = rnd.nextInt(numPages);
+                            PageId pid = pids[index];
+                            try {
+                                bm.pinPage(pid, tpg, false);
+                                bm.latchPage(pid, true);
+                                try {
+                                    if (Convert.getIntValue(0, tpg.getpage()) != pid.pid + 99999) {
+                                        threadStatus[id] = FAIL;
+                                        System.err.print("*** Read wrong data back from page "
+                                                + pid.pid + "\n");
+                                    }
+                                    int count = Convert.getIntValue(4, tpg.getpage());
+                                    Convert.setIntValue(count + 1, 4, tpg.getpage());
+                                }
+                                finally {
+                                    bm.unlatchPage(pid, true);
+                                }
+                                bm.unpinPage(pid, true);
+                                bumps[id][index]++;
+                            }
+                            catch (Exception e) {
+                                threadStatus[id] = FAIL;
+                                System.err.print("*** Thread " + id + " failed on page "
+                                        + pid.pid + "\n");
+                                e.printStackTrace();
+                            }
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+
+            for (int t = 0; t < numThreads; ++t) {
+                try {
+                    threads[t].join();
+                }
+                catch (InterruptedException e) {
+                    status = FAIL;
+                }
+                if (threadStatus[t] != OK) status = FAIL;
+            }
+        }
+
+        if ( status == OK ) {
+            System.out.print("  - Check the counters and free the pages\n");
+
+            for (int index = 0; status == OK && index < numPages; ++index) {
+                PageId pid = pids[index];
+                int expected = 0;
+                for (int t = 0; t < numThreads; ++t) expected += bumps[t][index];
+                try {
+                    bm.pinPage(pid, pg, false);
+                    int count = Convert.getIntValue(4, pg.getpage());
+                    if (count != expected) {
+                        status = FAIL;
+                        System.err.print("*** Page " + pid.pid + " was bumped " + expected
+                                + " times but holds " + count + "\n");
+                    }
+                    bm.unpinPage(pid, false);
+                    bm.freePage(pid);
+                }
+                catch (Exception e) {
+                    status = FAIL;
+                    System.err.print("*** Could not check page " + pid.pid + "\n");
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 4 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Runs pages through a buffer pool whose frames are kept off the heap.
+     * There are more pages than frames, so each page is written back from
+     * direct memory and read in again.
+     *
+     * @return whether test5 has passed
+     */
+    public boolean test5 () {
+
+        System.out.print("\n  Test 5 uses a buffer pool kept off the heap\n");
+
+        int numFrames = 10;
+        int numPages = 40;
+        PageId [] pids = new PageId[numPages];
+        Page pg = new Page();
+        Page pg2 = new Page();
+        boolean status = OK;
+        BufMgr bm;
+
+        try {
+            bm = new BufMgr(numFrames, BufMgr.MRU, false, true);
+        }
+        catch (Exception e) {
+            System.err.print("*** Could not create an off-heap buffer manager\n");
+            e.printStackTrace();
+            return FAIL;
+        }
+
+        System.out.print("  - Allocate and dirty " + numPages + " pages\n");
+
+        for (int index = 0; status == OK && index < numPages; ++index) {
+            try {
+                PageId pid = new PageId();
+                SystemDefs.JavabaseDB.allocate_page(pid);
+                pids[index] = pid;
+                bm.pinPage(pid, pg, true);
+                Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+                bm.unpinPage(pid, true);
+            }
+            catch (Exception e) {
+                status = FAIL;
+                System.err.print("*** Could not set up page " + index + "\n");
+                e.printStackTrace();
+            }
+        }
+
+        if ( status == OK ) {
+            System.out.print("  - Read the pages back, pinning each twice\n");
+
+            for (int index = 0; status == OK && index < numPages; ++index) {
+                PageId pid = pids[index];
+                try {
+                    bm.pinPage(pid, pg, false);
+                    bm.pinPage(pid, pg2, false);
+                    if (pg.getpage() != pg2.getpage()) {
+                        status = FAIL;
+                        System.err.print("*** Two pins of page " + pid.pid
+                                + " see different copies\n");
+                    }
+                    if (Convert.getIntValue(0, pg.getpage()) != pid.pid + 99999) {
+                        status = FAIL;
+                        System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+                    }
+                    bm.unpinPage(pid, false);
+                    bm.unpinPage(pid, false);
+                    bm.freePage(pid);
+                }
+                catch (Exception e) {
+                    status = FAIL;
+                    System.err.print("*** Could not read page " + pid.pid + "\n");
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 5 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks that the LRU replacer evicts the least recently used page.
+     *
+     * @return whether test6 has passed
+     */
+    public boolean test6 () {
+
+        System.out.print("\n  Test 6 checks the eviction order of the LRU replacer\n");
+
+        int numFrames = 3;
+        PageId [] pids = new PageId[numFrames + 1];
+        Page pg = new Page();
+        boolean status = OK;
+
+        try {
+            BufMgr bm = new BufMgr(numFrames, BufMgr.LRU);
+
+            System.out.print("  - Fill the pool, touch the oldest page again, "
+                    + "then bring in one more page\n");
+            for (int index = 0; index <= numFrames; ++index) {
+                pids[index] = new PageId();
+                SystemDefs.JavabaseDB.allocate_page(pids[index]);
+            }
+            for (int index = 0; index < numFrames; ++index) {
+                bm.pinPage(pids[index], pg, true);
+                bm.unpinPage(pids[index], true);
+            }
+            bm.pinPage(pids[0], pg, false);
+            bm.unpinPage(pids[0], false);
+            bm.pinPage(pids[numFrames], pg, true);
+            bm.unpinPage(pids[numFrames], true);
+
+            // pids[1] is now the least recently used page
+            for (int index = 0; index <= numFrames; ++index) {
+                boolean expected = index != 1;
+                if (isResident(bm, pids[index]) != expected) {
+                    status = FAIL;
+                    System.err.print("*** Page " + pids[index].pid
+                            + (expected ? " was evicted\n" : " was not evicted\n"));
+                }
+            }
+
+            for (int index = 0; index <= numFrames; ++index)
+                bm.freePage(pids[index]);
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not run the LRU replacer\n");
+            e.printStackTrace();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 6 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks that the scan resistant replacers keep the pages of an index
+     * in the pool while a sequential scan runs through many more pages than
+     * there are frames. The index pages stand for the root and internal
+     * pages of a B-tree, which every lookup touches.
+     *
+     * @return whether test7 has passed
+     */
+    public boolean test7 () {
+
+        System.out.print("\n  Test 7 checks that index pages survive a sequential scan\n");
+
+        boolean status = OK;
+        String [] replacers = { BufMgr.LRUK, BufMgr.TwoQ, BufMgr.ARC };
+        for (int r = 0; status == OK && r < replacers.length; ++r) {
+            System.out.print("  - Replacer " + replacers[r] + "\n");
+            status = scanResistance(replacers[r]);
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 7 completed successfully.\n");
+
+        return status;
+    }
+
+    private boolean scanResistance(String replacerArg) {
+        int numFrames = 12;
+        int numIndexPages = 3;
+        int numScanPages = 60;
+        PageId [] index = new PageId[numIndexPages];
+        PageId [] scan = new PageId[numScanPages];
+        Page pg = new Page();
+        boolean status = OK;
+
+        try {
+            BufMgr bm = new BufMgr(numFrames, replacerArg);
+
+            for (int i = 0; i < numIndexPages; ++i) {
+                index[i] = new PageId();
+                SystemDefs.JavabaseDB.allocate_page(index[i]);
+            }
+            for (int i = 0; i < numScanPages; ++i) {
+                scan[i] = new PageId();
+                SystemDefs.JavabaseDB.allocate_page(scan[i]);
+            }
+
+            // a few lookups to warm up the index, then lookups between scan pages
+            for (int i = 0; i < 3; ++i)
+                lookup(bm, index, pg, i == 0);
+            for (int i = 0; i < numScanPages; ++i) {
+                bm.pinPage(scan[i], pg, true);
+                bm.unpinPage(scan[i], true);
+                if (i % 10 == 9 && i < numScanPages - 1)
+                    lookup(bm, index, pg, false);
+            }
+
+            for (int i = 0; i < numIndexPages; ++i) {
+                if (!isResident(bm, index[i])) {
+                    status = FAIL;
+                    System.err.print("*** Index page " + index[i].pid
+                            + " was evicted by the scan\n");
+                }
+            }
+
+            for (int i = 0; i < numIndexPages; ++i)
+                bm.freePage(index[i]);
+            for (int i = 0; i < numScanPages; ++i)
+                bm.freePage(scan[i]);
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not run the " + replacerArg + " replacer\n");
+            e.printStackTrace();
+        }
+
+        return status;
+    }
+
+    // Touches every index page once, like a B-tree lookup.
+    private static void lookup(BufMgr bm, PageId [] index, Page pg, boolean emptyPage)
+            throws Exception {
+        for (int i = 0; i < index.length; ++i) {
+            bm.pinPage(index[i], pg, emptyPage);
+            bm.unpinPage(index[i], emptyPage);
+        }
+    }
+
+    /**
+     * Checks the Clock replacer when most of the pool is pinned: a full pool
+     * must be reported at once, and the only unpinned frame must be the one
+     * that is reused.
+     *
+     * @return whether test8 has passed
+     */
+    public boolean test8 () {
+
+        System.out.print("\n  Test 8 checks the Clock replacer on a pinned pool\n");
+
+        int numFrames = 5;
+        PageId [] pids = new PageId[numFrames + 1];
+        Page pg = new Page();
+        boolean status = OK;
+
+        try {
+            BufMgr bm = new BufMgr(numFrames, BufMgr.Clock);
+            for (int index = 0; index <= numFrames; ++index) {
+                pids[index] = new PageId();
+                SystemDefs.JavabaseDB.allocate_page(pids[index]);
+            }
+
+            System.out.print("  - Pin one page more than there are frames\n");
+            for (int index = 0; index < numFrames; ++index)
+                bm.pinPage(pids[index], pg, true);
+            try {
+                bm.pinPage(pids[numFrames], pg, true);
+                status = FAIL;
+                System.err.print("*** Pinned more pages than there are frames\n");
+            }
+            catch (BufferPoolExceededException e) {
+                System.out.print("  --> Failed as expected \n");
+            }
+
+            System.out.print("  - Unpin one page and try again\n");
+            bm.unpinPage(pids[2], false);
+            bm.pinPage(pids[numFrames], pg, true);
+            if (isResident(bm, pids[2])) {
+                status = FAIL;
+                System.err.print("*** The unpinned page was not the one replaced\n");
+            }
+
+            for (int index = 0; index <= numFrames; ++index) {
+                if (index != 2) bm.unpinPage(pids[index], false);
+                bm.freePage(pids[index]);
+            }
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not run the Clock replacer\n");
+            e.printStackTrace();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 8 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks that the background page cleaner writes dirty unpinned pages
+     * to disk without any flush from the caller.
+     *
+     * @return whether test9 has passed
+     */
+    public boolean test9 () {
+
+        System.out.print("\n  Test 9 checks the background page cleaner\n");
+
+        int numFrames = 8;
+        PageId [] pids = new PageId[numFrames];
+        Page pg = new Page();
+        boolean status = OK;
+        BufMgr bm = null;
+
+        try {
+            bm = new BufMgr(numFrames, BufMgr.LRU, true);
+            try {
+                new BufMgr(numFrames, BufMgr.LRU).startPageCleaner(10);
+                status = FAIL;
+                System.err.print("*** Started a cleaner on a single-threaded pool\n");
+            }
+            catch (BufMgrException e) {
+                System.out.print("  --> Failed as expected \n");
+            }
+            bm.startPageCleaner(10);
+
+            System.out.print("  - Dirty a pool full of pages and wait\n");
+            for (int index = 0; index < numFrames; ++index) {
+                pids[index] = new PageId();
+                SystemDefs.JavabaseDB.allocate_page(pids[index]);
+                bm.pinPage(pids[index], pg, true);
+                Convert.setIntValue(pids[index].pid + 99999, 0, pg.getpage());
+                bm.unpinPage(pids[index], true);
+            }
+
+            boolean clean = false;
+            for (int wait = 0; !clean && wait < 200; ++wait) {
+                Thread.sleep(10);
+                clean = true;
+                for (AbstractBufMgrFrameDesc desc : bm.getFrameTable())
+                    if (desc != null && ((BufMgrFrameDesc) desc).isDirty()) clean = false;
+            }
+            if (!clean) {
+                status = FAIL;
+                System.err.print("*** The cleaner left dirty pages behind\n");
+            }
+
+            for (int index = 0; status == OK && index < numFrames; ++index) {
+                SystemDefs.JavabaseDB.read_page(pids[index], pg);
+                if (Convert.getIntValue(0, pg.getpage()) != pids[index].pid + 99999) {
+                    status = FAIL;
+                    System.err.print("*** Page " + pids[index].pid + " was not written\n");
+                }
+            }
+
+            bm.stopPageCleaner();
+            for (int index = 0; index < numFrames; ++index)
+                bm.freePage(pids[index]);
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not run the page cleaner\n");
+            e.printStackTrace();
+        }
+        finally {
+            if (bm != null) bm.stopPageCleaner();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 9 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks read-ahead: a few pins in page order must bring the following
+     * pages into the pool, and an explicit prefetch must load the pages it
+     * names, all without pinning them.
+     *
+     * @return whether test10 has passed
+     */
+    public boolean test10 () {
+
+        System.out.print("\n  Test 10 checks sequential read-ahead and prefetch\n");
+
+        int numFrames = 20;
+        int numPages = 30;
+        int readAhead = 6;
+        PageId first = new PageId();
+        Page pg = new Page();
+        boolean status = OK;
+        BufMgr bm = null;
+
+        try {
+            // write the pages straight to disk, bypassing any buffer pool
+            SystemDefs.JavabaseDB.allocate_page(first, numPages);
+            for (int index = 0; index < numPages; ++index) {
+                PageId pid = new PageId(first.pid + index);
+                Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+                SystemDefs.JavabaseDB.write_page(pid, pg);
+            }
+
+            bm = new BufMgr(numFrames, BufMgr.LRU, true);
+            bm.setReadAhead(readAhead);
+
+            System.out.print("  - Scan the first pages in order\n");
+            for (int index = 0; index < 3; ++index) {
+                PageId pid = new PageId(first.pid + index);
+                bm.pinPage(pid, pg, false);
+                bm.unpinPage(pid, false);
+            }
+            for (int index = 3; status == OK && index < 3 + readAhead; ++index)
+                status = waitResident(bm, new PageId(first.pid + index));
+
+            System.out.print("  - Prefetch pages further on\n");
+            bm.prefetch(new PageId(first.pid + 20), 5);
+            for (int index = 20; status == OK && index < 25; ++index)
+                status = waitResident(bm, new PageId(first.pid + index));
+
+            for (int index = 0; status == OK && index < numPages; ++index) {
+                PageId pid = new PageId(first.pid + index);
+                bm.pinPage(pid, pg, false);
+                if (Convert.getIntValue(0, pg.getpage()) != pid.pid + 99999) {
+                    status = FAIL;
+                    System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+                }
+                bm.unpinPage(pid, false);
+            }
+
+            for (int index = 0; index < numPages; ++index)
+                bm.freePage(new PageId(first.pid + index));
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not run read-ahead\n");
+            e.printStackTrace();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 10 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks that flushAllPages writes runs of contiguous dirty pages
+     * correctly, whatever order they were dirtied in, from heap and off-heap
+     * frames, and that it still refuses to flush a pinned page.
+     *
+     * @return whether test11 has passed
+     */
+    public boolean test11 () {
+
+        System.out.print("\n  Test 11 checks flushing runs of contiguous pages\n");
+
+        int numFrames = 24;
+        PageId first = new PageId();
+        Page pg = new Page();
+        boolean status = OK;
+
+        try {
+            SystemDefs.JavabaseDB.allocate_page(first, numFrames);
+
+            for (int pass = 0; status == OK && pass < 2; ++pass) {
+                boolean offHeap = pass == 1;
+                System.out.print("  - Dirty the pages backwards in " +
+                        (offHeap ? "off-heap" : "heap") + " frames and flush\n");
+                BufMgr bm = new BufMgr(numFrames, BufMgr.LRU, true, offHeap);
+
+                // leave a hole so that the pages form two runs
+                for (int index = numFrames - 1; index >= 0; --index) {
+                    if (index == numFrames / 2) continue;
+                    PageId pid = new PageId(first.pid + index);
+                    bm.pinPage(pid, pg, true);
+                    Convert.setIntValue(pid.pid + 99999 + pass, 0, pg.getpage());
+                    bm.unpinPage(pid, true);
+                }
+                bm.flushAllPages();
+
+                for (int index = 0; status == OK && index < numFrames; ++index) {
+                    if (index == numFrames / 2) continue;
+                    PageId pid = new PageId(first.pid + index);
+                    SystemDefs.JavabaseDB.read_page(pid, pg);
+                    if (Convert.getIntValue(0, pg.getpage()) != pid.pid + 99999 + pass) {
+                        status = FAIL;
+                        System.err.print("*** Page " + pid.pid + " was not flushed\n");
+                    }
+                }
+                for (AbstractBufMgrFrameDesc desc : bm.getFrameTable()) {
+                    if (desc != null && ((BufMgrFrameDesc) desc).isDirty()) {
+                        status = FAIL;
+                        System.err.print("*** A flushed page is still dirty\n");
+                        break;
+                    }
+                }
+
+                if (status == OK && !offHeap) {
+                    System.out.print("  - Flush with a page pinned\n");
+                    bm.pinPage(first, pg, false);
+                    try {
+                        bm.flushAllPages();
+                        status = FAIL;
+                        System.err.print("*** Flushed a pinned page\n");
+                    }
+                    catch (PageUnpinnedException e) {
+                        System.out.print("  --> Failed as expected \n");
+                    }
+                    bm.unpinPage(first, false);
+                }
+            }
+
+            for (int index = 0; index < numFrames; ++index)
+                SystemDefs.JavabaseDB.deallocate_page(new PageId(first.pid + index));
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not flush the pages\n");
+            e.printStackTrace();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 11 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks mapped I/O: pages written by the disk manager must be read
+     * correctly through the mapping, and pages written through the mapping
+     * must be seen by the disk manager.
+     *
+     * @return whether test12 has passed
+     */
+    public boolean test12 () {
+
+        System.out.print("\n  Test 12 checks reading and writing through a mapped file\n");
+
+        int numFrames = 10;
+        int numPages = 20;
+        PageId first = new PageId();
+        Page pg = new Page();
+        boolean status = OK;
+
+        try {
+            SystemDefs.JavabaseDB.allocate_page(first, numPages);
+            for (int index = 0; index < numPages; ++index) {
+                PageId pid = new PageId(first.pid + index);
+                Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+                SystemDefs.JavabaseDB.write_page(pid, pg);
+            }
+
+            BufMgr bm = new BufMgr(numFrames, BufMgr.LRU, true);
+            bm.setMappedIO(true);
+
+            System.out.print("  - Read the pages and update them\n");
+            for (int index = 0; status == OK && index < numPages; ++index) {
+                PageId pid = new PageId(first.pid + index);
+                bm.pinPage(pid, pg, false);
+                if (Convert.getIntValue(0, pg.getpage()) != pid.pid + 99999) {
+                    status = FAIL;
+                    System.err.print("*** Read wrong data from page " + pid.pid + "\n");
+                }
+                Convert.setIntValue(pid.pid + 77777, 0, pg.getpage());
+                bm.unpinPage(pid, true);
+            }
+            bm.flushAllPages();
+
+            for (int index = 0; status == OK && index < numPages; ++index) {
+                PageId pid = new PageId(first.pid + index);
+                SystemDefs.JavabaseDB.read_page(pid, pg);
+                if (Convert.getIntValue(0, pg.getpage()) != pid.pid + 77777) {
+                    status = FAIL;
+                    System.err.print("*** Page " + pid.pid + " was not written\n");
+                }
+            }
+
+            for (int index = 0; index < numPages; ++index)
+                SystemDefs.JavabaseDB.deallocate_page(new PageId(first.pid + index));
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not use mapped I/O\n");
+            e.printStackTrace();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 12 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks the statistics of a buffer manager against a known sequence of
+     * pins, directly and through JMX.
+     *
+     * @return whether test13 has passed
+     */
+    public boolean test13 () {
+
+        System.out.print("\n  Test 13 checks the buffer pool statistics\n");
+
+        int numFrames = 4;
+        int numPages = 6;
+        PageId first = new PageId();
+        Page pg = new Page();
+        boolean status = OK;
+
+        try {
+            SystemDefs.JavabaseDB.allocate_page(first, numPages);
+            BufMgr bm = new BufMgr(numFrames, BufMgr.LRU);
+            BufMgrStats stats = bm.getStats();
+
+            System.out.print("  - Fill the pool, pin it again, then evict two pages\n");
+            for (int round = 0; round < 2; ++round) {
+                for (int index = 0; index < numFrames; ++index) {
+                    PageId pid = new PageId(first.pid + index);
+                    bm.pinPage(pid, pg, false);
+                    bm.unpinPage(pid, round == 0 && index == 0);
+                }
+            }
+            for (int index = numFrames; index < numPages; ++index) {
+                PageId pid = new PageId(first.pid + index);
+                bm.pinPage(pid, pg, false);
+                bm.unpinPage(pid, false);
+            }
+
+            long waits = 0;
+            for (long count : stats.getPinWaitHistogram()) waits += count;
+            if (stats.getHits() != 4 || stats.getMisses() != 6 || waits != 6
+                    || stats.getEvictions() != 2 || stats.getDirtyWrites() != 1
+                    || stats.getHitRatio() != 0.4 || stats.getMeanVictimSearchLength() < 1) {
+                status = FAIL;
+                System.err.print("*** Wrong statistics: " + stats.getHits() + " hits, "
+                        + stats.getMisses() + " misses, " + stats.getEvictions() + " evictions, "
+                        + stats.getDirtyWrites() + " dirty writes\n");
+            }
+
+            if (status == OK) {
+                System.out.print("  - Read the statistics through JMX\n");
+                bm.registerMBean("test13");
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName("minibase:type=BufMgr,name=" + ObjectName.quote("test13"));
+                if (!Long.valueOf(4).equals(server.getAttribute(name, "Hits"))
+                        || !BufMgr.LRU.equals(server.getAttribute(name, "Replacer"))) {
+                    status = FAIL;
+                    System.err.print("*** JMX shows wrong statistics\n");
+                }
+                server.invoke(name, "reset", null, null);
+                if (stats.getHits() != 0 || stats.getMisses() != 0) {
+                    status = FAIL;
+                    System.err.print("*** The statistics were not reset\n");
+                }
+                bm.unregisterMBean("test13");
+            }
+
+            if (status == OK) {
+                System.out.print("  - Search past pinned frames, and pin empty pages\n");
+                // 2Q keeps the first two pages pinned at the head of its queue
+                bm = new BufMgr(numFrames, BufMgr.TwoQ);
+                stats = bm.getStats();
+                for (int index = 0; index < numFrames; ++index) {
+                    PageId pid = new PageId(first.pid + index);
+                    bm.pinPage(pid, pg, false);
+                    if (index >= 2) bm.unpinPage(pid, false);
+                }
+                PageId pid = new PageId(first.pid);
+                bm.pinPage(pid, pg, true);
+                bm.unpinPage(pid, false);
+                pid = new PageId(first.pid + numFrames);
+                bm.pinPage(pid, pg, false);
+                bm.unpinPage(pid, false);
+                pid = new PageId(first.pid + numFrames + 1);
+                bm.pinPage(pid, pg, true);
+                bm.unpinPage(pid, false);
+
+                long[] searches = stats.getVictimSearchHistogram();
+                // bucket 2 holds the searches of 2 and 3 frames
+                if (stats.getHits() != 0 || stats.getMisses() != numFrames + 1 || searches[2] != 2) {
+                    status = FAIL;
+                    System.err.print("*** Wrong statistics: " + stats.getHits() + " hits, "
+                            + stats.getMisses() + " misses, " + searches[2] + " long searches\n");
+                }
+            }
+
+            for (int index = 0; index < numPages; ++index)
+                SystemDefs.JavabaseDB.deallocate_page(new PageId(first.pid + index));
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not collect the statistics\n");
+            e.printStackTrace();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 13 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks newPages: a whole run must come back pinned and usable, and a
+     * run larger than the free part of the pool must leave nothing pinned.
+     *
+     * @return whether test14 has passed
+     */
+    public boolean test14 () {
+
+        System.out.print("\n  Test 14 checks allocating and pinning a run of new pages\n");
+
+        int numFrames = 8;
+        int numPages = 6;
+        boolean status = OK;
+
+        try {
+            BufMgr bm = new BufMgr(numFrames, BufMgr.LRU);
+            Page [] pages = new Page[numPages];
+            for (int index = 0; index < numPages; ++index) pages[index] = new Page();
+
+            System.out.print("  - Pin a run of " + numPages + " new pages\n");
+            PageId first = bm.newPages(pages);
+            if (bm.getNumUnpinnedBuffers() != numFrames - numPages) {
+                status = FAIL;
+                System.err.print("*** The run is not pinned\n");
+            }
+            for (int index = 0; index < numPages; ++index) {
+                PageId pid = new PageId(first.pid + index);
+                Convert.setIntValue(pid.pid + 99999, 0, pages[index].getpage());
+                bm.unpinPage(pid, true);
+            }
+            bm.flushAllPages();
+
+            Page pg = new Page();
+            for (int index = 0; status == OK && index < numPages; ++index) {
+                PageId pid = new PageId(first.pid + index);
+                SystemDefs.JavabaseDB.read_page(pid, pg);
+                if (Convert.getIntValue(0, pg.getpage()) != pid.pid + 99999) {
+                    status = FAIL;
+                    System.err.print("*** Page " + pid.pid + " was not written\n");
+                }
+            }
+
+            System.out.print("  - Ask for a run larger than the pool\n");
+            Page [] tooMany = new Page[numFrames + 1];
+            for (int index = 0; index < tooMany.length; ++index) tooMany[index] = new Page();
+            try {
+                bm.newPages(tooMany);
+                status = FAIL;
+                System.err.print("*** Pinned more pages than the pool holds\n");
+            }
+            catch (BufferPoolExceededException e) {
+                System.out.print("  --> Failed as expected \n");
+            }
+            if (bm.getNumUnpinnedBuffers() != numFrames) {
+                status = FAIL;
+                System.err.print("*** A failed run left pages pinned\n");
+            }
+
+            for (int index = 0; index < numPages; ++index)
+                bm.freePage(new PageId(first.pid + index));
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not pin a run of new pages\n");
+            e.printStackTrace();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 14 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks sub-pools: a scan of many temporary pages through one pool must
+     * not evict the index pages kept in another.
+     *
+     * @return whether test15 has passed
+     */
+    public boolean test15 () {
+
+        System.out.print("\n  Test 15 checks buffer pools split into sub-pools\n");
+
+        int indexPages = 3;
+        int tempPages = 20;
+        PageId [] index = new PageId[indexPages];
+        PageId [] temp = new PageId[tempPages];
+        Page pg = new Page();
+        boolean status = OK;
+
+        try {
+            PartitionedBufMgr bm = new PartitionedBufMgr(4, BufMgr.LRU, true);
+            bm.addPool("index", indexPages, BufMgr.LRU);
+            bm.addPool("temp", 4, BufMgr.LRU);
+            try {
+                bm.addPool("temp", 4, BufMgr.LRU);
+                status = FAIL;
+                System.err.print("*** Added the same pool twice\n");
+            }
+            catch (BufMgrException e) {
+                System.out.print("  --> Failed as expected \n");
+            }
+
+            System.out.print("  - Create index pages, then scan temporary pages\n");
+            for (int i = 0; i < indexPages; ++i) {
+                index[i] = bm.newPage(pg, 1, "index");
+                bm.unpinPage(index[i], true);
+            }
+            for (int i = 0; i < tempPages; ++i) {
+                temp[i] = bm.newPage(pg, 1, "temp");
+                bm.unpinPage(temp[i], true);
+            }
+
+            BufMgr indexPool = bm.getPool("index");
+            for (int i = 0; status == OK && i < indexPages; ++i) {
+                if (!isResident(indexPool, index[i])) {
+                    status = FAIL;
+                    System.err.print("*** Index page " + index[i].pid + " was evicted\n");
+                }
+            }
+            if (bm.getNumBuffers() != 4 + indexPages + 4) {
+                status = FAIL;
+                System.err.print("*** Wrong number of buffers: " + bm.getNumBuffers() + "\n");
+            }
+
+            System.out.print("  - Flush all pools while the default pool cannot write\n");
+            PageId bad = new PageId(SystemDefs.JavabaseDB.db_num_pages() + 10);
+            bm.pinPage(bad, pg, true);
+            bm.unpinPage(bad, true);
+            try {
+                bm.flushAllPages();
+                status = FAIL;
+                System.err.print("*** A page that cannot be written was flushed\n");
+            }
+            catch (IOException e) {
+                System.out.print("  --> Failed as expected \n");
+            }
+            for (AbstractBufMgrFrameDesc desc : indexPool.getFrameTable()) {
+                if (desc != null && ((BufMgrFrameDesc) desc).isDirty()) {
+                    status = FAIL;
+                    System.err.print("*** The index pool was not flushed\n");
+                    break;
+                }
+            }
+
+            for (int i = 0; i < indexPages; ++i) bm.freePage(index[i]);
+            for (int i = 0; i < tempPages; ++i) bm.freePage(temp[i]);
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not use the sub-pools\n");
+            e.printStackTrace();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 15 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks optimistic reads: a page read without a pin validates while it
+     * stays unchanged, and stops validating once it is changed under an
+     * exclusive latch, unpinned dirty, or its frame goes to another page.
+     *
+     * @return whether test16 has passed
+     */
+    public boolean test16 () {
+
+        System.out.print("\n  Test 16 checks optimistic reads without pins\n");
+
+        int numFrames = 4;
+        PageId [] pids = new PageId[numFrames + 1];
+        Page pg = new Page();
+        boolean status = OK;
+
+        try {
+            BufMgr bm = new BufMgr(numFrames, BufMgr.LRU, true);
+            for (int index = 0; index < numFrames; ++index) {
+                pids[index] = bm.newPage(pg, 1);
+                Convert.setIntValue(pids[index].pid + 99999, 0, pg.getpage());
+                bm.unpinPage(pids[index], true);
+            }
+
+            System.out.print("  - Read a page and validate it\n");
+            Page view = new Page();
+            long stamp = bm.tryOptimisticRead(pids[0], view);
+            if (stamp == 0 || Convert.getIntValue(0, view.getpage()) != pids[0].pid + 99999
+                    || !bm.validate(stamp)) {
+                status = FAIL;
+                System.err.print("*** Could not read an unchanged page\n");
+            }
+
+            System.out.print("  - Change the page under an exclusive latch\n");
+            bm.pinPage(pids[0], pg, false);
+            bm.latchPage(pids[0], true);
+            if (bm.tryOptimisticRead(pids[0], view) != 0) {
+                status = FAIL;
+                System.err.print("*** Read a page latched for writing\n");
+            }
+            Convert.setIntValue(1, 0, pg.getpage());
+            bm.unlatchPage(pids[0], true);
+            bm.unpinPage(pids[0], true);
+            if (bm.validate(stamp)) {
+                status = FAIL;
+                System.err.print("*** A changed page still validates\n");
+            }
+
+            System.out.print("  - Change a page without a latch\n");
+            stamp = bm.tryOptimisticRead(pids[2], view);
+            long clean = bm.tryOptimisticRead(pids[3], view);
+            bm.pinPage(pids[3], pg, false);
+            bm.unpinPage(pids[3], false);
+            bm.pinPage(pids[2], pg, false);
+            Convert.setIntValue(2, 0, pg.getpage());
+            bm.unpinPage(pids[2], true);
+            if (bm.validate(stamp)) {
+                status = FAIL;
+                System.err.print("*** A page unpinned dirty still validates\n");
+            }
+            if (!bm.validate(clean)) {
+                status = FAIL;
+                System.err.print("*** A page unpinned clean no longer validates\n");
+            }
+
+            System.out.print("  - Evict the page\n");
+            stamp = bm.tryOptimisticRead(pids[1], view);
+            pids[numFrames] = bm.newPage(pg, 1);
+            bm.unpinPage(pids[numFrames], false);
+            if (bm.validate(stamp) || bm.tryOptimisticRead(pids[1], view) != 0) {
+                status = FAIL;
+                System.err.print("*** An evicted page still validates\n");
+            }
+
+            for (int index = 0; index <= numFrames; ++index)
+                bm.freePage(pids[index]);
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not read pages optimistically\n");
+            e.printStackTrace();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 16 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks warm-up snapshots: the pages of one pool, saved most recently
+     * used first, must come back into a fresh pool with the right contents.
+     *
+     * @return whether test17 has passed
+     */
+    public boolean test17 () {
+
+        System.out.print("\n  Test 17 checks saving and loading a warm-up snapshot\n");
+
+        int numFrames = 8;
+        int numPages = 12;
+        String snapshot = "BMDriver.snapshot";
+        PageId first = new PageId();
+        Page pg = new Page();
+        boolean status = OK;
+
+        try {
+            new File(snapshot).delete();
+            SystemDefs.JavabaseDB.allocate_page(first, numPages);
+            for (int index = 0; index < numPages; ++index) {
+                PageId pid = new PageId(first.pid + index);
+                Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+                SystemDefs.JavabaseDB.write_page(pid, pg);
+            }
+
+            System.out.print("  - Save the pages of a warm pool in the background\n");
+            BufMgr warm = new BufMgr(numFrames, BufMgr.LRU, true);
+            for (int index = numPages - numFrames; index < numPages; ++index) {
+                PageId pid = new PageId(first.pid + index);
+                warm.pinPage(pid, pg, false);
+                warm.unpinPage(pid, false);
+            }
+            warm.startSnapshots(snapshot, 10);
+            for (int wait = 0; wait < 200 && !new File(snapshot).exists(); ++wait)
+                Thread.sleep(10);
+            warm.stopSnapshots();
+            if (warm.getSnapshotFailure() != null) {
+                status = FAIL;
+                System.err.print("*** A snapshot failed: " + warm.getSnapshotFailure() + "\n");
+            }
+
+            System.out.print("  - Report a snapshot that cannot be written\n");
+            warm.startSnapshots(snapshot + ".missing" + File.separator + "snapshot", 10);
+            for (int wait = 0; wait < 200 && warm.getSnapshotFailure() == null; ++wait)
+                Thread.sleep(10);
+            warm.stopSnapshots();
+            if (warm.getSnapshotFailure() == null) {
+                status = FAIL;
+                System.err.print("*** The failed snapshot was not reported\n");
+            }
+
+            BufferedReader in = new BufferedReader(new FileReader(snapshot));
+            String line = in.readLine();
+            in.close();
+            if (line == null || Integer.parseInt(line) != first.pid + numPages - 1) {
+                status = FAIL;
+                System.err.print("*** The snapshot does not start with the most recent page\n");
+            }
+
+            System.out.print("  - Load the snapshot into a cold pool\n");
+            BufMgr cold = new BufMgr(numFrames, BufMgr.LRU);
+            if (cold.loadSnapshot(snapshot) != numFrames) {
+                status = FAIL;
+                System.err.print("*** Not every page of the snapshot was read\n");
+            }
+            for (int index = numPages - numFrames; status == OK && index < numPages; ++index) {
+                PageId pid = new PageId(first.pid + index);
+                cold.pinPage(pid, pg, false);
+                if (Convert.getIntValue(0, pg.getpage()) != pid.pid + 99999) {
+                    status = FAIL;
+                    System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+                }
+                cold.unpinPage(pid, false);
+            }
+            if (status == OK && cold.getStats().getMisses() != 0) {
+                status = FAIL;
+                System.err.print("*** The pool was not warm\n");
+            }
+
+            for (int index = 0; index < numPages; ++index)
+                SystemDefs.JavabaseDB.deallocate_page(new PageId(first.pid + index));
+            new File(snapshot).delete();
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not use a warm-up snapshot\n");
+            e.printStackTrace();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 17 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks switching the replacement policy of a pool in use: no page may
+     * be lost or flushed, pinned pages must stay pinned, and the next victim
+     * must follow the new policy.
+     *
+     * @return whether test18 has passed
+     */
+    public boolean test18 () {
+
+        System.out.print("\n  Test 18 checks switching the replacer of a pool in use\n");
+
+        int numFrames = 6;
+        PageId [] pids = new PageId[numFrames + 1];
+        Page pg = new Page();
+        boolean status = OK;
+
+        try {
+            BufMgr bm = new BufMgr(numFrames, BufMgr.MRU, true);
+            for (int index = 0; index < numFrames; ++index) {
+                pids[index] = bm.newPage(pg, 1);
+                Convert.setIntValue(pids[index].pid + 99999, 0, pg.getpage());
+                // the last page stays pinned
+                if (index < numFrames - 1) bm.unpinPage(pids[index], true);
+            }
+
+            try {
+                bm.switchReplacer("FIFO");
+                status = FAIL;
+                System.err.print("*** Switched to an unknown replacer\n");
+            }
+            catch (InvalidReplacerException e) {
+                System.out.print("  --> Failed as expected \n");
+            }
+            try {
+                new BufMgr(numFrames, "FIFO");
+                status = FAIL;
+                System.err.print("*** Created a pool with an unknown replacer\n");
+            }
+            catch (InvalidReplacerException e) {
+                System.out.print("  --> Failed as expected \n");
+            }
+
+            System.out.print("  - Switch from MRU to LRU\n");
+            bm.switchReplacer(BufMgr.LRU);
+            if (!BufMgr.LRU.equals(bm.getReplacerName()) || bm.getNumUnpinnedBuffers() != numFrames - 1) {
+                status = FAIL;
+                System.err.print("*** The new replacer does not hold the frames\n");
+            }
+            for (AbstractBufMgrFrameDesc desc : bm.getFrameTable()) {
+                if (desc.getPageNo().pid != pids[numFrames - 1].pid && !((BufMgrFrameDesc) desc).isDirty()) {
+                    status = FAIL;
+                    System.err.print("*** A page was flushed by the switch\n");
+                    break;
+                }
+            }
+
+            // the switch keeps the next victim of MRU, the page unpinned
+            // last; then LRU evicts the older pages before the new one
+            pids[numFrames] = bm.newPage(pg, 1);
+            bm.unpinPage(pids[numFrames], false);
+            PageId extra = bm.newPage(pg, 1);
+            if (isResident(bm, pids[numFrames - 2]) || isResident(bm, pids[numFrames - 3])
+                    || !isResident(bm, pids[numFrames]) || !isResident(bm, pids[0])) {
+                status = FAIL;
+                System.err.print("*** The victims do not follow MRU, then LRU\n");
+            }
+            bm.unpinPage(extra, false);
+            bm.unpinPage(pids[numFrames - 1], true);
+
+            for (int index = 1; status == OK && index < numFrames; ++index) {
+                bm.pinPage(pids[index], pg, false);
+                if (Convert.getIntValue(0, pg.getpage()) != pids[index].pid + 99999) {
+                    status = FAIL;
+                    System.err.print("*** Page " + pids[index].pid + " lost its data\n");
+                }
+                bm.unpinPage(pids[index], false);
+            }
+
+            for (int index = 0; index <= numFrames; ++index)
+                bm.freePage(pids[index]);
+            bm.freePage(extra);
+
+            System.out.print("  - Switch from LRU-2 to LRU\n");
+            bm = new BufMgr(numFrames, BufMgr.LRUK);
+            for (int index = 0; index < numFrames; ++index) {
+                pids[index] = bm.newPage(pg, 1);
+                bm.unpinPage(pids[index], false);
+            }
+            // the first half is referenced twice, so LRU-2 evicts the
+            // second half first although its pages were used last
+            for (int index = 0; index < numFrames / 2; ++index) {
+                bm.pinPage(pids[index], pg, false);
+                bm.unpinPage(pids[index], false);
+            }
+            bm.switchReplacer(BufMgr.LRU);
+            PageId [] more = new PageId[numFrames / 2];
+            for (int index = 0; index < more.length; ++index)
+                more[index] = bm.newPage(pg, 1);
+            for (int index = 0; status == OK && index < numFrames; ++index) {
+                if (isResident(bm, pids[index]) != index < numFrames / 2) {
+                    status = FAIL;
+                    System.err.print("*** The victims do not follow LRU-2\n");
+                }
+            }
+            for (int index = 0; index < more.length; ++index) {
+                bm.unpinPage(more[index], false);
+                bm.freePage(more[index]);
+            }
+            for (int index = 0; index < numFrames; ++index)
+                bm.freePage(pids[index]);
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not switch the replacer\n");
+            e.printStackTrace();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 18 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks dirty page tracking: pages written on eviction or freed must not
+     * be written again, and flushAllPages must write every other dirty page.
+     *
+     * @return whether test19 has passed
+     */
+    public boolean test19 () {
+
+        System.out.print("\n  Test 19 checks flushing only the dirty pages\n");
+
+        int numFrames = 8;
+        PageId [] pids = new PageId[numFrames + 4];
+        Page pg = new Page();
+        boolean status = OK;
+
+        try {
+            BufMgr bm = new BufMgr(numFrames, BufMgr.LRU);
+
+            System.out.print("  - Dirty a pool, evict half of it and free a page\n");
+            for (int index = 0; index < pids.length; ++index) {
+                pids[index] = bm.newPage(pg, 1);
+                Convert.setIntValue(pids[index].pid + 99999, 0, pg.getpage());
+                // the pages after the first pool-full are left clean
+                bm.unpinPage(pids[index], index < numFrames);
+            }
+            bm.freePage(pids[numFrames - 1]);
+            if (bm.getStats().getDirtyWrites() != 4 || bm.getNumUnpinnedBuffers() != numFrames) {
+                status = FAIL;
+                System.err.print("*** Evicted " + bm.getStats().getDirtyWrites() + " dirty pages instead of 4\n");
+            }
+
+            bm.flushAllPages();
+            for (int index = 0; status == OK && index < numFrames - 1; ++index) {
+                SystemDefs.JavabaseDB.read_page(pids[index], pg);
+                if (Convert.getIntValue(0, pg.getpage()) != pids[index].pid + 99999) {
+                    status = FAIL;
+                    System.err.print("*** Page " + pids[index].pid + " was not written\n");
+                }
+            }
+            for (AbstractBufMgrFrameDesc desc : bm.getFrameTable()) {
+                if (desc != null && ((BufMgrFrameDesc) desc).isDirty()) {
+                    status = FAIL;
+                    System.err.print("*** A page is still dirty after the flush\n");
+                    break;
+                }
+            }
+
+            for (int index = 0; index < pids.length; ++index)
+                if (index != numFrames - 1) bm.freePage(pids[index]);
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not flush the dirty pages\n");
+            e.printStackTrace();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 19 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Records a trace of some calls, reads it back, and replays a scan over
+     * more pages than frames: the replay must see the same hits, misses and
+     * write-backs as the recorded run.
+     *
+     * @return whether test20 has passed
+     */
+    public boolean test20 () {
+
+        System.out.print("\n  Test 20 records and replays a trace of the calls\n");
+
+        String traceFile = "BMDriver.trace";
+        int numFrames = 3;
+        int numPages = 5;
+        Page pg = new Page();
+        boolean status = OK;
+
+        try {
+            BufMgr bm = new BufMgr(numFrames, BufMgr.LRU);
+
+            System.out.print("  - Record new, pin, unpin and free calls\n");
+            bm.startTrace(traceFile);
+            PageId first = bm.newPage(pg, 2);
+            PageId second = new PageId(first.pid + 1);
+            bm.unpinPage(first, true);
+            bm.pinPage(second, pg, false);
+            bm.unpinPage(second, false);
+            bm.freePage(second);
+            long count = bm.stopTrace();
+
+            int [] ops = { TraceRecorder.NEW, TraceRecorder.PIN_EMPTY, TraceRecorder.UNPIN_DIRTY,
+                           TraceRecorder.PIN, TraceRecorder.UNPIN, TraceRecorder.FREE };
+            int [] pages = { first.pid, first.pid, first.pid, second.pid, second.pid, second.pid };
+            TraceReader in = new TraceReader(traceFile);
+            if (count != ops.length) {
+                status = FAIL;
+                System.err.print("*** Recorded " + count + " calls instead of " + ops.length + "\n");
+            }
+            for (int index = 0; status == OK && index < ops.length; ++index) {
+                if (in.next() != ops[index] || in.getPageNo() != pages[index]) {
+                    status = FAIL;
+                    System.err.print("*** Call " + index + " was not read back\n");
+                }
+            }
+            if (status == OK && (in.next() != -1)) {
+                status = FAIL;
+                System.err.print("*** The trace has calls that were not made\n");
+            }
+            in.close();
+            bm.freePage(first);
+
+            System.out.print("  - Replay a scan of " + numPages + " pages over " + numFrames + " frames\n");
+            // the replay starts from an empty pool, so the trace does too
+            bm.startTrace(traceFile);
+            bm.getStats().reset();
+            first = bm.newPage(pg, numPages);
+            bm.unpinPage(first, false);
+            for (int round = 0; round < 3; ++round) {
+                for (int index = 0; index < numPages; ++index) {
+                    PageId pid = new PageId(first.pid + index);
+                    bm.pinPage(pid, pg, false);
+                    bm.unpinPage(pid, index == 0);
+                }
+            }
+            bm.stopTrace();
+
+            TraceReplay replay = new TraceReplay(traceFile);
+            BufMgrStats stats = replay.run(numFrames, BufMgr.LRU).getStats();
+            if (replay.failed != 0 || stats.getHits() != bm.getStats().getHits()
+                    || stats.getMisses() != bm.getStats().getMisses()
+                    || stats.getDirtyWrites() != bm.getStats().getDirtyWrites()) {
+                status = FAIL;
+                System.err.print("*** The replay does not match the recorded run\n");
+            }
+
+            for (int index = 0; index < numPages; ++index)
+                bm.freePage(new PageId(first.pid + index));
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not record or replay the trace\n");
+            e.printStackTrace();
+        }
+        new File(traceFile).delete();
+
+        if ( status == OK )
+            System.out.print("  Test 20 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks a victim whose page cannot be written: the pin must fail, and
+     * the page must stay in the pool, dirty, instead of being dropped.
+     *
+     * @return whether test21 has passed
+     */
+    public boolean test21 () {
+
+        System.out.print("\n  Test 21 checks a dirty victim that cannot be written\n");
+
+        Page pg = new Page();
+        boolean status = OK;
+
+        try {
+            BufMgr bm = new BufMgr(2, BufMgr.LRU);
+            // a page past the end of the database can be pinned empty but not written
+            PageId bad = new PageId(SystemDefs.JavabaseDB.db_num_pages() + 10);
+            bm.pinPage(bad, pg, true);
+            Convert.setIntValue(bad.pid + 99999, 0, pg.getpage());
+            bm.unpinPage(bad, true);
+            PageId pid = bm.newPage(pg, 1);
+            bm.unpinPage(pid, false);
+
+            System.out.print("  - Pin a page that needs the frame of the dirty page\n");
+            PageId other = new PageId();
+            SystemDefs.JavabaseDB.allocate_page(other);
+            for (int round = 0; round < 2; ++round) {
+                try {
+                    bm.pinPage(other, pg, false);
+                    status = FAIL;
+                    System.err.print("*** The dirty page was evicted without being written\n");
+                    bm.unpinPage(other, false);
+                }
+                catch (IOException e) {
+                    System.out.print("  --> Failed as expected \n");
+                }
+            }
+
+            BufMgrFrameDesc frame = null;
+            for (AbstractBufMgrFrameDesc desc : bm.getFrameTable()) {
+                if (desc != null && ((BufMgrFrameDesc) desc).getPageNo().pid == bad.pid)
+                    frame = (BufMgrFrameDesc) desc;
+            }
+            if (frame == null || !frame.isDirty() || bm.getNumUnpinnedBuffers() != 2
+                    || bm.getStats().getEvictions() != 0) {
+                status = FAIL;
+                System.err.print("*** The page that could not be written was lost\n");
+            }
+            bm.pinPage(bad, pg, false);
+            if (Convert.getIntValue(0, pg.getpage()) != bad.pid + 99999) {
+                status = FAIL;
+                System.err.print("*** The page that could not be written lost its data\n");
+            }
+            bm.unpinPage(bad, false);
+
+            System.out.print("  - Allocate a run larger than the database\n");
+            try {
+                bm.newPage(pg, SystemDefs.JavabaseDB.db_num_pages() + 1);
+                status = FAIL;
+                System.err.print("*** Allocated a run larger than the database\n");
+            }
+            catch (DiskMgrException e) {
+                System.out.print("  --> Failed as expected \n");
+            }
+            if (bm.getNumUnpinnedBuffers() != 2) {
+                status = FAIL;
+                System.err.print("*** A run that was not allocated got pinned\n");
+            }
+
+            bm.freePage(pid);
+            SystemDefs.JavabaseDB.deallocate_page(other);
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not keep a page that cannot be written\n");
+            e.printStackTrace();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 21 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks flushAllPages with a page that cannot be written: the flush
+     * must fail, that page must stay dirty, and the other pages must still
+     * be written.
+     *
+     * @return whether test22 has passed
+     */
+    public boolean test22 () {
+
+        System.out.print("\n  Test 22 checks a flush where a write fails\n");
+
+        Page pg = new Page();
+        boolean status = OK;
+
+        try {
+            BufMgr bm = new BufMgr(4, BufMgr.LRU);
+            PageId bad = new PageId(SystemDefs.JavabaseDB.db_num_pages() + 10);
+            bm.pinPage(bad, pg, true);
+            bm.unpinPage(bad, true);
+            PageId first = bm.newPage(pg, 2);
+            PageId second = new PageId(first.pid + 1);
+            Convert.setIntValue(first.pid + 99999, 0, pg.getpage());
+            bm.unpinPage(first, true);
+            bm.pinPage(second, pg, true);
+            Convert.setIntValue(second.pid + 99999, 0, pg.getpage());
+            bm.unpinPage(second, true);
+
+            try {
+                bm.flushAllPages();
+                status = FAIL;
+                System.err.print("*** A page that cannot be written was flushed\n");
+            }
+            catch (IOException e) {
+                System.out.print("  --> Failed as expected \n");
+            }
+
+            for (AbstractBufMgrFrameDesc desc : bm.getFrameTable()) {
+                BufMgrFrameDesc frame = (BufMgrFrameDesc) desc;
+                if (frame != null && frame.isDirty() != (frame.getPageNo().pid == bad.pid)) {
+                    status = FAIL;
+                    System.err.print("*** Page " + frame.getPageNo().pid + " has the wrong dirty state\n");
+                }
+            }
+            for (int index = 0; status == OK && index < 2; ++index) {
+                PageId pid = new PageId(first.pid + index);
+                SystemDefs.JavabaseDB.read_page(pid, pg);
+                if (Convert.getIntValue(0, pg.getpage()) != pid.pid + 99999) {
+                    status = FAIL;
+                    System.err.print("*** Page " + pid.pid + " was not written\n");
+                }
+            }
+
+            bm.freePage(first);
+            bm.freePage(second);
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not flush around a failed write\n");
+            e.printStackTrace();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 22 completed successfully.\n");
+
+        return status;
+    }
+
+    /**
+     * Checks that every replacer lists its next victims in the order it
+     * evicts them, as seen through the unpinned pages of a snapshot, which
+     * come last victim first.
+     *
+     * @return whether test23 has passed
+     */
+    public boolean test23 () {
+
+        System.out.print("\n  Test 23 checks the next victims listed by every replacer\n");
+
+        String[] policies = { BufMgr.Clock, BufMgr.MRU, BufMgr.LRU, BufMgr.LRUK, BufMgr.TwoQ, BufMgr.ARC };
+        String snapshot = "BMDriver.snapshot";
+        int numFrames = 5;
+        int numPages = numFrames + 3;
+        PageId first = new PageId();
+        Page pg = new Page();
+        boolean status = OK;
+
+        try {
+            SystemDefs.JavabaseDB.allocate_page(first, numPages);
+            for (String policy : policies) {
+                System.out.print("  - Replacer " + policy + "\n");
+                BufMgr bm = new BufMgr(numFrames, policy, true);
+                PageId [] pids = new PageId[numPages];
+                for (int index = 0; index < numPages; ++index)
+                    pids[index] = new PageId(first.pid + index);
+
+                // the last page stays pinned; some pages are used again
+                for (int index = 0; index < numFrames; ++index) {
+                    bm.pinPage(pids[index], pg, false);
+                    if (index < numFrames - 1) bm.unpinPage(pids[index], false);
+                }
+                int [] again = { 1, 3, 1, 3, 0 };
+                for (int index : again) {
+                    bm.pinPage(pids[index], pg, false);
+                    bm.unpinPage(pids[index], false);
+                }
+
+                bm.saveSnapshot(snapshot);
+                int [] lines = new int[numFrames];
+                BufferedReader in = new BufferedReader(new FileReader(snapshot));
+                for (int index = 0; index < numFrames; ++index)
+                    lines[index] = Integer.parseInt(in.readLine());
+                in.close();
+
+                // new pages stay pinned, so they never become victims
+                for (int index = 0; status == OK && index < numPages - numFrames; ++index) {
+                    bm.pinPage(pids[numFrames + index], pg, false);
+                    PageId victim = new PageId(lines[numFrames - 1 - index]);
+                    if (isResident(bm, victim)) {
+                        status = FAIL;
+                        System.err.print("*** " + policy + " did not evict page " + victim.pid + " next\n");
+                    }
+                }
+            }
+
+            for (int index = 0; index < numPages; ++index)
+                SystemDefs.JavabaseDB.deallocate_page(new PageId(first.pid + index));
+            new File(snapshot).delete();
+        }
+        catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not list the next victims\n");
+            e.printStackTrace();
+        }
+
+        if ( status == OK )
+            System.out.print("  Test 23 completed successfully.\n");
+
+        return status;
+    }
+
+    // Waits up to two seconds for a page to be read in the background.
+    private boolean waitResident(BufMgr bm, PageId pid) throws InterruptedException {
+        for (int wait = 0; wait < 200; ++wait) {
+            if (isResident(bm, pid)) return OK;
+            Thread.sleep(10);
+        }
+        System.err.print("*** Page " + pid.pid + " was not read ahead\n");
+        return FAIL;
+    }
+
+    // Tells whether a page sits in one of the frames of a buffer manager.
+    private static boolean isResident(BufMgr bm, PageId pid) {
+        for (AbstractBufMgrFrameDesc desc : bm.getFrameTable()) {
+            if (desc != null && ((BufMgrFrameDesc) desc).getPageNo().pid == pid.pid)
+                return true;
+        }
+        return false;
+    }
+
     public static void main(String argv[])
 	{
 
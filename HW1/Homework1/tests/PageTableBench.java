@@ -0,0 +1,108 @@
+package tests;
+
+import bufmgr.BufHashTbl;
+import bufmgr.BufMgrFrameDesc;
+import global.GlobalConst;
+import global.PageId;
+
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Micro benchmark of the page table lookup done on every pinPage. It compares
+ * the int-keyed BufHashTbl with the former design, which kept a
+ * Hashtable&lt;PageId, byte[]&gt; and a HashMap&lt;PageId, BufMgrFrameDesc&gt;
+ * and probed both with a fresh PageId.
+ *
+ * Run with: java tests.PageTableBench [numBuffers] [lookups]
+ */
+public class PageTableBench implements GlobalConst
+{
+	private static final int ROUNDS = 5;
+
+	public static void main(String argv[])
+	{
+		int numBuffers = argv.length > 0 ? Integer.parseInt(argv[0]) : 4096;
+		int lookups = argv.length > 1 ? Integer.parseInt(argv[1]) : 10000000;
+
+		// resident pages are spread over a file four times the pool size
+		Random rnd = new Random(42);
+		int[] resident = new int[numBuffers];
+		Hashtable<PageId, byte[]> pageIdToPageData = new Hashtable<>();
+		Map<PageId, BufMgrFrameDesc> pageIdToFrameDesc = new HashMap<>();
+		BufHashTbl pageTable = new BufHashTbl(numBuffers, false);
+		BufMgrFrameDesc[] frameTable = new BufMgrFrameDesc[numBuffers];
+		for (int f = 0; f < numBuffers; f++) {
+			int pid;
+			do {
+				pid = rnd.nextInt(4 * numBuffers);
+			} while (pageTable.lookup(pid) >= 0);
+			resident[f] = pid;
+			byte[] data = new byte[MINIBASE_PAGESIZE];
+			frameTable[f] = new BufMgrFrameDesc(new PageId(pid), f, data);
+			pageIdToPageData.put(new PageId(pid), data);
+			pageIdToFrameDesc.put(new PageId(pid), frameTable[f]);
+			pageTable.insert(pid, f);
+		}
+
+		// the same probe sequence for both designs, nine hits out of ten
+		int[] probes = new int[1 << 16];
+		for (int i = 0; i < probes.length; i++)
+			probes[i] = rnd.nextInt(10) < 9 ? resident[rnd.nextInt(numBuffers)]
+					: rnd.nextInt(4 * numBuffers);
+
+		System.out.print("Page table lookup, " + numBuffers + " frames, "
+				+ lookups + " lookups per round\n");
+		for (int round = 0; round < ROUNDS; round++) {
+			long t0 = System.nanoTime();
+			long sum1 = twoMaps(pageIdToPageData, pageIdToFrameDesc, probes, lookups);
+			long t1 = System.nanoTime();
+			long sum2 = intTable(pageTable, frameTable, probes, lookups);
+			long t2 = System.nanoTime();
+			if (sum1 != sum2) {
+				System.err.print("*** The two page tables disagree\n");
+				System.exit(1);
+			}
+			System.out.print("  round " + round
+					+ (round == 0 ? " (warm-up)" : "")
+					+ ": two maps " + nsPerOp(t1 - t0, lookups)
+					+ " ns/op, BufHashTbl " + nsPerOp(t2 - t1, lookups) + " ns/op\n");
+		}
+	}
+
+	// The lookups the former pinPage did on a hit.
+	private static long twoMaps(Hashtable<PageId, byte[]> pageIdToPageData,
+			Map<PageId, BufMgrFrameDesc> pageIdToFrameDesc, int[] probes, int lookups)
+	{
+		long sum = 0;
+		for (int i = 0; i < lookups; i++) {
+			PageId pid = new PageId(probes[i & (probes.length - 1)]);
+			if (pageIdToPageData.get(pid) != null && pageIdToFrameDesc.get(pid) != null)
+				sum += pageIdToFrameDesc.get(pid).getFrameNo();
+			else
+				sum--;
+		}
+		return sum;
+	}
+
+	private static long intTable(BufHashTbl pageTable, BufMgrFrameDesc[] frameTable,
+			int[] probes, int lookups)
+	{
+		long sum = 0;
+		for (int i = 0; i < lookups; i++) {
+			int frameNo = pageTable.lookup(probes[i & (probes.length - 1)]);
+			if (frameNo >= 0)
+				sum += frameTable[frameNo].getFrameNo();
+			else
+				sum--;
+		}
+		return sum;
+	}
+
+	private static String nsPerOp(long nanos, int ops)
+	{
+		return String.format("%.1f", (double) nanos / ops);
+	}
+}
@@ -0,0 +1,177 @@
+package tests;
+
+import bufmgr.BufMgr;
+import diskmgr.Page;
+import global.PageId;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the hit ratios of the replacement policies on page reference
+ * traces. Every reference is replayed as a pin and an unpin of the page on
+ * a buffer manager using that policy. Pages are pinned as empty pages and
+ * never dirtied, so no disk is needed.
+ *
+ * Without arguments a set of synthetic traces is used. Recorded traces can be
+ * given as files holding one page number per line.
+ *
+ * Run with: java tests.ReplacerBench [numFrames] [traceFile ...]
+ */
+public class ReplacerBench
+{
+	private static final String[] POLICIES =
+		{ BufMgr.Clock, BufMgr.MRU, BufMgr.LRU, BufMgr.LRUK, BufMgr.TwoQ, BufMgr.ARC };
+
+	public static void main(String argv[]) throws Exception
+	{
+		int numFrames = argv.length > 0 ? Integer.parseInt(argv[0]) : 100;
+
+		List<String> names = new ArrayList<>();
+		List<int[]> traces = new ArrayList<>();
+		if (argv.length > 1) {
+			for (int i = 1; i < argv.length; i++) {
+				names.add(argv[i]);
+				traces.add(readTrace(argv[i]));
+			}
+		} else {
+			Random rnd = new Random(42);
+			names.add("zipf");
+			traces.add(zipf(rnd, 100000, 10 * numFrames, 0, 0.9));
+			names.add("scan+hot");
+			traces.add(scanAndHot(rnd, 100000, numFrames / 3, 2 * numFrames, 20 * numFrames));
+			names.add("loop");
+			traces.add(loop(100000, numFrames + numFrames / 5));
+			names.add("shift");
+			traces.add(shift(rnd, 100000, 10 * numFrames));
+		}
+
+		System.out.print("Hit ratio (%) with " + numFrames + " frames\n");
+		System.out.print(String.format("%-12s", "trace"));
+		for (String policy : POLICIES) System.out.print(String.format("%8s", policy));
+		System.out.print("\n");
+		for (int t = 0; t < traces.size(); t++) {
+			System.out.print(String.format("%-12s", names.get(t)));
+			for (String policy : POLICIES) {
+				double ratio = replay(policy, numFrames, traces.get(t));
+				System.out.print(String.format("%8.2f", 100 * ratio));
+			}
+			System.out.print("\n");
+		}
+	}
+
+	/**
+	 * Replays a trace and returns the fraction of references that found the
+	 * page in the pool.
+	 */
+	static double replay(String policy, int numFrames, int[] trace) throws Exception
+	{
+		BufMgr bm = new BufMgr(numFrames, policy);
+
+		// a pinned page is backed by its frame's array, which tells which
+		// page the frame held before
+		IdentityHashMap<byte[], Integer> frameOfData = new IdentityHashMap<>();
+		int[] pageInFrame = new int[numFrames];
+		HashSet<Integer> resident = new HashSet<>();
+		Page pg = new Page();
+		PageId pid = new PageId();
+		long hits = 0;
+
+		for (int pageNo : trace) {
+			pid.pid = pageNo;
+			boolean hit = resident.contains(pageNo);
+			bm.pinPage(pid, pg, true);
+			if (hit) {
+				hits++;
+			} else {
+				Integer frameNo = frameOfData.get(pg.getpage());
+				if (frameNo == null) {
+					frameNo = frameOfData.size();
+					frameOfData.put(pg.getpage(), frameNo);
+				} else {
+					resident.remove(pageInFrame[frameNo]);
+				}
+				pageInFrame[frameNo] = pageNo;
+				resident.add(pageNo);
+			}
+			bm.unpinPage(pid, false);
+		}
+		return (double) hits / trace.length;
+	}
+
+	// Reads a recorded trace: one page number per line.
+	static int[] readTrace(String fileName) throws IOException
+	{
+		List<Integer> refs = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new FileReader(fileName))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0) refs.add(Integer.parseInt(line));
+			}
+		}
+		int[] trace = new int[refs.size()];
+		for (int i = 0; i < trace.length; i++) trace[i] = refs.get(i);
+		return trace;
+	}
+
+	// Skewed references over numPages pages starting at firstPage.
+	static int[] zipf(Random rnd, int length, int numPages, int firstPage, double skew)
+	{
+		double[] cdf = new double[numPages];
+		double sum = 0;
+		for (int i = 0; i < numPages; i++) cdf[i] = sum += 1 / Math.pow(i + 1, skew);
+		int[] trace = new int[length];
+		for (int i = 0; i < length; i++) {
+			double u = rnd.nextDouble() * sum;
+			int lo = 0, hi = numPages - 1;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (cdf[mid] < u) lo = mid + 1;
+				else hi = mid;
+			}
+			trace[i] = firstPage + lo;
+		}
+		return trace;
+	}
+
+	// Point lookups on a small hot set, interrupted by long sequential scans.
+	static int[] scanAndHot(Random rnd, int length, int hotPages, int scanLength, int filePages)
+	{
+		int[] trace = new int[length];
+		int scanPos = 0;
+		for (int i = 0; i < length; ) {
+			for (int j = 0; j < 4 * hotPages && i < length; j++) trace[i++] = rnd.nextInt(hotPages);
+			for (int j = 0; j < scanLength && i < length; j++) {
+				trace[i++] = hotPages + scanPos;
+				scanPos = (scanPos + 1) % filePages;
+			}
+		}
+		return trace;
+	}
+
+	// A loop over slightly more pages than the pool holds.
+	static int[] loop(int length, int numPages)
+	{
+		int[] trace = new int[length];
+		for (int i = 0; i < length; i++) trace[i] = i % numPages;
+		return trace;
+	}
+
+	// Two skewed phases over disjoint sets of pages.
+	static int[] shift(Random rnd, int length, int numPages)
+	{
+		int[] first = zipf(rnd, length / 2, numPages, 0, 0.9);
+		int[] second = zipf(rnd, length - length / 2, numPages, numPages, 0.9);
+		int[] trace = new int[length];
+		System.arraycopy(first, 0, trace, 0, first.length);
+		System.arraycopy(second, 0, trace, first.length, second.length);
+		return trace;
+	}
+}
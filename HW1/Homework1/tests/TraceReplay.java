@@ -0,0 +1,146 @@
+package tests;
+
+import bufmgr.BufMgr;
+import bufmgr.BufMgrStats;
+import bufmgr.TraceReader;
+import bufmgr.TraceRecorder;
+import diskmgr.Page;
+import global.PageId;
+import global.SystemDefs;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays a trace recorded with BufMgr.startTrace against several pool sizes
+ * and replacement policies, and reports for each the hit ratio, the number
+ * of dirty pages written back on eviction and the calls replayed per second.
+ *
+ * The pages are read from and written to a scratch database large enough
+ * for every page of the trace. newPage calls only count, since the pin of
+ * the new page that follows them brings the page into the pool; freed pages
+ * are dropped from the pool and given back to the scratch database. Calls
+ * that fail, e.g. because the pool is too small for the pages the trace
+ * keeps pinned at once, are counted and skipped.
+ *
+ * Run with: java tests.TraceReplay traceFile [numFrames[,numFrames...]] [policy ...]
+ */
+public class TraceReplay
+{
+	private static final String[] POLICIES =
+		{ BufMgr.Clock, BufMgr.MRU, BufMgr.LRU, BufMgr.LRUK, BufMgr.TwoQ, BufMgr.ARC };
+
+	private final String traceFile;
+
+	/** Calls replayed by the last run. */
+	long calls;
+
+	/** Calls of the last run that failed. */
+	long failed;
+
+	/** Duration of the last run, in nanoseconds. */
+	long nanos;
+
+	TraceReplay(String traceFile)
+	{
+		this.traceFile = traceFile;
+	}
+
+	public static void main(String argv[]) throws Exception
+	{
+		if (argv.length < 1) {
+			System.err.print("usage: java tests.TraceReplay traceFile [numFrames[,numFrames...]] [policy ...]\n");
+			System.exit(1);
+		}
+		String[] sizes = (argv.length > 1 ? argv[1] : "100").split(",");
+		String[] policies = POLICIES;
+		if (argv.length > 2) {
+			policies = new String[argv.length - 2];
+			System.arraycopy(argv, 2, policies, 0, policies.length);
+		}
+
+		// the space map of the scratch database takes a few pages as well
+		int numPages = maxPage(argv[0]) + 1;
+		SystemDefs.initBufMgr(new BufMgr());
+		SystemDefs.initDiskMgr("TraceReplay", numPages + 100);
+		new File("TraceReplay").deleteOnExit();
+
+		TraceReplay replay = new TraceReplay(argv[0]);
+		System.out.print(String.format("%-8s %-8s %10s %12s %14s %8s\n",
+				"frames", "policy", "hit ratio", "write-backs", "calls/s", "failed"));
+		for (String size : sizes) {
+			for (String policy : policies) {
+				BufMgrStats stats = replay.run(Integer.parseInt(size.trim()), policy).getStats();
+				System.out.print(String.format("%-8s %-8s %9.2f%% %12d %14.0f %8d\n",
+						size.trim(), policy, 100 * stats.getHitRatio(), stats.getDirtyWrites(),
+						replay.calls * 1e9 / Math.max(1, replay.nanos), replay.failed));
+			}
+		}
+	}
+
+	// Finds the largest page number of a trace.
+	static int maxPage(String traceFile) throws IOException
+	{
+		TraceReader in = new TraceReader(traceFile);
+		int max = 0;
+		try {
+			for (int op = in.next(); op >= 0; op = in.next())
+				max = Math.max(max, in.getPageNo() + in.getCount() - 1);
+		} finally {
+			in.close();
+		}
+		return max;
+	}
+
+	/**
+	 * Replays the trace on a new buffer manager, reading pages from the
+	 * current database.
+	 *
+	 * @return the buffer manager, whose statistics describe the run.
+	 */
+	BufMgr run(int numFrames, String policy) throws Exception
+	{
+		BufMgr bm = new BufMgr(numFrames, policy);
+		Page pg = new Page();
+		PageId pid = new PageId();
+		calls = failed = 0;
+
+		TraceReader in = new TraceReader(traceFile);
+		long start = System.nanoTime();
+		try {
+			for (int op = in.next(); op >= 0; op = in.next()) {
+				calls++;
+				pid.pid = in.getPageNo();
+				try {
+					switch (op) {
+					case TraceRecorder.PIN:
+						bm.pinPage(pid, pg, false);
+						break;
+					case TraceRecorder.PIN_EMPTY:
+						bm.pinPage(pid, pg, true);
+						break;
+					case TraceRecorder.UNPIN:
+						bm.unpinPage(pid, false);
+						break;
+					case TraceRecorder.UNPIN_DIRTY:
+						bm.unpinPage(pid, true);
+						break;
+					case TraceRecorder.FREE:
+						bm.freePage(pid);
+						break;
+					default:
+						// NEW: the pin of the first page follows
+						break;
+					}
+				}
+				catch (Exception e) {
+					failed++;
+				}
+			}
+		} finally {
+			nanos = System.nanoTime() - start;
+			in.close();
+		}
+		return bm;
+	}
+}
@@ -121,7 +121,8 @@ public class BTFileScan extends IndexFileScan implements GlobalConst
 			bfile.delete(entry.key, (RID)entry.getData());
 			
 			// update current leaf page
-			leafPage = bfile.getStartLeaf(entry.key, curRid);
+			// the key may have more entries, after the deleted one
+			leafPage = bfile.getStartLeaf(entry.key, (RID)entry.getData(), curRid);
 			
 		} catch (IteratorException | DeleteFashionException | LeafRedistributeException | 
 				RedistributeException | InsertRecException | KeyNotMatchException | 
@@ -5,6 +5,7 @@ import exceptions.BufferPoolExceededException;
 import exceptions.ConstructPageException;
 import exceptions.HashEntryNotFoundException;
 import exceptions.HashOperationException;
+import exceptions.InsertException;
 import exceptions.InvalidFrameNumberException;
 import exceptions.IteratorException;
 import exceptions.KeyNotMatchException;
@@ -19,6 +20,7 @@ import exceptions.UnpinPageException;
 import global.AttrType;
 import global.GlobalConst;
 import global.Minibase;
+import global.PageId;
 import global.RID;
 import global.TestDriver;
 
@@ -26,13 +28,19 @@ import index.Key;
 import index.KeyEntry;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Random;
 
 import bufmgr.BufMgr;
+import btree.page.BTIndexPage;
+import btree.page.BTLeafPage;
+import btree.page.BTSortedPage;
 
 /**
  * Note that in JAVA, methods can't be overridden to be more private. Therefore,
@@ -176,6 +184,448 @@ public class BTTest extends TestDriver implements GlobalConst
 		return(true);
 	}
 	
+	/**
+	 * test2 - build an index with several levels of index pages, and check
+	 * that scans from a low to a high key find exactly the keys between them.
+	 */
+	public boolean test2()
+	{
+		int numKeys = 10000;
+		int[][] ranges = { { 0, numKeys - 1 }, { -5, 10 }, { 1234, 1300 },
+				{ numKeys - 10, numKeys + 10 }, { 500, 500 }, { 600, 599 } };
+
+		try
+		{
+			BTreeFile index = new BTreeFile("test2", keyType, 4, 0);
+
+			// 7 is prime to numKeys, so this inserts every key once, out of order
+			for (int i = 0; i < numKeys; i++)
+			{
+				int k = (i * 7) % numKeys;
+				index.insert(new Key(k), new RID(new PageId(k), 0));
+			}
+
+			for (int[] range : ranges)
+			{
+				BTFileScan scan = index.new_scan(new Key(range[0]), new Key(range[1]));
+				int expected = Math.max(range[0], 0);
+				KeyEntry next;
+				while ((next = scan.get_next()) != null)
+				{
+					if (!next.key.equals(new Key(expected))
+							|| ((RID) next.getData()).pageNo.pid != expected)
+					{
+						System.out.println("Scan of [" + range[0] + ", " + range[1] + "] found "
+								+ next.key + " instead of " + expected);
+						return false;
+					}
+					expected++;
+				}
+				int end = Math.max(Math.min(range[1], numKeys - 1) + 1, Math.max(range[0], 0));
+				if (expected != end)
+				{
+					System.out.println("Scan of [" + range[0] + ", " + range[1] + "] stopped at " + expected);
+					return false;
+				}
+				scan.destroyBTreeFileScan();
+			}
+
+			// destroyFile unpins the header page; close would make it a no-op
+			index.destroyFile();
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * test3 - insert every key with two rids, the second one first, then
+	 * with the first rid again, and delete the first rid of half of the keys:
+	 * a full scan must find both rids of the other keys in rid order, and
+	 * the second rid of the deleted ones.
+	 */
+	public boolean test3()
+	{
+		int numKeys = 2000;
+		int[] slots = { 1, 0, 0 };
+
+		try
+		{
+			BTreeFile index = new BTreeFile("test3", keyType, 4, 0);
+			for (int slot : slots)
+			{
+				for (int i = 0; i < numKeys; i++)
+				{
+					int k = (i * 7) % numKeys;
+					index.insert(new Key(k), new RID(new PageId(k), slot));
+				}
+			}
+			for (int k = 0; k < numKeys; k += 2)
+				index.delete(new Key(k), new RID(new PageId(k), 0));
+
+			BTFileScan scan = index.new_scan(null, null);
+			int expected = 0;
+			int expectedSlot = 1;
+			KeyEntry next;
+			while ((next = scan.get_next()) != null)
+			{
+				RID rid = (RID) next.getData();
+				if (!next.key.equals(new Key(expected)) || rid.pageNo.pid != expected || rid.slotNo != expectedSlot)
+				{
+					System.out.println("Scan found " + next.key + " slot " + rid.slotNo + " instead of "
+							+ expected + " slot " + expectedSlot);
+					return false;
+				}
+				if (expectedSlot == 1)
+				{
+					expected++;
+					expectedSlot = expected % 2 == 0 ? 1 : 0;
+				} else
+				{
+					expectedSlot = 1;
+				}
+			}
+			if (expected != numKeys)
+			{
+				System.out.println("Scan stopped at " + expected);
+				return false;
+			}
+			scan.destroyBTreeFileScan();
+
+			// destroyFile unpins the header page; close would make it a no-op
+			index.destroyFile();
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * test4 - bulk load the even keys, then insert the odd ones: the loaded
+	 * tree must be searchable and take inserts like one built by inserts.
+	 * Then bulk load the records of test5 but every third one, and insert
+	 * those among the loaded entries of their keys. Last, bulk load as many
+	 * keys as leave one key on the last leaf and the last index page with
+	 * its left link alone: finish must even them out with the pages before
+	 * them.
+	 */
+	public boolean test4()
+	{
+		int numKeys = 10000;
+
+		try
+		{
+			BTreeFile index = new BTreeFile("test4", keyType, 4, 0);
+			BTreeBulkLoader loader = new BTreeBulkLoader(index, 0.7);
+			for (int k = 0; k < numKeys; k += 2)
+				loader.add(new Key(k), new RID(new PageId(k), 0));
+			try
+			{
+				loader.add(new Key(0), new RID(new PageId(0), 0));
+				System.out.println("Bulk load took a key out of order");
+				return false;
+			} catch (InsertException e)
+			{
+				// keys must increase
+			}
+			if (loader.finish() != numKeys / 2)
+			{
+				System.out.println("Bulk load did not load every key");
+				return false;
+			}
+			ArrayList<ArrayList<Integer>> counts = countEntries(index);
+			int perLeaf = counts.get(counts.size() - 1).get(0);
+			int perIndex = counts.get(counts.size() - 2).get(0);
+
+			BTFileScan scan = index.new_scan(new Key(1001), new Key(1010));
+			int expected = 1002;
+			KeyEntry next;
+			while ((next = scan.get_next()) != null)
+			{
+				if (!next.key.equals(new Key(expected)))
+				{
+					System.out.println("Scan of the loaded keys found " + next.key + " instead of " + expected);
+					return false;
+				}
+				expected += 2;
+			}
+			scan.destroyBTreeFileScan();
+			if (expected != 1012)
+			{
+				System.out.println("Scan of the loaded keys stopped at " + expected);
+				return false;
+			}
+
+			for (int k = numKeys - 1; k > 0; k -= 2)
+				index.insert(new Key(k), new RID(new PageId(k), 0));
+
+			scan = index.new_scan(null, null);
+			expected = 0;
+			while ((next = scan.get_next()) != null)
+			{
+				if (!next.key.equals(new Key(expected)) || ((RID) next.getData()).pageNo.pid != expected)
+				{
+					System.out.println("Scan found " + next.key + " instead of " + expected);
+					return false;
+				}
+				expected++;
+			}
+			scan.destroyBTreeFileScan();
+			if (expected != numKeys)
+			{
+				System.out.println("Scan stopped at " + expected);
+				return false;
+			}
+
+			// destroyFile unpins the header page; close would make it a no-op
+			index.destroyFile();
+
+			int numRecs = 20000;
+			int numAges = 10;
+			index = new BTreeFile("test4dups", keyType, 4, 0);
+			loader = new BTreeBulkLoader(index, 0.7);
+			for (int age = 0; age < numAges; age++)
+				for (int i = age; i < numRecs; i += numAges)
+					if (i % 3 != 0)
+						loader.add(new Key(age), new RID(new PageId(i / 100), i % 100));
+			loader.finish();
+			for (int i = 0; i < numRecs; i += 3)
+				index.insert(new Key(i % numAges), new RID(new PageId(i / 100), i % 100));
+			if (!scanAge(index, 3, numAges, numRecs, false) || !scanAge(index, 7, numAges, numRecs, false))
+				return false;
+			index.destroyFile();
+
+			// two full index pages of full leaves, then a leaf of one key
+			numKeys = perLeaf * 2 * (perIndex + 1) + 1;
+			index = new BTreeFile("test4last", keyType, 4, 0);
+			loader = new BTreeBulkLoader(index, 0.7);
+			for (int k = 0; k < numKeys; k++)
+				loader.add(new Key(k), new RID(new PageId(k), 0));
+			loader.finish();
+			counts = countEntries(index);
+			for (int depth = 1; depth < counts.size(); depth++)
+			{
+				ArrayList<Integer> level = counts.get(depth);
+				for (int i = 1; i < level.size(); i++)
+				{
+					if (level.get(i) < level.get(0) / 3)
+					{
+						System.out.println("Page " + i + " at depth " + depth + " holds " + level.get(i)
+								+ " entries, the first " + level.get(0));
+						return false;
+					}
+				}
+			}
+			scan = index.new_scan(null, null);
+			expected = 0;
+			while ((next = scan.get_next()) != null)
+			{
+				if (!next.key.equals(new Key(expected)))
+				{
+					System.out.println("Scan found " + next.key + " instead of " + expected);
+					return false;
+				}
+				expected++;
+			}
+			scan.destroyBTreeFileScan();
+			if (expected != numKeys)
+			{
+				System.out.println("Scan stopped at " + expected);
+				return false;
+			}
+			index.destroyFile();
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * test5 - index a low-cardinality column, ten ages over many records
+	 * inserted out of order: a scan of one age must find its records in rid
+	 * order, and deletes, including deletes during a scan, must remove just
+	 * the records deleted, wherever they are among the entries of their age.
+	 */
+	public boolean test5()
+	{
+		int numRecs = 20000;
+		int numAges = 10;
+
+		try
+		{
+			BTreeFile index = new BTreeFile("test5", keyType, 4, 0);
+
+			// record i is the slot i % 100 of page i / 100, so the rids of an
+			// age increase with i; 7919 is prime to numRecs, so this inserts
+			// every record once, out of rid order
+			for (int j = 0; j < numRecs; j++)
+			{
+				int i = (int) ((j * 7919L) % numRecs);
+				index.insert(new Key(i % numAges), new RID(new PageId(i / 100), i % 100));
+			}
+
+			if (!scanAge(index, 3, numAges, numRecs, false))
+				return false;
+
+			// delete a third of the records, all through the entries of
+			// every age
+			for (int i = 0; i < numRecs; i += 3)
+				index.delete(new Key(i % numAges), new RID(new PageId(i / 100), i % 100));
+			if (!scanAge(index, 3, numAges, numRecs, true))
+				return false;
+
+			// delete all the records of one age during a scan of it
+			BTFileScan scan = index.new_scan(new Key(4), new Key(4));
+			int deleted = 0;
+			while (scan.get_next() != null)
+			{
+				scan.delete_current();
+				deleted++;
+			}
+			scan.destroyBTreeFileScan();
+			int expected = 0;
+			for (int i = 4; i < numRecs; i += numAges)
+				if (i % 3 != 0)
+					expected++;
+			if (deleted != expected)
+			{
+				System.out.println("Scan deleted " + deleted + " records of age 4 instead of " + expected);
+				return false;
+			}
+			scan = index.new_scan(new Key(4), new Key(4));
+			if (scan.get_next() != null)
+			{
+				System.out.println("Scan found a deleted record of age 4");
+				return false;
+			}
+			scan.destroyBTreeFileScan();
+			if (!scanAge(index, 5, numAges, numRecs, true))
+				return false;
+
+			// destroyFile unpins the header page; close would make it a no-op
+			index.destroyFile();
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	// Scans the records of an age in the index of test5, which must find
+	// them in rid order, without those whose number is a multiple of 3 once
+	// they are deleted.
+	private static boolean scanAge(BTreeFile index, int age, int numAges, int numRecs,
+			boolean deleted) throws Exception
+	{
+		BTFileScan scan = index.new_scan(new Key(age), new Key(age));
+		int expected = age;
+		KeyEntry next;
+		while ((next = scan.get_next()) != null)
+		{
+			while (deleted && expected % 3 == 0)
+				expected += numAges;
+			RID rid = (RID) next.getData();
+			if (!next.key.equals(new Key(age)) || rid.pageNo.pid != expected / 100
+					|| rid.slotNo != expected % 100)
+			{
+				System.out.println("Scan of age " + age + " found record " + (rid.pageNo.pid * 100 + rid.slotNo)
+						+ " instead of " + expected);
+				return false;
+			}
+			expected += numAges;
+		}
+		scan.destroyBTreeFileScan();
+		while (deleted && expected < numRecs && expected % 3 == 0)
+			expected += numAges;
+		if (expected < numRecs)
+		{
+			System.out.println("Scan of age " + age + " stopped at record " + expected);
+			return false;
+		}
+		return true;
+	}
+
+	// Counts the entries of every page of an index, from left to right, by
+	// depth from the root.
+	private ArrayList<ArrayList<Integer>> countEntries(BTreeFile index)
+			throws Exception
+	{
+		ArrayList<ArrayList<Integer>> counts = new ArrayList<ArrayList<Integer>>();
+		countEntries(index.getHeaderPage().get_rootId(), 0, counts);
+		return counts;
+	}
+
+	private void countEntries(PageId pageNo, int depth,
+			ArrayList<ArrayList<Integer>> counts) throws Exception
+	{
+		BTSortedPage page = new BTSortedPage(pageNo, keyType);
+		if (counts.size() == depth)
+			counts.add(new ArrayList<Integer>());
+		counts.get(depth).add(page.numberOfRecords());
+		if (page.getType() == BTSortedPage.INDEX)
+		{
+			BTIndexPage indexPage = new BTIndexPage(page, keyType);
+			for (int slot = -1; slot < indexPage.numberOfRecords(); slot++)
+				countEntries(indexPage.getPageNo(slot), depth + 1, counts);
+		}
+		Minibase.JavabaseBM.unpinPage(pageNo, false);
+	}
+
+	/**
+	 * test6 - compare string keys in place: records laid out as string keys
+	 * are, written directly since KeyEntry cannot store them, must compare
+	 * with each other and with keys as the strings themselves do.
+	 */
+	public boolean test6()
+	{
+		String[] keys = { "", "a", "ab", "abc", "ab\u00e9", "b", "\u00e9",
+				"\u4e2d", "\u0000", "\ud83d\ude00" };
+
+		try
+		{
+			BTLeafPage page = new BTLeafPage(AttrType.attrString);
+			for (String s : keys)
+			{
+				// a key as DataOutput.writeUTF writes it, then a data rid
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(bytes);
+				out.writeUTF(s);
+				out.writeInt(0);
+				out.writeInt(0);
+				page.insertRecord(bytes.toByteArray());
+			}
+
+			boolean ok = true;
+			for (int i = 0; i < keys.length; i++)
+			{
+				for (int j = 0; j < keys.length; j++)
+				{
+					int expected = Integer.signum(keys[i].compareTo(keys[j]));
+					if (Integer.signum(page.compareSlots(i, j)) != expected
+							|| Integer.signum(page.compareKey(new Key(keys[i]), j)) != expected)
+					{
+						System.out.println("Compared string key " + i + " with " + j + " wrongly");
+						ok = false;
+					}
+				}
+			}
+			Minibase.JavabaseBM.unpinPage(page.getCurPage(), false);
+			Minibase.JavabaseBM.freePage(page.getCurPage());
+			return ok;
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+	}
+
 	// 
 	// convenience function for creating files to run through test1()
 	//
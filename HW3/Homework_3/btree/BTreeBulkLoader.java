@@ -0,0 +1,415 @@
+package btree;
+
+import btree.page.BTHeaderPage;
+import btree.page.BTIndexPage;
+import btree.page.BTLeafPage;
+import btree.page.BTSortedPage;
+import exceptions.*;
+import global.GlobalConst;
+import global.Minibase;
+import global.PageId;
+import global.RID;
+import heap.HFPage;
+import index.Key;
+import index.KeyEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Builds a B+ tree bottom-up from entries added in increasing key order,
+ * entries with equal keys in increasing rid order, instead of inserting
+ * them one at a time. Leaf pages are filled from left
+ * to right up to a fill factor and linked to their siblings; every new page
+ * adds its first <key, rid> to the index page being filled on the level above it,
+ * which grows the same way. Each page is written once and no page is ever
+ * split, so building the index is a sequential pass over its pages.
+ *
+ * The index must be empty. Call add for every entry, then finish to make
+ * the tree the root of the index. Once finished, the tree can be searched
+ * and updated like any other.
+ */
+public class BTreeBulkLoader implements GlobalConst
+{
+	// Usable bytes of a page, as counted by the split and merge tests of
+	// BTreeFile.
+	private static final int CAPACITY = PAGE_SIZE - HFPage.DPFIXED;
+
+	private final BTreeFile file;
+
+	private final short keyType;
+
+	// Bytes of a page to fill before starting the next one.
+	private final int fillBytes;
+
+	// The page being filled on every level, the leaves first.
+	private final ArrayList<BTSortedPage> levels = new ArrayList<BTSortedPage>();
+
+	// The page filled before it on every level, or null for the first page
+	// of a level. A page stays pinned until the second page after it on its
+	// level is started, so that finish can even out the last two.
+	private final ArrayList<BTSortedPage> previous = new ArrayList<BTSortedPage>();
+
+	// Every page allocated so far, freed if the load fails.
+	private final ArrayList<PageId> allocated = new ArrayList<PageId>();
+
+	// Set when an entry failed to load and every page was freed.
+	private boolean failed = false;
+
+	private Key lastKey = null;
+
+	private RID lastRid = null;
+
+	private int count = 0;
+
+	/**
+	 * Starts a bulk load of an empty index.
+	 *
+	 * @param file
+	 *            the index to load. Input parameter.
+	 * @param fillFactor
+	 *            the part of every page to fill, above 0 and at most 1. Pages
+	 *            filled to less than half underflow as soon as an entry is
+	 *            deleted from them.
+	 * @exception InsertException
+	 *                if the index is not empty
+	 * @exception IOException
+	 *                error from the lower layer
+	 */
+	public BTreeBulkLoader(BTreeFile file, double fillFactor)
+			throws InsertException, IOException
+	{
+		if (fillFactor <= 0 || fillFactor > 1)
+			throw new IllegalArgumentException("fill factor must be above 0 and at most 1");
+		if (file.getHeaderPage().get_rootId().pid != INVALID_PAGE)
+			throw new InsertException(null, "bulk load needs an empty index");
+
+		this.file = file;
+		this.keyType = file.getHeaderPage().get_keyType();
+		this.fillBytes = (int) (fillFactor * CAPACITY);
+	}
+
+	/**
+	 * Adds an entry after all those added so far. As with BTreeFile.insert,
+	 * adding the same <key, rid> pair again is ignored. If the entry cannot
+	 * be added for any reason but its order, every page loaded so far is
+	 * freed and the loader cannot be used anymore; the index stays empty.
+	 *
+	 * @param key
+	 *            the key of the record, not smaller than the previous key.
+	 *            Input parameter.
+	 * @param rid
+	 *            the rid of the record, not smaller than the previous rid if
+	 *            the key is the same. Input parameter.
+	 * @exception InsertException
+	 *                if the entry is smaller than the previous one, does not
+	 *                fit in a page, or an earlier entry failed to load
+	 * @exception KeyNotMatchException
+	 *                if the key is not of the type of the index
+	 */
+	public void add(Key key, RID rid) throws InsertException,
+			KeyNotMatchException, ConstructPageException, UnpinPageException,
+			LeafInsertRecException, IndexInsertRecException, IOException
+	{
+		if (failed)
+			throw new InsertException(null, "an earlier entry failed to load");
+		if (lastKey != null)
+		{
+			int cmp = key.compareTo(lastKey);
+			if (cmp == 0)
+				cmp = BTLeafPage.compareRids(rid, lastRid);
+			if (cmp < 0)
+				throw new InsertException(null, "entries must be added in increasing order");
+			if (cmp == 0)
+				return;
+		}
+
+		try
+		{
+			int size = new KeyEntry(key, rid).getSizeInBytes();
+			BTLeafPage leaf;
+			if (levels.isEmpty())
+			{
+				leaf = new BTLeafPage(keyType);
+				allocated.add(leaf.getCurPage());
+				leaf.setPrevPage(new PageId(INVALID_PAGE));
+				leaf.setNextPage(new PageId(INVALID_PAGE));
+				levels.add(leaf);
+				previous.add(null);
+			} else
+			{
+				leaf = (BTLeafPage) levels.get(0);
+				if (!fits(leaf, size))
+				{
+					BTLeafPage next = new BTLeafPage(keyType);
+					allocated.add(next.getCurPage());
+					next.setPrevPage(leaf.getCurPage());
+					next.setNextPage(new PageId(INVALID_PAGE));
+					leaf.setNextPage(next.getCurPage());
+					levels.set(0, next);
+					addSeparator(1, key, rid, next.getCurPage(), leaf.getCurPage());
+					retire(0, leaf);
+					leaf = next;
+				}
+			}
+
+			if (leaf.insertRecord(key, rid) == null)
+				throw new InsertException(null, "entry does not fit in a page");
+		} catch (Exception e)
+		{
+			abort(e);
+			throw e;
+		}
+		lastKey = new Key(key);
+		lastRid = new RID(rid);
+		count++;
+	}
+
+	// Adds the first <key, rid> of a new page to the page being filled on the
+	// level above it; left is the page before it, which the first page of a
+	// level points to as its left link.
+	private void addSeparator(int level, Key key, RID rid, PageId child, PageId left)
+			throws ConstructPageException, UnpinPageException,
+			IndexInsertRecException, InsertException, IOException
+	{
+		if (level == levels.size())
+		{
+			BTIndexPage page = new BTIndexPage(keyType);
+			allocated.add(page.getCurPage());
+			page.setPrevPage(left);
+			levels.add(page);
+			previous.add(null);
+		}
+
+		BTIndexPage page = (BTIndexPage) levels.get(level);
+		if (page.numberOfRecords() > 0 && !fits(page, BTIndexPage.getEntrySize(key)))
+		{
+			// the key moves up a level, and the child becomes the left link
+			// of the next page of this level
+			BTIndexPage next = new BTIndexPage(keyType);
+			allocated.add(next.getCurPage());
+			next.setPrevPage(child);
+			levels.set(level, next);
+			addSeparator(level + 1, key, rid, next.getCurPage(), page.getCurPage());
+			retire(level, page);
+			return;
+		}
+
+		if (page.insertKey(key, rid, child, page.numberOfRecords()) == null)
+			throw new InsertException(null, "key does not fit in an index page");
+	}
+
+	// Tells whether an entry of the given size fits in a page without filling
+	// it above the fill factor.
+	private boolean fits(BTSortedPage page, int size) throws IOException
+	{
+		return page.available_space() >= size
+				&& CAPACITY - page.available_space() + size + HFPage.SIZE_OF_SLOT <= fillBytes;
+	}
+
+	// Keeps a page that a level has filled pinned as the previous page of the
+	// level, and unpins the one before it.
+	private void retire(int level, BTSortedPage page) throws UnpinPageException
+	{
+		BTSortedPage old = previous.set(level, page);
+		if (old != null)
+			unpin(old);
+	}
+
+	// Unpins and frees every page after a failure, adding the pages that
+	// cannot be unpinned or freed to it.
+	private void abort(Exception failure)
+	{
+		failed = true;
+		for (int level = 0; level < levels.size(); level++)
+		{
+			for (BTSortedPage page : new BTSortedPage[] { previous.get(level), levels.get(level) })
+			{
+				if (page == null)
+					continue;
+				try
+				{
+					unpin(page);
+				} catch (UnpinPageException e)
+				{
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		levels.clear();
+		previous.clear();
+
+		for (PageId pageNo : allocated)
+		{
+			try
+			{
+				Minibase.JavabaseBM.freePage(pageNo);
+			} catch (Exception e)
+			{
+				failure.addSuppressed(new FreePageException(e, "free page failed"));
+			}
+		}
+		allocated.clear();
+	}
+
+	private void unpin(BTSortedPage page) throws UnpinPageException
+	{
+		try
+		{
+			Minibase.JavabaseBM.unpinPage(page.getCurPage(), true);
+		} catch (Exception e)
+		{
+			throw new UnpinPageException(e, "unpin page failed");
+		}
+	}
+
+	// Evens out the last two pages of every level, from the leaves up, so that
+	// the last page of a level is not left with a few entries, or an index
+	// page with its left link alone. Entries move from the end of the page
+	// before it to its front, and its separator follows its first entry. The
+	// separator is the last entry of the lowest page above it that does not
+	// have it as its left link.
+	private void rebalance() throws InsertException
+	{
+		try
+		{
+			for (int level = 0; level < levels.size(); level++)
+			{
+				BTSortedPage prev = previous.get(level);
+				if (prev == null)
+					continue;
+				int up = level + 1;
+				while (levels.get(up).getPrevPage().pid == levels.get(up - 1).getCurPage().pid)
+					up++;
+				BTIndexPage parent = (BTIndexPage) levels.get(up);
+				int slot = parent.numberOfRecords() - 1;
+				if (level == 0)
+					rebalanceLeaves((BTLeafPage) prev, (BTLeafPage) levels.get(0), parent, slot);
+				else
+					rebalanceIndex((BTIndexPage) prev, (BTIndexPage) levels.get(level), parent, slot);
+			}
+		} catch (Exception e)
+		{
+			throw new InsertException(e, "cannot even out the last pages");
+		}
+	}
+
+	private void rebalanceLeaves(BTLeafPage prev, BTLeafPage last,
+			BTIndexPage parent, int slot) throws Exception
+	{
+		boolean moved = false;
+		while (prev.numberOfRecords() > 1)
+		{
+			int tail = prev.numberOfRecords() - 1;
+			int size = prev.getSlotLength(tail) + HFPage.SIZE_OF_SLOT;
+			if (used(last) + size > used(prev) - size)
+				break;
+			KeyEntry entry = prev.getCurrent(new RID(prev.getCurPage(), tail));
+			if (last.insertRecord(entry.key, (RID) entry.getData()) == null)
+				throw new InsertException(null, "entry does not fit in a page");
+			prev.deleteSortedRecord(new RID(prev.getCurPage(), tail));
+			moved = true;
+		}
+		if (moved)
+		{
+			KeyEntry first = last.getCurrent(new RID(last.getCurPage(), 0));
+			setSeparator(parent, slot, first.key, (RID) first.getData());
+		}
+	}
+
+	private void rebalanceIndex(BTIndexPage prev, BTIndexPage last,
+			BTIndexPage parent, int slot) throws Exception
+	{
+		while (prev.numberOfRecords() > 1)
+		{
+			int tail = prev.numberOfRecords() - 1;
+			int size = prev.getSlotLength(tail) + HFPage.SIZE_OF_SLOT;
+			if (last.numberOfRecords() > 0 && used(last) + size > used(prev) - size)
+				break;
+			// the separator comes down over the left link of the last page,
+			// the child of the last entry of the page before it becomes the
+			// left link, and the key of that entry goes up
+			if (last.insertKey(parent.getKey(slot), parent.getDataRid(slot),
+					last.getPrevPage(), 0) == null)
+				throw new InsertException(null, "key does not fit in an index page");
+			last.setPrevPage(prev.getPageNo(tail));
+			setSeparator(parent, slot, prev.getKey(tail), prev.getDataRid(tail));
+			prev.deleteKey(tail);
+		}
+	}
+
+	// Replaces the <key, rid> of an index entry, keeping its child.
+	private static void setSeparator(BTIndexPage parent, int slot, Key key,
+			RID rid) throws Exception
+	{
+		PageId child = parent.getPageNo(slot);
+		parent.deleteKey(slot);
+		if (parent.insertKey(key, rid, child, slot) == null)
+			throw new InsertException(null, "key does not fit in an index page");
+	}
+
+	private static int used(BTSortedPage page) throws IOException
+	{
+		return CAPACITY - page.available_space();
+	}
+
+	/**
+	 * Evens out the last two pages of every level, writes out the pages still
+	 * pinned and makes the top one the root of the index. The loader cannot
+	 * be used afterwards.
+	 *
+	 * @return the number of entries loaded.
+	 * @exception InsertException
+	 *                if the last pages cannot be evened out; every page is
+	 *                freed and the index stays empty
+	 * @exception UnpinPageException
+	 *                error when unpin a page
+	 * @exception ConstructPageException
+	 *                error when pinning the header page
+	 * @exception IOException
+	 *                error from the lower layer
+	 */
+	public int finish() throws InsertException, UnpinPageException,
+			ConstructPageException, IOException
+	{
+		if (levels.isEmpty())
+			return count;
+
+		try
+		{
+			rebalance();
+		} catch (InsertException e)
+		{
+			abort(e);
+			throw e;
+		}
+
+		PageId root = levels.get(levels.size() - 1).getCurPage();
+		try
+		{
+			for (int level = 0; level < levels.size(); level++)
+			{
+				if (previous.get(level) != null)
+					unpin(previous.get(level));
+				unpin(levels.get(level));
+			}
+		} finally
+		{
+			levels.clear();
+			previous.clear();
+			allocated.clear();
+		}
+
+		// pin the header again to write the new root, as insert does
+		BTHeaderPage header = new BTHeaderPage(file.getHeaderPage().getPageId());
+		header.set_rootId(root);
+		try
+		{
+			Minibase.JavabaseBM.unpinPage(header.getPageId(), true);
+		} catch (Exception e)
+		{
+			throw new UnpinPageException(e, "unpin header page failed");
+		}
+		return count;
+	}
+}
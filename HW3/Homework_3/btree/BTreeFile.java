@@ -83,7 +83,10 @@ public class BTreeFile extends IndexFile implements GlobalConst
 	 * @param filename
 	 *            file name. Input parameter.
 	 * @param keytype
-	 *            the type of key. Input parameter.
+	 *            the type of key. Input parameter. Only AttrType.attrInteger
+	 *            keys can be stored: KeyEntry sizes a string key by its
+	 *            length in characters, so the data after the key overwrites
+	 *            the end of the key as writeUTF lays it out.
 	 * @param keysize
 	 *            the maximum size of a key. Input parameter.
 	 * @param delete_fashion
@@ -225,7 +228,9 @@ public class BTreeFile extends IndexFile implements GlobalConst
 
 
 	/**
-	 * insert record with the given key and rid
+	 * insert record with the given key and rid. A key may be inserted with
+	 * any number of rids, and its entries are kept in the order of the rids;
+	 * inserting a <key, rid> pair that is already in the index does nothing.
 	 * 
 	 * @param key
 	 *            the key of the record. Input parameter.
@@ -300,8 +305,9 @@ public class BTreeFile extends IndexFile implements GlobalConst
 		} else {
 			// NOT IMPLEMENTED YET
 			KeyEntry newEntry = null;
+			PageId newChild = new PageId();
 			try {
-				newEntry = insertHelper(header.get_rootId(), key, rid);
+				newEntry = insertHelper(header.get_rootId(), key, rid, newChild);
 			} catch (ReplacerException | PageUnpinnedException | HashEntryNotFoundException
 					| InvalidFrameNumberException e) {
 				// TODO Auto-generated catch block
@@ -311,7 +317,7 @@ public class BTreeFile extends IndexFile implements GlobalConst
 			if (newEntry != null) {
 				// New root occurs
 				BTIndexPage newRootPage = new BTIndexPage(header.get_keyType());
-				newRootPage.insertKey(newEntry.key, (PageId)newEntry.getData());
+				newRootPage.insertKey(newEntry.key, (RID)newEntry.getData(), newChild);
 				
 				// Set the new root's left-most pointer to the original page
 				// Needn't to set the next point because the newEntry already has this info
@@ -332,7 +338,12 @@ public class BTreeFile extends IndexFile implements GlobalConst
 		}
 	}
 
-	private KeyEntry insertHelper(PageId currPage, Key key, RID rid) throws 
+	/*
+	 * Inserts <key, rid> into the subtree of currPage. If currPage splits,
+	 * returns the first <key, rid> of the new page on its right, which goes
+	 * to the parent, and sets newChild to that page; returns null otherwise.
+	 */
+	private KeyEntry insertHelper(PageId currPage, Key key, RID rid, PageId newChild) throws 
 		ConstructPageException, IOException, IndexSearchException, ReplacerException, 
 		PageUnpinnedException, HashEntryNotFoundException, InvalidFrameNumberException, 
 		IteratorException, LeafInsertRecException, KeyNotMatchException,
@@ -346,23 +357,29 @@ public class BTreeFile extends IndexFile implements GlobalConst
 			// Use page as argument to get a new indexPage does not pin the page again
 			BTIndexPage indexPage = new BTIndexPage((Page)sortedPage, keyType);
 			
-			// Get the entry(pid) for a given key
-			PageId nextPage = indexPage.getPageNoByKey(key);
+			// Get the entry(pid) for a given <key, rid>
+			int childSlot = findChild(indexPage, key, rid);
+			PageId nextPage = indexPage.getPageNo(childSlot);
 			
 			// Unpin because we've already got the next page info
 			Minibase.JavabaseBM.unpinPage(currPage, false/* not dirty */);
 			
 			// Recursively insert <key, rid> to the next page
-			KeyEntry newChildEntry = insertHelper(nextPage, key, rid);
+			KeyEntry newChildEntry = insertHelper(nextPage, key, rid, newChild);
 			
 			// If newChildEntry is null, then return because there is no child split (push up)
 			// Else, handle split
 			if (newChildEntry == null) return newChildEntry;
 			else {
 				indexPage = new BTIndexPage(currPage, keyType); // Read again
+				// The new child goes right after the child that split, even
+				// if more entries have the same key
+				int newSlot = childSlot + 1;
+				Key newKey = newChildEntry.key;
+				RID newRid = (RID)newChildEntry.getData();
 				// If there is enough space, then insert then return
-				if (indexPage.available_space() >= newChildEntry.getSizeInBytes()) {
-					indexPage.insertKey(newChildEntry.key, (PageId)newChildEntry.getData());
+				if (indexPage.available_space() >= BTIndexPage.getEntrySize(newKey)) {
+					indexPage.insertKey(newKey, newRid, newChild, newSlot);
 					Minibase.JavabaseBM.unpinPage(currPage, true);
 					return null;
 				} else {
@@ -371,58 +388,32 @@ public class BTreeFile extends IndexFile implements GlobalConst
 					
 					// NOTICE: Same logic as inserting a leaf
 					// Get the middle index
-					RID dummyRid = new RID();
-					int entryCount = 0;
-					for (KeyEntry entry = indexPage.getFirst(dummyRid); entry != null; entry = indexPage.getNext(dummyRid)){
-						entryCount++;
-					}
-					
+					int entryCount = indexPage.numberOfRecords();
 					int midEntryIndex = (int)Math.floor((entryCount - 1) / 2.0);
-					entryCount = 0;
-					KeyEntry midEntry = indexPage.getFirst(dummyRid);
-					while (entryCount < midEntryIndex) {
-						midEntry = indexPage.getNext(dummyRid);
-						entryCount++;
-					}
-					
-					// Move all entries from currIndex to newIndex, then move half size back
-					// Because there is a deletion operation, the whole copy must happen
-					KeyEntry tmpEntry = null;
-					for (tmpEntry = indexPage.getFirst(dummyRid); tmpEntry != null; 
-						 tmpEntry = indexPage.getFirst(dummyRid)) {
-						newIndexPage.insertKey(tmpEntry.key, (PageId)tmpEntry.getData());
-						indexPage.deleteSortedRecord(dummyRid);
-					}
-					
-					if (newChildEntry.key.compareTo(midEntry.key) <= 0) {
-						entryCount = 0;
-						// Move back 0 to m-1 entries from newLeaf to currLeaf
-						for (KeyEntry oldEntry = newIndexPage.getFirst(dummyRid); entryCount < midEntryIndex;
-							 oldEntry = newIndexPage.getFirst(dummyRid)) {
-							indexPage.insertKey(oldEntry.key, (PageId)(oldEntry.getData()));
-							newIndexPage.deleteSortedRecord(dummyRid);
-							entryCount++;
-						}
-						indexPage.insertKey(newChildEntry.key, (PageId)newChildEntry.getData());
-					} else {
-						entryCount = 0;
-						// Move back 0 to m entries to current
-						for (KeyEntry oldEntry = newIndexPage.getFirst(dummyRid); entryCount <= midEntryIndex;
-							 oldEntry = newIndexPage.getFirst(dummyRid)) {
-							indexPage.insertKey(oldEntry.key, (PageId)(oldEntry.getData()));
-							newIndexPage.deleteSortedRecord(dummyRid);
-							entryCount++;
-						}
-						newIndexPage.insertKey(newChildEntry.key, (PageId)newChildEntry.getData());
-					}
 					
-					// push up new parent
-					KeyEntry newParent = newIndexPage.getFirst(dummyRid);
-					newIndexPage.setPrevPage((PageId)newParent.getData());
-					newIndexPage.deleteSortedRecord(dummyRid);
+					// if the insert entry is less than the middle entry
+					//   I1 = [0, m-1] + insert
+					//   I2 = [m, n  ]
+					// else
+					//   I1 = [0  , m]
+					//   I2 = [m+1, n] + insert
+					// The entries move as they are, with the rids of their keys
+					int keep = newSlot <= midEntryIndex ? midEntryIndex : midEntryIndex + 1;
+					for (int i = keep; i < entryCount; i++)
+						newIndexPage.appendKey(indexPage, i);
+					for (int i = entryCount - 1; i >= keep; i--)
+						indexPage.deleteSortedRecord(new RID(currPage, i));
+					if (newSlot <= midEntryIndex)
+						indexPage.insertKey(newKey, newRid, newChild, newSlot);
+					else
+						newIndexPage.insertKey(newKey, newRid, newChild, newSlot - keep);
 					
-					// reset new parent's data to the new index page
-					newParent.setData(newIndexPage.getCurPage());
+					// push up new parent; its child becomes the left link of
+					// the new index page
+					KeyEntry newParent = new KeyEntry(newIndexPage.getKey(0), newIndexPage.getDataRid(0));
+					newIndexPage.setPrevPage(newIndexPage.getPageNo(0));
+					newIndexPage.deleteSortedRecord(new RID(newIndexPage.getCurPage(), 0));
+					newChild.pid = newIndexPage.getCurPage().pid;
 					
 					Minibase.JavabaseBM.unpinPage(currPage, true);
 					Minibase.JavabaseBM.unpinPage(newIndexPage.getCurPage(), true);
@@ -434,13 +425,11 @@ public class BTreeFile extends IndexFile implements GlobalConst
 			BTLeafPage currLeafPage = new BTLeafPage((Page)sortedPage, keyType);
 			KeyEntry keyEntry = new KeyEntry(key, rid);
 			
-			// Handle duplicate. No insert when it happens.
-			RID scanRid = new RID();
-			for (KeyEntry entry = currLeafPage.getFirst(scanRid); entry != null;  entry = currLeafPage.getNext(scanRid)) {
-				if (entry.key.equals(key)) {
-					Minibase.JavabaseBM.unpinPage(currPage, true);
-					return null;
-				}
+			// Handle duplicate <key, rid> pair. No insert when it happens.
+			// Other entries with the same key are fine.
+			if (currLeafPage.findEntry(key, rid) >= 0) {
+				Minibase.JavabaseBM.unpinPage(currPage, true);
+				return null;
 			}
 			
 			if (currLeafPage.available_space() >= keyEntry.getSizeInBytes()) {
@@ -464,66 +453,33 @@ public class BTreeFile extends IndexFile implements GlobalConst
 				}
 				currLeafPage.setNextPage(newLeafPage.getCurPage());
 				
-				// Get the middle index
+				// Get the middle index, and where the new entry goes
 				RID dummyRid = new RID();
-				int entryCount = 0;
-				for (KeyEntry entry = currLeafPage.getFirst(dummyRid); entry != null;  entry = currLeafPage.getNext(dummyRid)){
-					entryCount++;
-				}
-				
+				int entryCount = currLeafPage.numberOfRecords();
 				int midEntryIndex = (int)Math.floor((entryCount - 1) / 2.0);
-				entryCount = 0;
-				KeyEntry midEntry = currLeafPage.getFirst(dummyRid);
-				while (entryCount < midEntryIndex) {
-					midEntry = currLeafPage.getNext(dummyRid);
-					entryCount++;
-				}
-				
-				// System.out.println("mid entry key: " + midEntry.key);
+				int newSlot = currLeafPage.lowerBound(key, rid);
 				
-				// Move all entries from currLeaf to newLeaf, then move half size back
-				// Because there is a deletion operation, the whole copy must happen
-				KeyEntry tmpEntry = null;
-				for (tmpEntry = currLeafPage.getFirst(dummyRid); tmpEntry != null; 
-					 tmpEntry = currLeafPage.getFirst(dummyRid)) {
-					newLeafPage.insertRecord(tmpEntry.key, (RID)(tmpEntry.getData()));
-					currLeafPage.deleteSortedRecord(dummyRid);
-					// System.out.println("move key to new leaf: " + tmpEntry.key);
-				}
-				
-				// if the insert key is less than the middle key
+				// if the insert entry is less than the middle entry
 				//   L1 = [0, m-1] + insert
 				//   L2 = [m, n  ]
 				// else
 				//   L1 = [0  , m]
 				//   L2 = [m+1, n] + insert
-				if (key.compareTo(midEntry.key) <= 0) {
-					entryCount = 0;
-					// Move back 0 to m-1 entries from newLeaf to currLeaf
-					for (KeyEntry oldEntry = newLeafPage.getFirst(dummyRid); entryCount < midEntryIndex;
-						 oldEntry = newLeafPage.getFirst(dummyRid)) {
-						currLeafPage.insertRecord(oldEntry.key, (RID)(oldEntry.getData()));
-						newLeafPage.deleteSortedRecord(dummyRid);
-						entryCount++;
-						// System.out.println("undo key: " + oldEntry.key);
-					}
+				// The upper half moves by slot, as in the index split, and is
+				// deleted from the end, so no slot of the lower half moves
+				int keep = newSlot <= midEntryIndex ? midEntryIndex : midEntryIndex + 1;
+				for (int i = keep; i < entryCount; i++)
+					newLeafPage.appendRecord(currLeafPage, i);
+				for (int i = entryCount - 1; i >= keep; i--)
+					currLeafPage.deleteSortedRecord(new RID(currPage, i));
+				if (newSlot <= midEntryIndex)
 					currLeafPage.insertRecord(keyEntry.key, (RID)keyEntry.getData());
-				} else {
-					entryCount = 0;
-					// Move back 0 to m entries to current
-					for (KeyEntry oldEntry = newLeafPage.getFirst(dummyRid); entryCount <= midEntryIndex;
-						 oldEntry = newLeafPage.getFirst(dummyRid)) {
-						currLeafPage.insertRecord(oldEntry.key, (RID)(oldEntry.getData()));
-						newLeafPage.deleteSortedRecord(dummyRid);
-						entryCount++;
-						// System.out.println("undo key: " + oldEntry.key);
-					}
+				else
 					newLeafPage.insertRecord(keyEntry.key, (RID)keyEntry.getData());
-				}
 				
 				// Grab the first entry from newLeaf as new parent
-				tmpEntry = newLeafPage.getFirst(dummyRid);
-				KeyEntry newParent = new KeyEntry(tmpEntry.key, newLeafPage.getCurPage());
+				KeyEntry newParent = newLeafPage.getFirst(dummyRid);
+				newChild.pid = newLeafPage.getCurPage().pid;
 				Minibase.JavabaseBM.unpinPage(currPage, true);
 				Minibase.JavabaseBM.unpinPage(newLeafPage.getCurPage(), true);
 				return newParent;
@@ -532,6 +488,20 @@ public class BTreeFile extends IndexFile implements GlobalConst
 		return null;
 	}
 
+	/*
+	 * Finds the child of an index page whose subtree holds <key, rid>, or
+	 * would hold it once inserted: the last child whose entry is not greater
+	 * than <key, rid>. The entries of an index page are <key, rid> pairs, so
+	 * this is one binary search in the page, even when the entries of the key
+	 * span several children. Returns the slot of the child, -1 for the left
+	 * link.
+	 */
+	private int findChild(BTIndexPage indexPage, Key key, RID rid)
+			throws IOException, KeyNotMatchException
+	{
+		return indexPage.upperBound(key, rid) - 1;
+	}
+
 	/**
 	 * delete leaf entry given its <key, rid> pair. `rid' is IN the data entry;
 	 * it is not the id of the data entry)
@@ -588,7 +558,7 @@ public class BTreeFile extends IndexFile implements GlobalConst
 	{
 		if (header.get_rootId().pid != -1)
 			try {
-				deleteHelper(key, rid, header.get_rootId(), null);
+				deleteHelper(key, rid, header.get_rootId(), null, -1);
 			} catch (ReplacerException | PageUnpinnedException | HashEntryNotFoundException
 					| InvalidFrameNumberException | InvalidBufferException | HashOperationException 
 					| PageNotReadException | BufferPoolExceededException | PagePinnedException 
@@ -600,7 +570,12 @@ public class BTreeFile extends IndexFile implements GlobalConst
 		return(false);
 	}
 	
-	private Key deleteHelper(Key key, RID rid, PageId currPage, PageId parentPage) throws IOException, ConstructPageException, IteratorException, 
+	/*
+	 * Deletes <key, rid> from the subtree of currPage, the child of slot
+	 * childSlot of parentPage. Returns the slot of the entry of parentPage
+	 * to delete, whose child was merged into its left sibling; -1 if none.
+	 */
+	private int deleteHelper(Key key, RID rid, PageId currPage, PageId parentPage, int childSlot) throws IOException, ConstructPageException, IteratorException, 
 			KeyNotMatchException, ReplacerException, PageUnpinnedException, HashEntryNotFoundException, InvalidFrameNumberException,
 			LeafDeleteException, RecordNotFoundException, IndexSearchException, InvalidBufferException, HashOperationException,
 			PageNotReadException, BufferPoolExceededException, PagePinnedException, BufMgrException, DiskMgrException, 
@@ -615,24 +590,25 @@ public class BTreeFile extends IndexFile implements GlobalConst
 			// NOT IMPLEMENTED YET
 			// Find i such that Ki <= entry's key <= Ki+1
 			BTIndexPage currIndexPage = new BTIndexPage((Page)sortedPage, keyType);
-			PageId nextPage = currIndexPage.getPageNoByKey(key);
+			int nextSlot = findChild(currIndexPage, key, rid);
+			PageId nextPage = currIndexPage.getPageNo(nextSlot);
 			// Unpin because we've already got the next page info
 			Minibase.JavabaseBM.unpinPage(currPage, false/* not dirty */);
 			
-			Key oldChildKey = deleteHelper(key, rid, nextPage, currIndexPage.getCurPage());
-			if (oldChildKey == null)
-				return null;
+			int oldChildSlot = deleteHelper(key, rid, nextPage, currIndexPage.getCurPage(), nextSlot);
+			if (oldChildSlot < 0)
+				return -1;
 			
-			// System.out.println("HAS UP ENTRY with key: " + oldChildKey);
+			// System.out.println("HAS UP ENTRY at slot: " + oldChildSlot);
 			currIndexPage = new BTIndexPage(sortedPage.getCurPage(), keyType);
-			currIndexPage.deleteKey(oldChildKey);
+			currIndexPage.deleteKey(oldChildSlot);
 			
 			// check if current index is the root page
 			if (header.get_rootId().pid == currIndexPage.getCurPage().pid) {
 				// System.out.println("up entry merges then delete at the root page");
 				if (currIndexPage.numberOfRecords() > 0) {
 					Minibase.JavabaseBM.unpinPage(currIndexPage.getCurPage(), true);
-					return null;
+					return -1;
 				} else {
 				// reset header: set root to prev leaf
 				BTHeaderPage tmpHeader = new BTHeaderPage(header.getPageId());
@@ -647,7 +623,7 @@ public class BTreeFile extends IndexFile implements GlobalConst
 				
 				// free the root page
 				Minibase.JavabaseBM.freePage(currIndexPage.getCurPage());
-				return null;
+				return -1;
 				}
 			} else { // if current index is not the root page and the merging occurs
 				if (currIndexPage.available_space() > ((PAGE_SIZE - HFPage.DPFIXED) / 2)) {
@@ -657,59 +633,59 @@ public class BTreeFile extends IndexFile implements GlobalConst
 					PageId siblingPage = new PageId();
 					BTIndexPage parentIndexPage = new BTIndexPage(parentPage, keyType);
 					// 0: no sibling, -1: left sibling, 1: right sibling
-					int direction = parentIndexPage.getSibling(key, siblingPage);
+					int direction = parentIndexPage.getSibling(childSlot, siblingPage);
 					
 					// System.out.println("[Index] Sibling direction: " + direction);
 					if (direction == 0) {
 						// No siblings
 						Minibase.JavabaseBM.unpinPage(parentPage, false);
-						Minibase.JavabaseBM.unpinPage(currIndexPage.getCurPage(), false);
-						return null;
+						Minibase.JavabaseBM.unpinPage(currIndexPage.getCurPage(), true);
+						return -1;
 					}
 					
 					BTIndexPage siblingIndexPage = new BTIndexPage(siblingPage, keyType);
 					
+					// the entry of the right page in the parent, pulled down then deleted
+					int rightSlot = direction == 1 ? childSlot + 1 : childSlot;
+					Key parentKey = parentIndexPage.getKey(rightSlot);
+					RID parentRid = parentIndexPage.getDataRid(rightSlot);
+					int parentKeySize = parentIndexPage.getSlotLength(rightSlot) + HFPage.SIZE_OF_SLOT;
+					
 					// if sibling has no enough space, then do not merge
-					if (siblingIndexPage.available_space() >= ((PAGE_SIZE - HFPage.DPFIXED) - (currIndexPage.available_space()))) {
+					if (siblingIndexPage.available_space() >= ((PAGE_SIZE - HFPage.DPFIXED) - (currIndexPage.available_space())) + parentKeySize) {
 						// System.out.println("[Index] Sibling has enough space, can do a merge");
-						KeyEntry oldChildEntry; // this is used for pop-up then delete
-						RID tmpRid = new RID();
 						BTIndexPage leftPage, rightPage;
 						if (direction == 1) { // right sibling
-							oldChildEntry = siblingIndexPage.getFirst(tmpRid);
 							leftPage = currIndexPage;
 							rightPage = siblingIndexPage;
 						} else { // left sibling
-							oldChildEntry = currIndexPage.getFirst(tmpRid);
 							leftPage = siblingIndexPage;
 							rightPage = currIndexPage;
 						}
 						
 						// pull down the parent key and connect its pageNo to rightPage's prevPage
-						Key parentKey = parentIndexPage.findKey(oldChildEntry.key);
-						leftPage.insertKey(parentKey, rightPage.getPrevPage());
+						leftPage.insertKey(parentKey, parentRid, rightPage.getPrevPage(), leftPage.numberOfRecords());
 						
-						// move all entries from Right to Left
-						KeyEntry movingEntry;
-						for (movingEntry = rightPage.getFirst(tmpRid); movingEntry != null;
-							 movingEntry = rightPage.getFirst(tmpRid)) {
-							leftPage.insertRecord(movingEntry);
-							rightPage.deleteSortedRecord(tmpRid);
-						}
+						// move all entries from Right to Left; rightPage is freed
+						for (int i = 0; i < rightPage.numberOfRecords(); i++)
+							leftPage.appendKey(rightPage, i);
 						
 						// current is changed to leftPage or rightPage so
 						// it will be freed or unpinned.
 						Minibase.JavabaseBM.unpinPage(leftPage.getCurPage(), true);
 						Minibase.JavabaseBM.unpinPage(parentPage, true);
 						Minibase.JavabaseBM.freePage(rightPage.getCurPage());
-						return oldChildEntry.key;
+						return rightSlot;
 					} else {
 						// System.out.println("[Index] Sibling has no enough space to merge.");
 						Minibase.JavabaseBM.unpinPage(parentPage, false);
 						Minibase.JavabaseBM.unpinPage(currIndexPage.getCurPage(), true);
 						Minibase.JavabaseBM.unpinPage(siblingPage, true);
-						return null;
+						return -1;
 					}
+				} else {
+					Minibase.JavabaseBM.unpinPage(currIndexPage.getCurPage(), true);
+					return -1;
 				}
 			}
 			
@@ -718,7 +694,8 @@ public class BTreeFile extends IndexFile implements GlobalConst
 			RID dummyRid = new RID();
 			KeyEntry tmpEntry = currLeafPage.getFirst(dummyRid);
 			KeyEntry delEntry = new KeyEntry(key, rid);
-			if (currLeafPage.delEntry(delEntry)) {
+			boolean deleted = currLeafPage.delEntry(delEntry);
+			if (deleted) {
 				// System.out.println("Successfully delete!!");
 				// check underflow
 				if (currLeafPage.available_space() > ((PAGE_SIZE - HFPage.DPFIXED) / 2)) {
@@ -728,8 +705,8 @@ public class BTreeFile extends IndexFile implements GlobalConst
 					// If current leaf is the root, no merge
 					if (header.get_rootId().pid == currLeafPage.getCurPage().pid) {
 						if (currLeafPage.numberOfRecords() > 0) {
-							Minibase.JavabaseBM.unpinPage(currLeafPage.getCurPage(), false);
-							return null;
+							Minibase.JavabaseBM.unpinPage(currLeafPage.getCurPage(), true);
+							return -1;
 						} else {
 							// free the whole tree
 							Minibase.JavabaseBM.freePage(currLeafPage.getCurPage());
@@ -744,7 +721,7 @@ public class BTreeFile extends IndexFile implements GlobalConst
 								// TODO Auto-generated catch block
 								e.printStackTrace();
 							}
-							return null;
+							return -1;
 						}
 					} else {
 						// Merge with siblings
@@ -752,14 +729,14 @@ public class BTreeFile extends IndexFile implements GlobalConst
 						PageId siblingPage = new PageId();
 						BTIndexPage parentIndexPage = new BTIndexPage(parentPage, keyType);
 						// 0: no sibling, -1: left sibling, 1: right sibling
-						int direction = parentIndexPage.getSibling(key, siblingPage);
+						int direction = parentIndexPage.getSibling(childSlot, siblingPage);
 						
 						// System.out.println("Sibling direction: " + direction);
 						if (direction == 0) {
 							// No siblings
 							Minibase.JavabaseBM.unpinPage(parentPage, false);
-							Minibase.JavabaseBM.unpinPage(currLeafPage.getCurPage(), false);
-							return null;
+							Minibase.JavabaseBM.unpinPage(currLeafPage.getCurPage(), true);
+							return -1;
 						}
 						
 						BTLeafPage siblingLeafPage = new BTLeafPage(siblingPage, keyType);
@@ -767,15 +744,15 @@ public class BTreeFile extends IndexFile implements GlobalConst
 						// if sibling has no enough space, then do not merge
 						if (siblingLeafPage.available_space() >= (PAGE_SIZE - HFPage.DPFIXED - currLeafPage.available_space())) {
 							// System.out.println("Sibling has enough space, can do a merge");
-							KeyEntry oldChildEntry; // this is used for pop-up then delete
+							int rightSlot; // the entry of rightPage, deleted from the parent
 							RID tmpRid = new RID();
 							BTLeafPage leftPage, rightPage;
 							if (direction == 1) { // right sibling
-								oldChildEntry = siblingLeafPage.getFirst(tmpRid);
+								rightSlot = childSlot + 1;
 								leftPage = currLeafPage;
 								rightPage = siblingLeafPage;
 							} else { // left sibling
-								oldChildEntry = currLeafPage.getFirst(tmpRid);
+								rightSlot = childSlot;
 								leftPage = siblingLeafPage;
 								rightPage = currLeafPage;
 							}
@@ -801,13 +778,13 @@ public class BTreeFile extends IndexFile implements GlobalConst
 							Minibase.JavabaseBM.unpinPage(leftPage.getCurPage(), true);
 							Minibase.JavabaseBM.unpinPage(parentPage, true);
 							Minibase.JavabaseBM.freePage(rightPage.getCurPage());
-							return oldChildEntry.key;
+							return rightSlot;
 						} else {
 							// System.out.println("Sibling has no enough space to merge.");
 							Minibase.JavabaseBM.unpinPage(parentPage, true);
 							Minibase.JavabaseBM.unpinPage(currLeafPage.getCurPage(), true);
 							Minibase.JavabaseBM.unpinPage(siblingPage, true);
-							return null;
+							return -1;
 						}
 					}
 				}
@@ -815,9 +792,9 @@ public class BTreeFile extends IndexFile implements GlobalConst
 				 System.out.println("Delete FAIL!!");
 			}
 
-			Minibase.JavabaseBM.unpinPage(currLeafPage.getCurPage(), false);
+			Minibase.JavabaseBM.unpinPage(currLeafPage.getCurPage(), deleted);
 		}
-		return null;
+		return -1;
 	}
 
 
@@ -879,6 +856,27 @@ public class BTreeFile extends IndexFile implements GlobalConst
 	}
 
 	public BTLeafPage getStartLeaf(Key key, RID curRid) throws IOException, ConstructPageException, 
+		IteratorException, KeyNotMatchException, ReplacerException, PageUnpinnedException, 
+		HashEntryNotFoundException, InvalidFrameNumberException {
+		return getStartLeaf(key, null, curRid);
+	}
+
+	/**
+	 * Like getStartLeaf(key, curRid), but starts at the first entry not
+	 * smaller than <key, dataRid>, e.g. the entry after one just deleted when
+	 * its key has other entries.
+	 * 
+	 * @param key
+	 *            the smallest key wanted; null for the first entry. Input
+	 *            parameter.
+	 * @param dataRid
+	 *            the smallest rid wanted with that key; null for the first
+	 *            entry of the key. Input parameter.
+	 * @param curRid
+	 *            the rid of that entry in the leaf. Output parameter.
+	 * @return the leaf of that entry, pinned; null if there is no such entry.
+	 */
+	public BTLeafPage getStartLeaf(Key key, RID dataRid, RID curRid) throws IOException, ConstructPageException, 
 		IteratorException, KeyNotMatchException, ReplacerException, PageUnpinnedException, 
 		HashEntryNotFoundException, InvalidFrameNumberException {
 		PageId currPageNo = header.get_rootId();
@@ -890,27 +888,24 @@ public class BTreeFile extends IndexFile implements GlobalConst
 		
 		BTSortedPage sortPage = new BTSortedPage(currPageNo, header.get_keyType());
 
-		// find leaf page
-		PageId prevPageNo = null;
-		KeyEntry currEntry = null;
+		// find leaf page: binary search each index page for the child whose
+		// subtree holds the first entry not smaller than <key, dataRid>
+		PageId nextPageNo = null;
 		while (sortPage.getType() == BTSortedPage.INDEX) {
 			indexPage = new BTIndexPage(sortPage, header.get_keyType());
-			prevPageNo = indexPage.getPrevPage();
-			currEntry = indexPage.getFirst(curRid);
-			while (currEntry != null && key != null && currEntry.key.compareTo(key) < 0) {
-				prevPageNo = (PageId)(currEntry.getData());
-				currEntry = indexPage.getNext(curRid);
-			}
+			if (key == null) nextPageNo = indexPage.getPrevPage();
+			else if (dataRid == null) nextPageNo = indexPage.getFirstPageNoByKey(key);
+			else nextPageNo = indexPage.getPageNo(findChild(indexPage, key, dataRid));
 			Minibase.JavabaseBM.unpinPage(currPageNo, false);
 
-			currPageNo = prevPageNo;
+			currPageNo = nextPageNo;
 			sortPage = new BTSortedPage(currPageNo, header.get_keyType());
 		}
 
-		// get the leaf page
+		// get the leaf page, and the first entry not smaller than key in it
+		// or in the leaves on its right
 		leafPage = new BTLeafPage(sortPage, header.get_keyType());
-		PageId nextPageNo = null;
-		currEntry = leafPage.getFirst(curRid);
+		KeyEntry currEntry = getFirst(leafPage, key, dataRid, curRid);
 		while (currEntry == null) {
 			nextPageNo = leafPage.getNextPage();
 			Minibase.JavabaseBM.unpinPage(currPageNo, false);
@@ -920,32 +915,20 @@ public class BTreeFile extends IndexFile implements GlobalConst
 
 			currPageNo = nextPageNo;
 			leafPage = new BTLeafPage(currPageNo, header.get_keyType());
-			currEntry = leafPage.getFirst(curRid);
-		}
-
-		if (key == null) {
-			return leafPage;
-		}
-		
-		// if there is lo_key
-		while (currEntry.key.compareTo(key) < 0) {
-			currEntry = leafPage.getNext(curRid);
-			// scan on right
-			while (currEntry == null) {
-				nextPageNo = leafPage.getNextPage();
-				Minibase.JavabaseBM.unpinPage(currPageNo, false);
-				if (nextPageNo.pid == INVALID_PAGE) {
-					return null;
-				}
-
-				currPageNo = nextPageNo;
-				leafPage = new BTLeafPage(currPageNo, header.get_keyType());
-				currEntry = leafPage.getFirst(curRid);
-			}
+			currEntry = getFirst(leafPage, key, dataRid, curRid);
 		}
 		return leafPage;
 	}
 
+	private KeyEntry getFirst(BTLeafPage leafPage, Key key, RID dataRid, RID curRid)
+			throws IteratorException {
+		if (key == null)
+			return leafPage.getFirst(curRid);
+		if (dataRid == null)
+			return leafPage.getFirst(key, curRid);
+		return leafPage.getFirst(key, dataRid, curRid);
+	}
+
 	/**
 	 * For debug. Print the B+ tree structure out
 	 * 
@@ -7,6 +7,7 @@
 
 package btree.page;
 
+import global.Convert;
 import global.PageId;
 import global.RID;
 
@@ -14,6 +15,7 @@ import index.Key;
 import index.KeyEntry;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import diskmgr.Page;
 import exceptions.ConstructPageException;
@@ -21,6 +23,7 @@ import exceptions.IndexFullDeleteException;
 import exceptions.IndexInsertRecException;
 import exceptions.IndexSearchException;
 import exceptions.IteratorException;
+import exceptions.KeyNotMatchException;
 import exceptions.RedistributeException;
 
 /**
@@ -28,9 +31,17 @@ import exceptions.RedistributeException;
  * pairs; it doesn't know anything about the keys (their lengths or their
  * types), instead relying on the abstract interface in BT.java See those files
  * for our {key,data} pairing interface and implementation.
+ *
+ * Each key is stored with the rid of the leaf entry it was taken from, so the
+ * entries separate children by <key, rid> and a key whose entries span
+ * several children still leads to one child. The rid sits between the key
+ * and the page number, where KeyEntry does not look at it.
  */
 public class BTIndexPage extends BTSortedPage
 {
+	// The rid of a separator stored without one; it sorts before every rid.
+	private static final RID NO_RID = new RID(new PageId(Integer.MIN_VALUE),
+			Integer.MIN_VALUE);
 
 	/**
 	 * pin the page with pageno, and get the corresponding BTIndexPage, also it
@@ -90,7 +101,9 @@ public class BTIndexPage extends BTSortedPage
 	}
 
 	/**
-	 * It inserts a <key, pageNo> value into the index page,
+	 * It inserts a <key, pageNo> value into the index page. The key separates
+	 * pageNo from the child before it as if it was stored with a rid smaller
+	 * than any other, so every entry of the key goes to pageNo or after it.
 	 * 
 	 * @key the key value in <key, pageNO>. Input parameter.
 	 * @pageNo the pageNo in <key, pageNO>. Input parameter.
@@ -102,20 +115,119 @@ public class BTIndexPage extends BTSortedPage
 	public RID insertKey(Key key, PageId pageNo)
 			throws IndexInsertRecException
 	{
-		RID rid;
-		KeyEntry entry;
+		return insertKey(key, NO_RID, pageNo);
+	}
+
+	/**
+	 * Inserts a <key, dataRid, pageNo> value into the index page, in
+	 * <key, dataRid> order.
+	 * 
+	 * @param key
+	 *            the first key of the child. Input parameter.
+	 * @param dataRid
+	 *            the rid of the first entry of the child. Input parameter.
+	 * @param pageNo
+	 *            the child. Input parameter.
+	 * @return It returns the rid where the record is inserted; null if no space
+	 *         left.
+	 * @exception IndexInsertRecException
+	 *                error when insert
+	 */
+	public RID insertKey(Key key, RID dataRid, PageId pageNo)
+			throws IndexInsertRecException
+	{
+		int slot;
 		try
 		{
-			entry = new KeyEntry(key, pageNo);
-			rid = super.insertRecord(entry);
-			return rid;
+			slot = upperBound(key, dataRid);
 		} catch (Exception e)
 		{
 			throw new IndexInsertRecException(e, "Insert failed");
+		}
+		return insertKey(key, dataRid, pageNo, slot);
+	}
 
+	/**
+	 * Inserts a <key, dataRid, pageNo> value at a given slot of the index
+	 * page, e.g. right after the entry of the child that split into pageNo.
+	 * 
+	 * @param key
+	 *            the first key of the child. Input parameter.
+	 * @param dataRid
+	 *            the rid of the first entry of the child. Input parameter.
+	 * @param pageNo
+	 *            the child. Input parameter.
+	 * @param slot
+	 *            the slot the entry takes. Input parameter.
+	 * @return It returns the rid where the record is inserted; null if no space
+	 *         left.
+	 * @exception IndexInsertRecException
+	 *                error when insert
+	 */
+	public RID insertKey(Key key, RID dataRid, PageId pageNo, int slot)
+			throws IndexInsertRecException
+	{
+		try
+		{
+			byte[] entry = new KeyEntry(key, dataRid).getBytes();
+			byte[] record = Arrays.copyOf(entry, entry.length + 4);
+			Convert.setIntValue(pageNo.pid, entry.length, record);
+			return super.insertRecord(record, slot);
+		} catch (Exception e)
+		{
+			throw new IndexInsertRecException(e, "Insert failed");
 		}
 	}
 
+	/**
+	 * Copies an entry of another index page after the entries of this one,
+	 * e.g. to move the upper half of a page that splits. The entry must not
+	 * sort before the last entry of this page.
+	 * 
+	 * @param from
+	 *            the page holding the entry. Input parameter.
+	 * @param slot
+	 *            the slot of the entry in from. Input parameter.
+	 * @return It returns the rid where the record is inserted; null if no space
+	 *         left.
+	 * @exception IndexInsertRecException
+	 *                error when insert
+	 */
+	public RID appendKey(BTIndexPage from, int slot)
+			throws IndexInsertRecException
+	{
+		try
+		{
+			int offset = from.getSlotOffset(slot);
+			byte[] record = Arrays.copyOfRange(from.getpage(), offset,
+					offset + from.getSlotLength(slot));
+			return super.insertRecord(record, getSlotCnt());
+		} catch (Exception e)
+		{
+			throw new IndexInsertRecException(e, "Insert failed");
+		}
+	}
+
+	/**
+	 * Gets the size in bytes of an entry with a given key, without its slot.
+	 * 
+	 * @param key
+	 *            the key of the entry. Input parameter.
+	 * @return the size of the key, its rid and its page number.
+	 */
+	public static int getEntrySize(Key key)
+	{
+		return key.getKeyLength() + 12;
+	}
+
+	/**
+	 * The rid of an index entry is followed by the page number of its child.
+	 */
+	protected int ridEnd(int slot) throws IOException
+	{
+		return getSlotOffset(slot) + getSlotLength(slot) - 4;
+	}
+
 	/*
 	 * OPTIONAL: fullDeletekey This is optional, and is only needed if you want
 	 * to do full deletion. Return its RID. delete key may != key. But delete
@@ -126,32 +238,25 @@ public class BTIndexPage extends BTSortedPage
 	 */
 	public RID deleteKey(Key key) throws IndexFullDeleteException
 	{
-		KeyEntry entry;
 		RID rid = new RID();
 
 		try
 		{
 
-			entry = getFirst(rid);
-
-			if (entry == null)
+			if (getSlotCnt() == 0)
 				// it is supposed there is at least a record
 				throw new IndexFullDeleteException(null, "No records found");
 
-			if (key.compareTo(entry.key) < 0)
+			if (compareKey(key, 0) < 0)
 				// it is supposed to not smaller than first key
 				throw new IndexFullDeleteException(null, "First key is bigger");
 
-			while (key.compareTo(entry.key) > 0)
-			{
-				entry = getNext(rid);
-				if (entry == null)
-					break;
-			}
+			rid.pageNo = getCurPage();
+			rid.slotNo = lowerBound(key);
 
-			if (entry == null)
+			if (rid.slotNo == getSlotCnt())
 				rid.slotNo--;
-			else if (key.compareTo(entry.key) != 0)
+			else if (compareKey(key, rid.slotNo) != 0)
 				rid.slotNo--; // we want to delete the previous key
 
 			deleteSortedRecord(rid);
@@ -162,6 +267,30 @@ public class BTIndexPage extends BTSortedPage
 		}
 	} // end of deleteKey
 
+	/**
+	 * Deletes the entry of a given slot, e.g. the entry of a child that was
+	 * merged into its left sibling.
+	 * 
+	 * @param slot
+	 *            the slot of the entry. Input parameter.
+	 * @return RID of the record deleted.
+	 * @exception IndexFullDeleteException
+	 *                if no record deleted or failed by any reason
+	 */
+	public RID deleteKey(int slot) throws IndexFullDeleteException
+	{
+		try
+		{
+			RID rid = new RID(getCurPage(), slot);
+			if (!deleteSortedRecord(rid))
+				throw new IndexFullDeleteException(null, "No record at slot " + slot);
+			return rid;
+		} catch (Exception e)
+		{
+			throw new IndexFullDeleteException(e, "Full delelte failed");
+		}
+	}
+
 	/*
 	 * This function encapsulates the search routine to search a BTIndexPage by
 	 * B++ search algorithm @param key the key value used in search algorithm.
@@ -170,22 +299,12 @@ public class BTIndexPage extends BTSortedPage
 	 */
 	public PageId getPageNoByKey(Key key) throws IndexSearchException
 	{
-		KeyEntry entry;
-		int i;
-
 		try
 		{
-
-			for (i = getSlotCnt() - 1; i >= 0; i--)
-			{
-				entry = new KeyEntry(getpage(), getSlotOffset(i),
-						getSlotLength(i), keyType, INDEX);
-
-				if (key.compareTo(entry.key) >= 0)
-				{
-					return (PageId) entry.getData();
-				}
-			}
+			// the last entry whose key is not greater than key
+			int i = upperBound(key) - 1;
+			if (i >= 0)
+				return new PageId(getSlotPageNo(i));
 
 			return getPrevPage();
 		} catch (Exception e)
@@ -195,6 +314,85 @@ public class BTIndexPage extends BTSortedPage
 
 	} // getPageNoByKey
 
+	/**
+	 * Like getPageNoByKey, but goes to the left of the entries whose key
+	 * equals key, to find the first entry of a key whose entries may have
+	 * been split across several children. Scans use it to find their first
+	 * leaf.
+	 * 
+	 * @param key
+	 *            the key value used in search algorithm. Input parameter.
+	 * @return It returns the page_no of the child to be searched next.
+	 * @exception KeyNotMatchException
+	 *                if the key is not of the type of the page
+	 * @exception IOException
+	 *                error from the lower layer
+	 */
+	public PageId getFirstPageNoByKey(Key key) throws KeyNotMatchException,
+			IOException
+	{
+		// the last entry whose key is smaller than key
+		int i = lowerBound(key) - 1;
+		if (i >= 0)
+			return new PageId(getSlotPageNo(i));
+
+		return getPrevPage();
+	} // getFirstPageNoByKey
+
+	/**
+	 * Gets the child of an entry.
+	 * 
+	 * @param slot
+	 *            the slot of the entry, or -1 for the left link.
+	 * @return the page_no of the child.
+	 * @exception IOException
+	 *                error from the lower layer
+	 */
+	public PageId getPageNo(int slot) throws IOException
+	{
+		if (slot < 0)
+			return getPrevPage();
+		return new PageId(getSlotPageNo(slot));
+	}
+
+	/**
+	 * Gets the rid stored with the key of an entry: the rid of the first
+	 * entry of the child when the key was taken from it.
+	 * 
+	 * @param slot
+	 *            the slot of the entry.
+	 * @return the rid.
+	 * @exception IOException
+	 *                error from the lower layer
+	 */
+	public RID getDataRid(int slot) throws IOException
+	{
+		byte[] data = getpage();
+		int end = ridEnd(slot);
+		return new RID(new PageId(getInt(data, end - 4)), getInt(data, end - 8));
+	}
+
+	/**
+	 * Gets the key of an entry.
+	 * 
+	 * @param slot
+	 *            the slot of the entry.
+	 * @return the key.
+	 * @exception IndexSearchException
+	 *                if the entry cannot be read
+	 */
+	public Key getKey(int slot) throws IndexSearchException
+	{
+		try
+		{
+			return new KeyEntry(getpage(), getSlotOffset(slot),
+					getSlotLength(slot), keyType, INDEX).key;
+		} catch (Exception e)
+		{
+			throw new IndexSearchException(e, "Get key failed");
+		}
+	}
+
 	/**
 	 * Iterators. One of the two functions: getFirst and getNext which provide
 	 * an iterator interface to the records on a BTIndexPage.
@@ -315,31 +513,17 @@ public class BTIndexPage extends BTSortedPage
 			if (getSlotCnt() == 0) // there is no sibling
 				return 0;
 
-			int i;
-			KeyEntry entry;
-			for (i = getSlotCnt() - 1; i >= 0; i--)
+			int i = upperBound(key) - 1;
+			if (i > 0)
+			{
+				pageNo.pid = getSlotPageNo(i - 1);
+				return -1; // left sibling
+			} else if (i == 0)
 			{
-				entry = new KeyEntry(getpage(), getSlotOffset(i),
-						getSlotLength(i), keyType, INDEX);
-				if (key.compareTo(entry.key) >= 0)
-				{
-					if (i != 0)
-					{
-						entry = new KeyEntry(getpage(),
-								getSlotOffset(i - 1), getSlotLength(i - 1),
-								keyType, INDEX);
-						pageNo.pid = ((PageId) entry.getData()).pid;
-						return -1; // left sibling
-					} else
-					{
-						pageNo.pid = getLeftLink().pid;
-						return -1; // left sibling
-					}
-				}
+				pageNo.pid = getLeftLink().pid;
+				return -1; // left sibling
 			}
-			entry = new KeyEntry(getpage(), getSlotOffset(0),
-					getSlotLength(0), keyType, INDEX);
-			pageNo.pid = ((PageId) entry.getData()).pid;
+			pageNo.pid = getSlotPageNo(0);
 			return 1; // right sibling
 		} catch (Exception e)
 		{
@@ -347,6 +531,41 @@ public class BTIndexPage extends BTSortedPage
 		}
 	} // end of getSibling
 
+	/**
+	 * Like getSibling, but for the child of a given entry, which tells the
+	 * children apart when several entries have the same key.
+	 * 
+	 * @param slot
+	 *            the slot of the entry of the child, or -1 for the left link.
+	 *            Input parameter.
+	 * @param pageNo
+	 *            It returns the pageno of the sibling. Input and Output
+	 *            parameter.
+	 * @return 0 if no sibling; -1 if left sibling; 1 if right sibling.
+	 * @exception IndexFullDeleteException
+	 *                delete failed
+	 */
+	public int getSibling(int slot, PageId pageNo)
+			throws IndexFullDeleteException
+	{
+		try
+		{
+			if (getSlotCnt() == 0) // there is no sibling
+				return 0;
+
+			if (slot >= 0)
+			{
+				pageNo.pid = getPageNo(slot - 1).pid;
+				return -1; // left sibling
+			}
+			pageNo.pid = getSlotPageNo(0);
+			return 1; // right sibling
+		} catch (Exception e)
+		{
+			throw new IndexFullDeleteException(e, "Get sibling failed");
+		}
+	}
+
 	/*
 	 * find the position for old key by findKeyData, where the newKey will be
 	 * returned . @newKey It will replace certain key in index page. Input
@@ -391,22 +610,14 @@ public class BTIndexPage extends BTSortedPage
 	 */
 	KeyEntry findKeyData(Key key) throws IndexSearchException
 	{
-		KeyEntry entry;
-
 		try
 		{
+			int i = upperBound(key) - 1;
+			if (i < 0)
+				return null;
 
-			for (int i = getSlotCnt() - 1; i >= 0; i--)
-			{
-				entry = new KeyEntry(getpage(), getSlotOffset(i),
-						getSlotLength(i), keyType, INDEX);
-
-				if (key.compareTo(entry.key) >= 0)
-				{
-					return entry;
-				}
-			}
-			return null;
+			return new KeyEntry(getpage(), getSlotOffset(i), getSlotLength(i),
+					keyType, INDEX);
 		} catch (Exception e)
 		{
 			throw new IndexSearchException(e, "finger key data failed");
@@ -14,10 +14,12 @@ import index.Key;
 import index.KeyEntry;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import diskmgr.Page;
 import exceptions.ConstructPageException;
 import exceptions.IteratorException;
+import exceptions.KeyNotMatchException;
 import exceptions.LeafDeleteException;
 import exceptions.LeafInsertRecException;
 import exceptions.LeafRedistributeException;
@@ -124,6 +126,35 @@ public class BTLeafPage extends BTSortedPage
 		}
 	} // end of insertRecord
 
+	/**
+	 * Copies an entry of another leaf page after the entries of this one,
+	 * e.g. to move the upper half of a page that splits. The entry must not
+	 * sort before the last entry of this page.
+	 * 
+	 * @param from
+	 *            the page holding the entry. Input parameter.
+	 * @param slot
+	 *            the slot of the entry in from. Input parameter.
+	 * @return It returns the rid where the record is inserted; null if no space
+	 *         left.
+	 * @exception LeafInsertRecException
+	 *                error when insert
+	 */
+	public RID appendRecord(BTLeafPage from, int slot)
+			throws LeafInsertRecException
+	{
+		try
+		{
+			int offset = from.getSlotOffset(slot);
+			byte[] record = Arrays.copyOfRange(from.getpage(), offset,
+					offset + from.getSlotLength(slot));
+			return super.insertRecord(record, getSlotCnt());
+		} catch (Exception e)
+		{
+			throw new LeafInsertRecException(e, "insert record failed");
+		}
+	}
+
 	/**
 	 * Iterators. One of the two functions: getFirst and getNext which provide
 	 * an iterator interface to the records on a BTLeafPage.
@@ -161,6 +192,77 @@ public class BTLeafPage extends BTSortedPage
 		}
 	} // end of getFirst
 
+	/**
+	 * Like getFirst, but starts the iteration at the first record whose key is
+	 * not smaller than key, found by binary search.
+	 * 
+	 * @param key
+	 *            the smallest key wanted. Input parameter.
+	 * @param rid
+	 *            It will be modified and the rid of that record will be passed
+	 *            out by itself. Input and Output parameter.
+	 * @return return that KeyDataEntry. null if all keys of the page are
+	 *         smaller.
+	 * @exception IteratorException
+	 *                iterator error
+	 */
+	public KeyEntry getFirst(Key key, RID rid) throws IteratorException
+	{
+		try
+		{
+			rid.pageNo = getCurPage();
+			rid.slotNo = lowerBound(key);
+
+			if (rid.slotNo >= getSlotCnt())
+			{
+				return null;
+			}
+
+			return new KeyEntry(getpage(), getSlotOffset(rid.slotNo),
+					getSlotLength(rid.slotNo), keyType, LEAF);
+		} catch (Exception e)
+		{
+			throw new IteratorException(e, "Get first entry failed");
+		}
+	} // end of getFirst
+
+	/**
+	 * Like getFirst, but starts the iteration at the first record not smaller
+	 * than the pair <key, dataRid>, found by binary search.
+	 * 
+	 * @param key
+	 *            the smallest key wanted. Input parameter.
+	 * @param dataRid
+	 *            the smallest data rid wanted with that key. Input parameter.
+	 * @param rid
+	 *            It will be modified and the rid of that record will be passed
+	 *            out by itself. Input and Output parameter.
+	 * @return return that KeyDataEntry. null if all records of the page are
+	 *         smaller.
+	 * @exception IteratorException
+	 *                iterator error
+	 */
+	public KeyEntry getFirst(Key key, RID dataRid, RID rid)
+			throws IteratorException
+	{
+		try
+		{
+			rid.pageNo = getCurPage();
+			rid.slotNo = lowerBound(key, dataRid);
+
+			if (rid.slotNo >= getSlotCnt())
+			{
+				return null;
+			}
+
+			return new KeyEntry(getpage(), getSlotOffset(rid.slotNo),
+					getSlotLength(rid.slotNo), keyType, LEAF);
+		} catch (Exception e)
+		{
+			throw new IteratorException(e, "Get first entry failed");
+		}
+	} // end of getFirst
+
 	/**
 	 * Iterators. One of the two functions: getFirst and getNext which provide
 	 * an iterator interface to the records on a BTLeafPage.
@@ -225,23 +327,20 @@ public class BTLeafPage extends BTSortedPage
 	 */
 	public boolean delEntry(KeyEntry dEntry) throws LeafDeleteException
 	{
-		KeyEntry entry;
 		RID rid = new RID();
 
 		try
 		{
-			for (entry = getFirst(rid); entry != null; entry = getNext(rid))
-			{
-				if (entry.equals(dEntry))
-				{
-					if (super.deleteSortedRecord(rid) == false)
-						throw new LeafDeleteException(null,
-								"Delete record failed");
-					return true;
-				}
+			// records with equal keys are in the order of their data rids,
+			// so the record is found by binary search
+			rid.pageNo = getCurPage();
+			rid.slotNo = findEntry(dEntry.key, (RID) dEntry.getData());
+			if (rid.slotNo < 0)
+				return false;
 
-			}
-			return false;
+			if (super.deleteSortedRecord(rid) == false)
+				throw new LeafDeleteException(null, "Delete record failed");
+			return true;
 		} catch (Exception e)
 		{
 			throw new LeafDeleteException(e, "delete entry failed");
@@ -249,5 +348,48 @@ public class BTLeafPage extends BTSortedPage
 
 	} // end of delEntry
 
+	/**
+	 * Binary search for the record of a <key, dataRid> pair.
+	 * 
+	 * @param key
+	 *            the key of the record. Input parameter.
+	 * @param dataRid
+	 *            the rid of the data record. Input parameter.
+	 * @return the slot of the record, or -1 if it is not in the page.
+	 * @exception KeyNotMatchException
+	 *                if the key is not of the type of the page
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	public int findEntry(Key key, RID dataRid) throws KeyNotMatchException,
+			IOException
+	{
+		int slot = lowerBound(key, dataRid);
+		if (slot < getSlotCnt() && compareKey(key, slot) == 0
+				&& hasRid(slot, dataRid))
+			return slot;
+		return -1;
+	}
+
+	/**
+	 * Tells whether a record has the given data rid, reading it in place.
+	 * 
+	 * @param slot
+	 *            the slot of the record.
+	 * @param dataRid
+	 *            the rid of the data record. Input parameter.
+	 * @return true if the record holds dataRid.
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	public boolean hasRid(int slot, RID dataRid) throws IOException
+	{
+		// the rid is stored as its slot number then its page number
+		byte[] data = getpage();
+		int end = ridEnd(slot);
+		return getInt(data, end - 8) == dataRid.slotNo
+				&& getInt(data, end - 4) == dataRid.pageNo.pid;
+	}
+
 } // end of BTLeafPage
 
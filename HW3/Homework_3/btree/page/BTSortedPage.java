@@ -7,6 +7,7 @@
 
 package btree.page;
 
+import global.AttrType;
 import global.PageId;
 import global.RID;
 import global.Minibase;
@@ -21,6 +22,7 @@ import exceptions.ConstructPageException;
 import exceptions.DeleteRecException;
 import exceptions.InsertRecException;
 import exceptions.InvalidSlotNumberException;
+import exceptions.KeyNotMatchException;
 
 /**
  * BTsortedPage class just holds abstract records in sorted order, based on how
@@ -129,7 +131,6 @@ public class BTSortedPage extends HFPage
 	public RID insertRecord(KeyEntry entry) throws InsertRecException
 	{
 		int i;
-		short nType;
 		RID rid;
 		byte[] record;
 		// ASSERTIONS:
@@ -139,7 +140,8 @@ public class BTSortedPage extends HFPage
 		// general plan:
 		// 1. Insert the record into the page,
 		// which is then not necessarily any more sorted
-		// 2. Sort the page by rearranging the slots (insertion sort)
+		// 2. Binary search the slots before it for its place, comparing
+		// the keys in the page, and shift the slots after that place
 
 		try
 		{
@@ -149,40 +151,19 @@ public class BTSortedPage extends HFPage
 			if (rid == null)
 				return null;
 
-			if (entry.getData() instanceof RID)
-				nType = LEAF;
-			else
-				// entry.data instanceof IndexData
-				nType = INDEX;
-
-			// performs a simple insertion sort
-			for (i = getSlotCnt() - 1; i > 0; i--)
+			// the new record goes after the records that compare equal to it,
+			// as the insertion sort this replaces put it
+			int last = getSlotCnt() - 1;
+			int low = 0, high = last;
+			while (low < high)
 			{
-
-				Key key_i, key_iplus1;
-
-				key_i = new KeyEntry(getpage(), getSlotOffset(i),
-						getSlotLength(i), keyType, nType).key;
-
-				key_iplus1 = new KeyEntry(getpage(),
-						getSlotOffset(i - 1), getSlotLength(i - 1), keyType,
-						nType).key;
-
-				if (key_i.compareTo(key_iplus1) < 0)
-				{
-					// switch slots:
-					int ln, off;
-					ln = getSlotLength(i);
-					off = getSlotOffset(i);
-					setSlot(i, getSlotLength(i - 1), getSlotOffset(i - 1));
-					setSlot(i - 1, ln, off);
-				} else
-				{
-					// end insertion sort
-					break;
-				}
-
+				int mid = (low + high) >>> 1;
+				if (compareRecords(last, mid) >= 0)
+					low = mid + 1;
+				else
+					high = mid;
 			}
+			i = moveLastSlot(low);
 
 			// ASSERTIONS:
 			// - record keys increase with increasing slot number
@@ -198,6 +179,67 @@ public class BTSortedPage extends HFPage
 
 	} // end of insertRecord
 
+	/**
+	 * Inserts a record at a given slot, shifting the slots after it. This is
+	 * for index pages, where the entries of equal keys are in the order of
+	 * their children and not in an order the keys alone give.
+	 * 
+	 * @param entry
+	 *            the entry to be inserted. Input parameter.
+	 * @param slot
+	 *            the slot the entry takes, at most the number of records.
+	 * @return its rid where the entry was inserted; null if no space left.
+	 * @exception InsertRecException
+	 *                error when insert
+	 */
+	protected RID insertRecord(KeyEntry entry, int slot)
+			throws InsertRecException
+	{
+		try
+		{
+			return insertRecord(entry.getBytes(), slot);
+		} catch (Exception e)
+		{
+			throw new InsertRecException(e, "insert record failed");
+		}
+	}
+
+	/**
+	 * Inserts the bytes of a record at a given slot, shifting the slots after
+	 * it.
+	 * 
+	 * @param record
+	 *            the record to be inserted. Input parameter.
+	 * @param slot
+	 *            the slot the record takes, at most the number of records.
+	 * @return its rid where the record was inserted; null if no space left.
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	protected RID insertRecord(byte[] record, int slot) throws IOException
+	{
+		RID rid = super.insertRecord(record);
+		if (rid == null)
+			return null;
+
+		rid.slotNo = moveLastSlot(slot);
+		return rid;
+	}
+
+	// Moves the record of the last slot to a slot, shifting the slots from
+	// there on by one; the records themselves stay where they are.
+	private int moveLastSlot(int slot) throws IOException
+	{
+		int i;
+		int last = getSlotCnt() - 1;
+		int ln = getSlotLength(last);
+		int off = getSlotOffset(last);
+		for (i = last; i > slot; i--)
+			setSlot(i, getSlotLength(i - 1), getSlotOffset(i - 1));
+		setSlot(i, ln, off);
+		return i;
+	}
+
 	/**
 	 * Deletes a record from a sorted record page. It also calls
 	 * HFPage.compact_slot_dir() to compact the slot directory.
@@ -227,6 +269,343 @@ public class BTSortedPage extends HFPage
 		}
 	} // end of deleteSortedRecord
 
+	/**
+	 * Compares a key with the key of a slot, reading the key in place in the
+	 * page instead of building a KeyEntry for it.
+	 * 
+	 * @param key
+	 *            the key to compare. Input parameter.
+	 * @param slot
+	 *            the slot whose key is compared.
+	 * @return less than, equal to or greater than 0 if key is smaller than,
+	 *         equal to or greater than the key of the slot.
+	 * @exception KeyNotMatchException
+	 *                if the key is not of the type of the page
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	public int compareKey(Key key, int slot) throws KeyNotMatchException,
+			IOException
+	{
+		byte[] data = getpage();
+		int offset = getSlotOffset(slot);
+		Object value = key.getKey();
+
+		if (keyType == AttrType.attrInteger && value instanceof Integer)
+		{
+			int k = ((Integer) value).intValue();
+			int v = getInt(data, offset);
+			return k < v ? -1 : (k == v ? 0 : 1);
+		}
+		if (keyType != AttrType.attrString || !(value instanceof String))
+			throw new KeyNotMatchException(null, "key types do not match");
+
+		String k = (String) value;
+		int pos = offset + 2;
+		int end = pos + getUTFLength(data, offset);
+		int i = 0;
+		while (i < k.length() && pos < end)
+		{
+			int diff = k.charAt(i++) - getChar(data, pos);
+			if (diff != 0)
+				return diff;
+			pos += getCharLength(data, pos);
+		}
+		if (i < k.length())
+			return 1;
+		return pos < end ? -1 : 0;
+	}
+
+	/**
+	 * Compares the keys of two slots in place in the page.
+	 * 
+	 * @param slot1
+	 *            the first slot.
+	 * @param slot2
+	 *            the second slot.
+	 * @return less than, equal to or greater than 0 if the key of slot1 is
+	 *         smaller than, equal to or greater than the key of slot2.
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	public int compareSlots(int slot1, int slot2) throws IOException
+	{
+		byte[] data = getpage();
+		int offset1 = getSlotOffset(slot1);
+		int offset2 = getSlotOffset(slot2);
+
+		if (keyType == AttrType.attrInteger)
+		{
+			int v1 = getInt(data, offset1);
+			int v2 = getInt(data, offset2);
+			return v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+		}
+
+		int pos1 = offset1 + 2, end1 = pos1 + getUTFLength(data, offset1);
+		int pos2 = offset2 + 2, end2 = pos2 + getUTFLength(data, offset2);
+		while (pos1 < end1 && pos2 < end2)
+		{
+			int diff = getChar(data, pos1) - getChar(data, pos2);
+			if (diff != 0)
+				return diff;
+			pos1 += getCharLength(data, pos1);
+			pos2 += getCharLength(data, pos2);
+		}
+		if (pos1 < end1)
+			return 1;
+		return pos2 < end2 ? -1 : 0;
+	}
+
+	/**
+	 * Compares two records to sort them in the page: by their keys, then by
+	 * their data rids.
+	 * 
+	 * @param slot1
+	 *            the first slot.
+	 * @param slot2
+	 *            the second slot.
+	 * @return less than, equal to or greater than 0 if the record of slot1
+	 *         sorts before, with or after the record of slot2.
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	protected int compareRecords(int slot1, int slot2) throws IOException
+	{
+		int cmp = compareSlots(slot1, slot2);
+		if (cmp != 0)
+			return cmp;
+		byte[] data = getpage();
+		int end1 = ridEnd(slot1);
+		int end2 = ridEnd(slot2);
+		return compareRids(getInt(data, end1 - 4), getInt(data, end1 - 8),
+				getInt(data, end2 - 4), getInt(data, end2 - 8));
+	}
+
+	/**
+	 * Compares a <key, dataRid> pair with the record of a slot, in place.
+	 * 
+	 * @param key
+	 *            the key to compare. Input parameter.
+	 * @param dataRid
+	 *            the data rid to compare. Input parameter.
+	 * @param slot
+	 *            the slot whose record is compared.
+	 * @return less than, equal to or greater than 0 if the pair sorts before,
+	 *         with or after the record.
+	 * @exception KeyNotMatchException
+	 *                if the key is not of the type of the page
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	public int compareEntry(Key key, RID dataRid, int slot)
+			throws KeyNotMatchException, IOException
+	{
+		int cmp = compareKey(key, slot);
+		if (cmp != 0)
+			return cmp;
+		byte[] data = getpage();
+		int end = ridEnd(slot);
+		return compareRids(dataRid.pageNo.pid, dataRid.slotNo,
+				getInt(data, end - 4), getInt(data, end - 8));
+	}
+
+	/**
+	 * Gets the end of the data rid of a record, which is stored as its slot
+	 * number then its page number. Leaf records end with it; index records
+	 * hold the page number of their child after it.
+	 * 
+	 * @param slot
+	 *            the slot of the record.
+	 * @return the offset in the page right after the rid.
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	protected int ridEnd(int slot) throws IOException
+	{
+		return getSlotOffset(slot) + getSlotLength(slot);
+	}
+
+	/**
+	 * Compares two data rids, by page number and then by slot number.
+	 * 
+	 * @param rid1
+	 *            the first rid. Input parameter.
+	 * @param rid2
+	 *            the second rid. Input parameter.
+	 * @return less than, equal to or greater than 0 if rid1 sorts before, with
+	 *         or after rid2.
+	 */
+	public static int compareRids(RID rid1, RID rid2)
+	{
+		return compareRids(rid1.pageNo.pid, rid1.slotNo, rid2.pageNo.pid,
+				rid2.slotNo);
+	}
+
+	private static int compareRids(int pageNo1, int slotNo1, int pageNo2,
+			int slotNo2)
+	{
+		if (pageNo1 != pageNo2)
+			return pageNo1 < pageNo2 ? -1 : 1;
+		return slotNo1 < slotNo2 ? -1 : (slotNo1 == slotNo2 ? 0 : 1);
+	}
+
+	/**
+	 * Binary search for the first slot whose key is not smaller than a key.
+	 * 
+	 * @param key
+	 *            the key searched. Input parameter.
+	 * @return the slot, or the number of slots if all keys are smaller.
+	 * @exception KeyNotMatchException
+	 *                if the key is not of the type of the page
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	public int lowerBound(Key key) throws KeyNotMatchException, IOException
+	{
+		int low = 0, high = getSlotCnt();
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (compareKey(key, mid) > 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Binary search for the first slot whose key is greater than a key.
+	 * 
+	 * @param key
+	 *            the key searched. Input parameter.
+	 * @return the slot, or the number of slots if no key is greater.
+	 * @exception KeyNotMatchException
+	 *                if the key is not of the type of the page
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	public int upperBound(Key key) throws KeyNotMatchException, IOException
+	{
+		int low = 0, high = getSlotCnt();
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (compareKey(key, mid) >= 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Binary search for the first record not smaller than a <key, dataRid>
+	 * pair. Records are sorted by key, and records with equal keys by data
+	 * rid, page number first.
+	 * 
+	 * @param key
+	 *            the key searched. Input parameter.
+	 * @param dataRid
+	 *            the data rid searched. Input parameter.
+	 * @return the slot, or the number of slots if all records are smaller.
+	 * @exception KeyNotMatchException
+	 *                if the key is not of the type of the page
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	public int lowerBound(Key key, RID dataRid) throws KeyNotMatchException,
+			IOException
+	{
+		int low = 0, high = getSlotCnt();
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (compareEntry(key, dataRid, mid) > 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Binary search for the first record greater than a <key, dataRid> pair.
+	 * 
+	 * @param key
+	 *            the key searched. Input parameter.
+	 * @param dataRid
+	 *            the data rid searched. Input parameter.
+	 * @return the slot, or the number of slots if no record is greater.
+	 * @exception KeyNotMatchException
+	 *                if the key is not of the type of the page
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	public int upperBound(Key key, RID dataRid) throws KeyNotMatchException,
+			IOException
+	{
+		int low = 0, high = getSlotCnt();
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (compareEntry(key, dataRid, mid) >= 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Reads the page number stored at the end of an index slot.
+	 * 
+	 * @param slot
+	 *            the slot of an index page.
+	 * @return the page number.
+	 * @exception IOException
+	 *                I/O errors
+	 */
+	protected int getSlotPageNo(int slot) throws IOException
+	{
+		return getInt(getpage(), getSlotOffset(slot) + getSlotLength(slot) - 4);
+	}
+
+	// Reads an integer as written by Convert.setIntValue, without the
+	// streams Convert.getIntValue goes through.
+	static int getInt(byte[] data, int offset)
+	{
+		return (data[offset] << 24) | ((data[offset + 1] & 0xff) << 16)
+				| ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+	}
+
+	// String keys are stored as by DataOutput.writeUTF: their length in
+	// bytes, then their characters in modified UTF-8, which are decoded one
+	// at a time as they are compared. KeyEntry does not leave room for the
+	// length, so a B+ tree cannot hold string keys yet; BTTest test6 checks
+	// the comparisons on records written directly.
+	private static int getUTFLength(byte[] data, int offset)
+	{
+		return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+	}
+
+	private static int getChar(byte[] data, int pos)
+	{
+		int c = data[pos] & 0xff;
+		if (c < 0x80)
+			return c;
+		if ((c & 0xe0) == 0xc0)
+			return ((c & 0x1f) << 6) | (data[pos + 1] & 0x3f);
+		return ((c & 0x0f) << 12) | ((data[pos + 1] & 0x3f) << 6)
+				| (data[pos + 2] & 0x3f);
+	}
+
+	private static int getCharLength(byte[] data, int pos)
+	{
+		int c = data[pos] & 0xff;
+		return c < 0x80 ? 1 : ((c & 0xe0) == 0xc0 ? 2 : 3);
+	}
+
 	/**
 	 * How many records are in the page
 	 * 
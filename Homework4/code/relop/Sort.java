@@ -0,0 +1,522 @@
+package relop;
+
+import global.AttrType;
+import global.GlobalConst;
+import global.Minibase;
+import heap.HeapFile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * <p>External merge sort of the tuples of an iterator, e.g. for ORDER BY or
+ * to build an index from sorted keys.</p>
+ * <p>Runs are generated by replacement selection: a heap holding up to
+ * <code>runSize</code> tuples outputs its smallest tuple to the current run
+ * and takes the next input tuple in its place, into the current run if it
+ * sorts after the tuple just written and into the next run otherwise. Runs
+ * are stored in temporary heap files and come out about twice as long as the
+ * heap on random input, while sorted input makes a single run. If the whole
+ * input fits in the heap, it is sorted in memory and no file is written.</p>
+ * <p>Every run being merged keeps a scan open on its heap file, which pins
+ * its pages, so runs are merged as many at a time as the unpinned frames of
+ * the buffer pool allow; passes of such k-way merges run until the last
+ * one can be streamed out by this iterator.</p>
+ * @version 1.0
+ */
+public class Sort extends Iterator implements GlobalConst
+{
+	/** The iterator whose tuples are sorted. */
+	protected Iterator iter;
+
+	/** The fields to sort on, the most significant first. */
+	protected int[] fields;
+
+	/** Whether each field sorts in ascending order. */
+	protected boolean[] ascending;
+
+	/** The number of tuples held in memory while generating runs. */
+	protected int runSize;
+
+	/** The input, if it fit in memory, in sorted order. */
+	private ArrayList<Tuple> sorted;
+
+	/** The position of the next tuple in the sorted list. */
+	private int position;
+
+	/** The runs of the last merge pass. */
+	private ArrayList<HeapFile> runs;
+
+	/** The scans of the last merge, by their current tuple. */
+	private PriorityQueue<RunScan> merge;
+
+	/** Every run file written and not deleted yet. */
+	private final ArrayList<HeapFile> runFiles = new ArrayList<HeapFile>();
+
+	/** Every scan of a run not closed yet; each one pins pages. */
+	private final ArrayList<FileScan> runScans = new ArrayList<FileScan>();
+
+	/** Variable to hold the next tuple to be returned. */
+	private Tuple nextTuple;
+
+	/** Orders tuples on the sort fields. */
+	private final Comparator<Tuple> order = new Comparator<Tuple>()
+	{
+		public int compare(Tuple t1, Tuple t2)
+		{
+			return compareTuples(t1, t2);
+		}
+	};
+
+	/** A run being merged, and its current tuple. */
+	private static class RunScan
+	{
+		FileScan scan;
+		Tuple tuple;
+	}
+
+	/**
+	 * A heap file holding a run. Temporary heap files delete themselves when
+	 * they are finalized, at any time and on another thread, so runs are
+	 * named files that only the sort deletes. Deleting a file twice frees
+	 * its pages twice, even once other files use them, so the second delete
+	 * is skipped.
+	 */
+	private static class RunFile extends HeapFile
+	{
+		/** The number of the last run file created. */
+		private static int lastRun = 0;
+
+		private boolean deleted;
+
+		RunFile()
+		{
+			super(newName());
+		}
+
+		/**
+		 * Gets a file name that is not in use yet.
+		 */
+		private static String newName()
+		{
+			String name;
+			do
+			{
+				name = "Sort.run." + (++lastRun);
+			}
+			while (Minibase.DiskManager.get_file_entry(name) != null);
+			return name;
+		}
+
+		public void deleteFile()
+		{
+			if (!deleted)
+			{
+				deleted = true;
+				super.deleteFile();
+			}
+		}
+	}
+
+	/** A tuple in the replacement selection heap, and the run it goes to. */
+	private static class RunEntry
+	{
+		int run;
+		Tuple tuple;
+
+		RunEntry(int run, Tuple tuple)
+		{
+			this.run = run;
+			this.tuple = tuple;
+		}
+	}
+
+	// --------------------------------------------------------------------------
+
+	/**
+	 * Constructs a sort in ascending order, holding as many tuples in memory
+	 * as would fit in the unpinned frames of the buffer pool.
+	 * @param iter The {@link relop.Iterator} object whose tuples are sorted.
+	 * @param fields The numbers of the fields to sort on, the most significant
+	 * first.
+	 */
+	public Sort(Iterator iter, int... fields)
+	{
+		this(iter, fields, null, defaultRunSize(iter.schema));
+	}
+
+	/**
+	 * Constructs a sort.
+	 * @param iter The {@link relop.Iterator} object whose tuples are sorted.
+	 * @param fields The numbers of the fields to sort on, the most significant
+	 * first.
+	 * @param ascending Whether each field sorts in ascending order; null to
+	 * sort all of them in ascending order.
+	 * @param runSize The number of tuples held in memory while generating
+	 * runs.
+	 */
+	public Sort(Iterator iter, int[] fields, boolean[] ascending, int runSize)
+	{
+		if (runSize < 1)
+			throw new IllegalArgumentException("run size must be positive");
+		if (ascending == null)
+		{
+			ascending = new boolean[fields.length];
+			Arrays.fill(ascending, true);
+		}
+		this.iter = iter;
+		this.schema = iter.schema;
+		this.fields = fields;
+		this.ascending = ascending;
+		this.runSize = runSize;
+		sort();
+	}
+
+	/**
+	 * Gets the number of tuples that would fit in the unpinned frames of the
+	 * buffer pool. This is a heuristic: the tuples are held on the Java heap,
+	 * not in the frames, so the buffer pool only gives a scale for the heap.
+	 * Only the fan-in of the merges depends on frames being free.
+	 */
+	protected static int defaultRunSize(Schema schema)
+	{
+		int frames = Math.max(1, Minibase.BufferManager.getNumUnpinned());
+		return frames * Math.max(1, PAGE_SIZE / schema.getLength());
+	}
+
+	/**
+	 * Gets how many runs can be merged at once: every open scan keeps its
+	 * directory and data pages pinned, and the output run needs a few frames.
+	 */
+	protected static int fanIn()
+	{
+		return Math.max(2, (Minibase.BufferManager.getNumUnpinned() - 4) / 2);
+	}
+
+	/**
+	 * Compares two tuples on the sort fields.
+	 * @return less than, equal to or greater than 0 if t1 sorts before, with
+	 * or after t2.
+	 * @throws IllegalStateException if a field has no known type
+	 */
+	protected int compareTuples(Tuple t1, Tuple t2) throws IllegalStateException
+	{
+		for (int i = 0; i < fields.length; i++)
+		{
+			int fldno = fields[i];
+			int comp;
+			switch (schema.fieldType(fldno))
+			{
+
+			case AttrType.INTEGER:
+				comp = Integer.compare(t1.getIntFld(fldno), t2.getIntFld(fldno));
+				break;
+
+			case AttrType.FLOAT:
+				comp = Float.compare(t1.getFloatFld(fldno), t2.getFloatFld(fldno));
+				break;
+
+			case AttrType.STRING:
+				comp = t1.getStringFld(fldno).compareTo(t2.getStringFld(fldno));
+				break;
+
+			default:
+				throw new IllegalStateException("unknown types to compare");
+
+			} // switch
+			if (comp != 0)
+				return ascending[i] ? comp : -comp;
+		}
+		return 0;
+	}
+
+	/**
+	 * Reads the whole input, into memory if it fits or else into runs, and
+	 * merges the runs until the rest can be merged as the tuples are returned.
+	 * If it fails, the scans and runs written so far are released.
+	 */
+	private void sort()
+	{
+		try
+		{
+			generateRuns();
+		}
+		catch (RuntimeException e)
+		{
+			releaseRuns();
+			throw e;
+		}
+	}
+
+	private void generateRuns()
+	{
+		// fill the heap; the input may end before it is full. The input is
+		// asked for its next tuple only once that tuple is wanted, since
+		// hasNext reads it.
+		PriorityQueue<RunEntry> heap = new PriorityQueue<RunEntry>(Math.min(runSize, 1 << 16), new Comparator<RunEntry>()
+		{
+			public int compare(RunEntry e1, RunEntry e2)
+			{
+				if (e1.run != e2.run)
+					return e1.run < e2.run ? -1 : 1;
+				return compareTuples(e1.tuple, e2.tuple);
+			}
+		});
+		boolean more = iter.hasNext();
+		while (more && heap.size() < runSize)
+		{
+			heap.add(new RunEntry(0, iter.getNext()));
+			more = iter.hasNext();
+		}
+
+		if (!more)
+		{
+			sorted = new ArrayList<Tuple>(heap.size());
+			for (RunEntry entry : heap)
+				sorted.add(entry.tuple);
+			Collections.sort(sorted, order);
+			position = 0;
+			return;
+		}
+
+		// replacement selection: a tuple smaller than the last one written
+		// waits for the next run
+		runs = new ArrayList<HeapFile>();
+		HeapFile run = null;
+		int runNo = -1;
+		while (!heap.isEmpty())
+		{
+			RunEntry entry = heap.poll();
+			if (entry.run != runNo)
+			{
+				run = newRun();
+				runs.add(run);
+				runNo = entry.run;
+			}
+			entry.tuple.insertIntoFile(run);
+
+			if (more)
+			{
+				Tuple tuple = iter.getNext();
+				heap.add(new RunEntry(compareTuples(tuple, entry.tuple) < 0 ? runNo + 1 : runNo, tuple));
+				more = iter.hasNext();
+			}
+		}
+
+		// merge passes, until the runs left can all be merged at once
+		int fanIn = fanIn();
+		while (runs.size() > fanIn)
+		{
+			ArrayList<HeapFile> merged = new ArrayList<HeapFile>();
+			for (int first = 0; first < runs.size(); first += fanIn)
+			{
+				List<HeapFile> group = runs.subList(first, Math.min(first + fanIn, runs.size()));
+				if (group.size() == 1)
+				{
+					merged.add(group.get(0));
+					continue;
+				}
+				HeapFile out = newRun();
+				PriorityQueue<RunScan> scans = openScans(group);
+				Tuple tuple;
+				while ((tuple = nextMerged(scans)) != null)
+					tuple.insertIntoFile(out);
+				for (HeapFile file : group)
+				{
+					file.deleteFile();
+					runFiles.remove(file);
+				}
+				merged.add(out);
+			}
+			runs = merged;
+		}
+		merge = openScans(runs);
+	}
+
+	/**
+	 * Creates a run file, deleted by close if it is not merged before.
+	 */
+	private HeapFile newRun()
+	{
+		HeapFile file = new RunFile();
+		runFiles.add(file);
+		return file;
+	}
+
+	/**
+	 * Opens a scan on each run, ordered by their first tuples.
+	 */
+	private PriorityQueue<RunScan> openScans(List<HeapFile> files)
+	{
+		PriorityQueue<RunScan> scans = new PriorityQueue<RunScan>(files.size(), new Comparator<RunScan>()
+		{
+			public int compare(RunScan s1, RunScan s2)
+			{
+				return compareTuples(s1.tuple, s2.tuple);
+			}
+		});
+		for (HeapFile file : files)
+		{
+			RunScan run = new RunScan();
+			run.scan = new FileScan(schema, file);
+			runScans.add(run.scan);
+			if (run.scan.hasNext())
+			{
+				run.tuple = run.scan.getNext();
+				scans.add(run);
+			}
+			else
+			{
+				closeScan(run.scan);
+			}
+		}
+		return scans;
+	}
+
+	/**
+	 * Takes the smallest tuple of a merge, or null once all the runs are
+	 * exhausted.
+	 */
+	private Tuple nextMerged(PriorityQueue<RunScan> scans)
+	{
+		RunScan run = scans.poll();
+		if (run == null)
+			return null;
+		Tuple tuple = run.tuple;
+		if (run.scan.hasNext())
+		{
+			run.tuple = run.scan.getNext();
+			scans.add(run);
+		}
+		else
+		{
+			closeScan(run.scan);
+		}
+		return tuple;
+	}
+
+	/**
+	 * Closes a scan of a run once it is exhausted.
+	 */
+	private void closeScan(FileScan scan)
+	{
+		scan.close();
+		runScans.remove(scan);
+	}
+
+	/**
+	 * Closes every scan of a run still open, whether or not it is part of
+	 * the last merge.
+	 */
+	private void closeScans()
+	{
+		for (FileScan scan : runScans)
+			scan.close();
+		runScans.clear();
+		merge = null;
+	}
+
+	/**
+	 * Closes the scans of the runs and deletes the runs not deleted yet.
+	 */
+	private void releaseRuns()
+	{
+		closeScans();
+		for (HeapFile file : runFiles)
+			file.deleteFile();
+		runFiles.clear();
+		runs = null;
+	}
+
+	/**
+	 * Gives a one-line explaination of the iterator, repeats the call on any
+	 * child iterators, and increases the indent depth along the way.
+	 * @param depth The indentation depth of the output.
+	 */
+	public void explain(int depth)
+	{
+		indent(depth);
+		StringBuilder keys = new StringBuilder();
+		for (int i = 0; i < fields.length; i++)
+		{
+			if (i > 0)
+				keys.append(", ");
+			keys.append(schema.fieldName(fields[i])).append(ascending[i] ? " ASC" : " DESC");
+		}
+		System.out.println("Sort : " + keys + " (run size " + runSize + ")");
+		iter.explain(depth + 1);
+	}
+
+	/**
+	 * Restarts the iterator, i.e. as if it were just constructed. The input
+	 * is not read again: the sorted tuples or runs are kept until the
+	 * iterator is closed.
+	 */
+	public void restart()
+	{
+		nextTuple = null;
+		if (sorted != null)
+		{
+			position = 0;
+		}
+		else if (runs != null)
+		{
+			closeScans();
+			merge = openScans(runs);
+		}
+	}
+
+	/**
+	 * Checks if the iterator is open.
+	 * @return <code>true</code> if the iterator is open; <code>false</code> otherwise.
+	 */
+	public boolean isOpen()
+	{
+		return (sorted != null || runs != null);
+	}
+
+	/**
+	 * Closes the iterator, releasing any resources (i.e. temporary fires).
+	 */
+	public void close()
+	{
+		releaseRuns();
+		sorted = null;
+		nextTuple = null;
+		iter.close();
+	}
+
+	/**
+	 * Checks if there are more tuples available, and precomputes the next
+	 * one.
+	 * @return <code>true</code> if there are more tuples, <code>false<code> otherwise.
+	 */
+	public boolean hasNext()
+	{
+		if (sorted != null)
+			nextTuple = position < sorted.size() ? sorted.get(position++) : null;
+		else if (merge != null)
+			nextTuple = nextMerged(merge);
+		else
+			nextTuple = null;
+		return (nextTuple != null);
+	}
+
+	/**
+	 * Gets the next tuple in the iteration.
+	 * @return The next available {@link relop.Tuple} object of the relation.
+	 * @throws IllegalStateException if no more tuples
+	 */
+	public Tuple getNext() throws IllegalStateException
+	{
+		if (nextTuple == null)
+			throw new IllegalStateException("no more tuples");
+		Tuple tuple = nextTuple;
+		nextTuple = null;
+		return tuple;
+	}
+}
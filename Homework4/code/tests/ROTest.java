@@ -12,6 +12,7 @@ import relop.Predicate;
 import relop.Projection;
 import relop.Schema;
 import relop.SimpleJoin;
+import relop.Sort;
 import relop.Tuple;
 
 /**
@@ -203,6 +204,102 @@ class ROTest extends TestDriver
 		}
 	} 
 
+    /**
+	 * Test the Sort operator, in memory and with runs merged in several passes:
+	 * SELECT * FROM Drivers ORDER BY Age;
+	 * SELECT * FROM Drivers ORDER BY NumSeats, DriverId DESC;
+	 */
+	protected boolean test3()
+	{
+		try
+		{
+			System.out.println("\nTest 3: External merge sort operator\n");
+			initCounts();
+
+			// Create and populate a drivers table in a scrambled order
+			saveCounts(null);
+			int count = 3000;
+			HeapFile drivers = new HeapFile("SortDrivers");
+			Tuple tuple = new Tuple(s_drivers);
+			for (int i = 0; i < count; i++)
+			{
+				int id = (i * 7919) % count;
+				tuple.setAllFields(id, "f" + id, "l" + id, (float) ((id * 31) % 997), id % 10);
+				tuple.insertIntoFile(drivers);
+			}
+			saveCounts("drivers");
+
+			// Small runs, so that there are more runs than can be merged at once
+			saveCounts(null);
+			Sort sort = new Sort(new FileScan(s_drivers, drivers), new int[] { 3 }, null, 20);
+			sort.explain(0);
+			for (int pass = 0; pass < 2; pass++)
+			{
+				int n = 0;
+				float last = -1;
+				while (sort.hasNext())
+				{
+					float age = sort.getNext().getFloatFld(3);
+					if (age < last)
+					{
+						throw new IllegalStateException("age " + age + " sorted after " + last);
+					}
+					last = age;
+					n++;
+				}
+				if (n != count)
+				{
+					throw new IllegalStateException("sorted " + n + " of " + count + " tuples");
+				}
+				sort.restart();
+			}
+			sort.close();
+			saveCounts("Sort runs");
+
+			// In memory, on two fields
+			saveCounts(null);
+			sort = new Sort(new FileScan(s_drivers, drivers), new int[] { 4, 0 }, new boolean[] { true, false }, count);
+			int n = 0;
+			Tuple last = null;
+			while (sort.hasNext())
+			{
+				Tuple next = sort.getNext();
+				if (last != null && (next.getIntFld(4) < last.getIntFld(4)
+					|| (next.getIntFld(4) == last.getIntFld(4) && next.getIntFld(0) > last.getIntFld(0))))
+				{
+					throw new IllegalStateException("driver " + next.getIntFld(0) + " sorted after " + last.getIntFld(0));
+				}
+				last = next;
+				n++;
+			}
+			sort.close();
+			if (n != count)
+			{
+				throw new IllegalStateException("sorted " + n + " of " + count + " tuples");
+			}
+			saveCounts("Sort memory");
+
+			// Delete the table before doing final counts; the sorts deleted
+			// their runs when they were closed
+			drivers.deleteFile();
+			saveCounts("Sort");
+
+			System.out.print("\n\nTest 3 completed without exception.");
+			return PASS;
+		}
+		catch (Exception ex)
+		{
+			ex.printStackTrace(System.out);
+			System.out.print("\n\nTest 3 terminated because of exception.");
+			return FAIL;
+		}
+		finally
+		{
+			printSummary(4);
+			System.out.println();
+		}
+	}
+
     /**
 	 * Test application entry point; runs all tests.
 	 */
@@ -237,6 +334,7 @@ class ROTest extends TestDriver
 		boolean status = PASS;
 		status &= rot.test1();
 		status &= rot.test2();
+		status &= rot.test3();
 
 		// Display the final results
 		System.out.println();